@@ -0,0 +1,116 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025;
+
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.webbrobotics.frc2025.subsystems.drive.DriveConstants;
+
+/**
+ * Benchmarks the pose estimator updates, calling them directly rather than through the estimator
+ * thread. The odometry history is filled first, so vision measurements replay a full buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RobotStateBenchmark {
+  private static final double samplePeriodSecs = 1.0 / DriveConstants.odometryFrequency;
+  private static final double speedMetersPerSec = 2.0;
+  private static final double yawRateRadPerSec = 1.0;
+
+  static {
+    // Load the drive constants without the HAL
+    Constants.disableHAL();
+  }
+
+  /** Odometry samples per batch, five matches one loop at the default odometry frequency. */
+  @Param({"1", "5", "10"})
+  public int sampleCount;
+
+  private RobotState robotState;
+  private double[] timestamps;
+  private double[][] drivePositionsMeters;
+  private double[][] turnPositionsRad;
+  private double[] yawPositionsRad;
+  private int sampleIndex = 0;
+  private List<RobotState.VisionObservation> visionObservations;
+
+  @Setup
+  public void setup() {
+    robotState = new RobotState();
+    int moduleCount = DriveConstants.moduleTranslations.length;
+    timestamps = new double[sampleCount];
+    drivePositionsMeters = new double[moduleCount][sampleCount];
+    turnPositionsRad = new double[moduleCount][sampleCount];
+    yawPositionsRad = new double[sampleCount];
+
+    // Fill the odometry history
+    int historySamples = (int) Math.ceil(2.0 / samplePeriodSecs);
+    while (sampleIndex < historySamples) {
+      integrateOdometry();
+    }
+
+    double latestTimestamp = timestamps[sampleCount - 1];
+    var pose = robotState.getOdometryPose();
+    var stdDevs = VecBuilder.fill(0.5, 0.5, 1.0);
+    visionObservations =
+        List.of(
+            new RobotState.VisionObservation(
+                new Pose2d(pose.getX() + 0.05, pose.getY() - 0.05, pose.getRotation()),
+                latestTimestamp - 0.1,
+                stdDevs),
+            new RobotState.VisionObservation(
+                new Pose2d(
+                    pose.getX() - 0.02,
+                    pose.getY() + 0.03,
+                    pose.getRotation().plus(Rotation2d.fromDegrees(0.5))),
+                latestTimestamp - 0.05,
+                stdDevs));
+  }
+
+  /** Integrates the next batch of samples, driving forward while turning. */
+  private void integrateOdometry() {
+    for (int i = 0; i < sampleCount; i++) {
+      double timestamp = sampleIndex * samplePeriodSecs;
+      timestamps[i] = timestamp;
+      for (int module = 0; module < drivePositionsMeters.length; module++) {
+        drivePositionsMeters[module][i] = timestamp * speedMetersPerSec;
+        turnPositionsRad[module][i] = 0.0;
+      }
+      yawPositionsRad[i] = timestamp * yawRateRadPerSec;
+      sampleIndex++;
+    }
+    robotState.integrateOdometrySamples(
+        timestamps,
+        drivePositionsMeters,
+        turnPositionsRad,
+        yawPositionsRad,
+        null,
+        null,
+        sampleCount);
+  }
+
+  @Benchmark
+  public Pose2d integrateOdometrySamples() {
+    integrateOdometry();
+    return robotState.getEstimatedPose();
+  }
+
+  @Benchmark
+  public Pose2d fuseVisionMeasurements() {
+    robotState.fuseVisionMeasurements(visionObservations);
+    return robotState.getEstimatedPose();
+  }
+}
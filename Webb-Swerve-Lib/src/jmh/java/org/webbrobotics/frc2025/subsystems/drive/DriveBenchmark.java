@@ -0,0 +1,49 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025.subsystems.drive;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks one drive control loop with IO stubs, alternating between two commanded speeds so
+ * that the setpoint generator keeps limiting the motion.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class DriveBenchmark {
+  private final ChassisSpeeds[] commands = {
+    new ChassisSpeeds(3.0, 1.0, 1.5), new ChassisSpeeds(-1.0, 2.0, -0.5)
+  };
+
+  private Drive drive;
+  private int loop = 0;
+
+  @Setup
+  public void setup() {
+    HAL.initialize(500, 0);
+    drive =
+        new Drive(
+            new GyroIO() {},
+            Stream.generate(() -> new ModuleIO() {})
+                .limit(DriveConstants.moduleTranslations.length)
+                .toArray(ModuleIO[]::new));
+  }
+
+  @Benchmark
+  public void runVelocity() {
+    // Switch commands every second of loops
+    drive.runVelocity(commands[(loop++ / 50) % commands.length]);
+  }
+}
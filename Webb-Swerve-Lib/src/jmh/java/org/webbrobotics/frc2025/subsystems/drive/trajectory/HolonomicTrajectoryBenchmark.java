@@ -0,0 +1,66 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025.subsystems.drive.trajectory;
+
+import static org.littletonrobotics.vehicletrajectoryservice.VehicleTrajectoryServiceOuterClass.*;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks sampling a trajectory at increasing times, like following it. The trajectory is
+ * generated in memory, since generated trajectories are not checked in.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class HolonomicTrajectoryBenchmark {
+  private static final double statePeriodSecs = 0.02;
+  private static final double sampleStepSecs = 0.0137;
+
+  /** Duration of the trajectory, since sampling searches the states from the start. */
+  @Param({"2", "15"})
+  public double durationSecs;
+
+  private HolonomicTrajectory trajectory;
+  private double time = 0.0;
+
+  @Setup
+  public void setup() {
+    var builder = Trajectory.newBuilder();
+    int stateCount = (int) Math.round(durationSecs / statePeriodSecs) + 1;
+    for (int i = 0; i < stateCount; i++) {
+      double t = i * statePeriodSecs;
+      var state =
+          VehicleState.newBuilder()
+              .setX(Math.sin(t))
+              .setY(t)
+              .setTheta(0.5 * t)
+              .setVx(Math.cos(t))
+              .setVy(1.0)
+              .setOmega(0.5);
+      for (int module = 0; module < 4; module++) {
+        state.addModuleForces(ModuleForce.newBuilder().setFx(10.0).setFy(-5.0));
+      }
+      builder.addStates(TimestampedVehicleState.newBuilder().setTime(t).setState(state));
+    }
+    trajectory = new HolonomicTrajectory(builder.build());
+  }
+
+  @Benchmark
+  public VehicleState sample() {
+    time += sampleStepSecs;
+    if (time > trajectory.getDuration()) {
+      time -= trajectory.getDuration();
+    }
+    return trajectory.sample(time);
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025.util.swerve;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.webbrobotics.frc2025.Constants;
+import org.webbrobotics.frc2025.subsystems.drive.DriveConstants;
+
+/** Benchmarks one setpoint step in each of the regimes the generator branches on. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SwerveSetpointGeneratorBenchmark {
+  public enum Regime {
+    /** Moving forward, commanded to stop. */
+    STOP,
+    /** Moving forward, commanded backward, so every module flips. */
+    FLIP,
+    /** Moving forward, commanded 60 degrees to the side, limited by steering velocity. */
+    STEER_LIMITED,
+    /** Moving slowly forward, commanded to full speed, limited by drive acceleration. */
+    ACCEL_LIMITED
+  }
+
+  static {
+    // Load the drive constants without the HAL
+    Constants.disableHAL();
+  }
+
+  @Param public Regime regime;
+
+  private SwerveSetpointGenerator generator;
+  private SwerveSetpoint prevSetpoint;
+  private final MutableSwerveSetpoint mutablePrevSetpoint =
+      new MutableSwerveSetpoint(DriveConstants.moduleTranslations.length);
+  private final MutableSwerveSetpoint mutableOutput =
+      new MutableSwerveSetpoint(DriveConstants.moduleTranslations.length);
+  private ChassisSpeeds desiredSpeeds;
+
+  @Setup
+  public void setup() {
+    generator =
+        new SwerveSetpointGenerator(
+            new SwerveDriveKinematics(DriveConstants.moduleTranslations),
+            DriveConstants.moduleTranslations);
+
+    double prevSpeed = regime == Regime.ACCEL_LIMITED ? 0.5 : 2.0;
+    desiredSpeeds =
+        switch (regime) {
+          case STOP -> new ChassisSpeeds();
+          case FLIP -> new ChassisSpeeds(-2.0, 0.0, 0.0);
+          case STEER_LIMITED ->
+              new ChassisSpeeds(2.0 * Math.cos(Math.PI / 3.0), 2.0 * Math.sin(Math.PI / 3.0), 0.0);
+          case ACCEL_LIMITED -> new ChassisSpeeds(DriveConstants.maxLinearSpeed, 0.0, 0.0);
+        };
+
+    var moduleStates = new SwerveModuleState[DriveConstants.moduleTranslations.length];
+    for (int i = 0; i < moduleStates.length; i++) {
+      moduleStates[i] = new SwerveModuleState(prevSpeed, Rotation2d.kZero);
+    }
+    prevSetpoint = new SwerveSetpoint(new ChassisSpeeds(prevSpeed, 0.0, 0.0), moduleStates);
+    mutablePrevSetpoint.set(prevSetpoint);
+  }
+
+  @Benchmark
+  public SwerveSetpoint generateSetpoint() {
+    return generator.generateSetpoint(
+        DriveConstants.moduleLimitsFree, prevSetpoint, desiredSpeeds, Constants.loopPeriodSecs);
+  }
+
+  @Benchmark
+  public MutableSwerveSetpoint generateSetpointInPlace() {
+    generator.generateSetpoint(
+        DriveConstants.moduleLimitsFree,
+        mutablePrevSetpoint,
+        desiredSpeeds,
+        Constants.loopPeriodSecs,
+        mutableOutput);
+    return mutableOutput;
+  }
+}
@@ -12,6 +12,8 @@ public final class Constants {
   public static final double loopPeriodSecs = 0.02;
   private static RobotType robotType = RobotType.SIMBOT;
   public static final boolean tuningMode = false;
+  // Runs pose estimation on its own thread on a real robot, see PoseEstimatorThread
+  public static final boolean threadedPoseEstimation = false;
 
   @SuppressWarnings("resource")
   public static RobotType getRobot() {
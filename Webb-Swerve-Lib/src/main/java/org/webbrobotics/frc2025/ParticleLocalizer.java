@@ -0,0 +1,426 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.webbrobotics.frc2025.Constants.Mode;
+
+/**
+ * Multi-hypothesis localization with a bounded particle filter over (x, y, theta), for starts where
+ * the pose is unknown or single tag estimates are ambiguous.
+ *
+ * <p>Particles are stored in preallocated primitive arrays. Each update moves them by the odometry
+ * change since the previous update, weights them with individual tag observations, and resamples
+ * when the weights degenerate. Each tag is scored by its position and its yaw relative to the
+ * robot, since the two solutions of an ambiguous tag mostly differ in yaw. An ambiguous tag is
+ * scored by whichever of its two solutions fits each particle better, so a flipped solution cannot
+ * pull the filter away. Prediction and weighting are timed together, and the number of active
+ * particles is adjusted so the work per update stays within a fixed CPU budget. In simulation the
+ * weighting is split across cores.
+ *
+ * <p>The filter only reports convergence once both the position and the heading spread are small,
+ * including the heading of any meaningfully weighted particle.
+ *
+ * <p>Not thread safe, all methods must be called from the same thread.
+ */
+class ParticleLocalizer {
+  static final int maxParticles = 2000;
+  static final int maxObservations = 32;
+  private static final int minParticles = 100;
+  private static final double budgetSecs = 0.002;
+  private static final int parallelChunks = 8;
+
+  // Motion noise per meter traveled and per radian rotated, with a floor per update that keeps the
+  // particles from collapsing onto identical copies
+  private static final double translationNoisePerMeter = 0.05;
+  private static final double rotationNoisePerRad = 0.05;
+  private static final double minTranslationNoiseMeters = 0.005;
+  private static final double minRotationNoiseRad = 0.002;
+  // Tag observation noise, growing with distance to the tag
+  private static final double tagStdDevMeters = 0.1;
+  private static final double tagStdDevPerMeter = 0.05;
+  private static final double tagYawStdDevRad = 0.1;
+  private static final double tagYawStdDevRadPerMeter = 0.05;
+  // Spread of hypotheses around a provided starting pose
+  private static final double hypothesisStdDevMeters = 0.3;
+  private static final double hypothesisStdDevRad = 0.2;
+  // Spread below which the particles have converged to a single estimate
+  private static final double convergedStdDevMeters = 0.15;
+  private static final double convergedStdDevRad = 0.05;
+  // Largest heading error of any particle with a meaningful weight, so a small mode at a flipped
+  // heading can't hide inside the standard deviation
+  private static final double convergedHeadingSpreadRad = 0.2;
+  // Particles below this fraction of the average weight are not counted in the heading spread
+  private static final double headingSpreadMinWeightRatio = 0.01;
+  private static final int convergedUpdates = 5;
+
+  private double[] xs = new double[maxParticles];
+  private double[] ys = new double[maxParticles];
+  private double[] thetas = new double[maxParticles];
+  private final double[] logWeights = new double[maxParticles];
+  private final double[] weights = new double[maxParticles];
+  // Swapped with the particle arrays when resampling
+  private double[] resampledXs = new double[maxParticles];
+  private double[] resampledYs = new double[maxParticles];
+  private double[] resampledThetas = new double[maxParticles];
+
+  // Observations for the next update
+  private final double[] tagXs = new double[maxObservations];
+  private final double[] tagYs = new double[maxObservations];
+  private final double[] tagThetas = new double[maxObservations];
+  private final double[] observedXs = new double[maxObservations];
+  private final double[] observedYs = new double[maxObservations];
+  private final double[] observedThetas = new double[maxObservations];
+  private final double[] alternateXs = new double[maxObservations];
+  private final double[] alternateYs = new double[maxObservations];
+  private final double[] alternateThetas = new double[maxObservations];
+  private final double[] variances = new double[maxObservations];
+  private final double[] yawVariances = new double[maxObservations];
+  private final double[] correctionXs = new double[maxObservations];
+  private final double[] correctionYs = new double[maxObservations];
+  private final double[] correctionThetas = new double[maxObservations];
+  private int observationCount = 0;
+
+  private final Random random;
+  private final boolean parallel = Constants.getMode() == Mode.SIM;
+  private boolean active = false;
+  private int count = 0;
+  private int targetCount = maxParticles;
+  private int convergedCount = 0;
+
+  // Weighted estimate from the latest update
+  private double meanX = 0.0;
+  private double meanY = 0.0;
+  private double meanTheta = 0.0;
+  private double stdDevMeters = Double.POSITIVE_INFINITY;
+  private double stdDevRad = Double.POSITIVE_INFINITY;
+  private double headingSpreadRad = Double.POSITIVE_INFINITY;
+  private double effectiveSampleSize = 0.0;
+  private double lastUpdateSecs = 0.0;
+  // Time spent predicting since the previous update
+  private long predictNanos = 0;
+
+  ParticleLocalizer() {
+    this(new Random());
+  }
+
+  /** Creates a localizer drawing its noise from the given generator. */
+  ParticleLocalizer(Random random) {
+    this.random = random;
+  }
+
+  /**
+   * Starts localizing. Particles are spread around each hypothesis, or across the whole field if
+   * there are none.
+   */
+  void start(Pose2d... hypotheses) {
+    count = targetCount;
+    for (int i = 0; i < count; i++) {
+      if (hypotheses.length == 0) {
+        xs[i] = random.nextDouble() * FieldConstants.fieldLength;
+        ys[i] = random.nextDouble() * FieldConstants.fieldWidth;
+        thetas[i] = (random.nextDouble() * 2.0 - 1.0) * Math.PI;
+      } else {
+        var hypothesis = hypotheses[i % hypotheses.length];
+        xs[i] = hypothesis.getX() + random.nextGaussian() * hypothesisStdDevMeters;
+        ys[i] = hypothesis.getY() + random.nextGaussian() * hypothesisStdDevMeters;
+        thetas[i] =
+            hypothesis.getRotation().getRadians() + random.nextGaussian() * hypothesisStdDevRad;
+      }
+      logWeights[i] = 0.0;
+    }
+    observationCount = 0;
+    convergedCount = 0;
+    predictNanos = 0;
+    stdDevMeters = Double.POSITIVE_INFINITY;
+    stdDevRad = Double.POSITIVE_INFINITY;
+    headingSpreadRad = Double.POSITIVE_INFINITY;
+    active = true;
+  }
+
+  void stop() {
+    active = false;
+  }
+
+  boolean isActive() {
+    return active;
+  }
+
+  /**
+   * Moves every particle by a robot relative odometry change, with noise proportional to the
+   * motion.
+   */
+  void predict(double dx, double dy, double dtheta) {
+    long startNanos = System.nanoTime();
+    double distance = Math.hypot(dx, dy);
+    double translationNoise =
+        Math.max(minTranslationNoiseMeters, translationNoisePerMeter * distance);
+    double rotationNoise = Math.max(minRotationNoiseRad, rotationNoisePerRad * Math.abs(dtheta));
+    for (int i = 0; i < count; i++) {
+      double noisyDx = dx + random.nextGaussian() * translationNoise;
+      double noisyDy = dy + random.nextGaussian() * translationNoise;
+      double cos = Math.cos(thetas[i]);
+      double sin = Math.sin(thetas[i]);
+      xs[i] += noisyDx * cos - noisyDy * sin;
+      ys[i] += noisyDx * sin + noisyDy * cos;
+      thetas[i] = MathUtil.angleModulus(thetas[i] + dtheta + random.nextGaussian() * rotationNoise);
+    }
+    predictNanos += System.nanoTime() - startNanos;
+  }
+
+  /**
+   * Adds a tag observation for the next update. Observations past {@link #maxObservations} are
+   * ignored.
+   *
+   * @param tagPose The field pose of the tag
+   * @param observed The robot relative pose of the tag
+   * @param alternate The robot relative pose of the tag from the alternate solution
+   * @param correction The robot relative odometry change from now back to the observation
+   */
+  void addObservation(Pose2d tagPose, Pose2d observed, Pose2d alternate, Pose2d correction) {
+    if (observationCount >= maxObservations) {
+      return;
+    }
+    int j = observationCount++;
+    tagXs[j] = tagPose.getX();
+    tagYs[j] = tagPose.getY();
+    tagThetas[j] = tagPose.getRotation().getRadians();
+    observedXs[j] = observed.getX();
+    observedYs[j] = observed.getY();
+    observedThetas[j] = observed.getRotation().getRadians();
+    alternateXs[j] = alternate.getX();
+    alternateYs[j] = alternate.getY();
+    alternateThetas[j] = alternate.getRotation().getRadians();
+    double distance = observed.getTranslation().getNorm();
+    double stdDev = tagStdDevMeters + tagStdDevPerMeter * distance;
+    variances[j] = stdDev * stdDev;
+    double yawStdDev = tagYawStdDevRad + tagYawStdDevRadPerMeter * distance;
+    yawVariances[j] = yawStdDev * yawStdDev;
+    correctionXs[j] = correction.getX();
+    correctionYs[j] = correction.getY();
+    correctionThetas[j] = correction.getRotation().getRadians();
+  }
+
+  /**
+   * Weights the particles with the queued observations, resamples if needed and updates the
+   * estimate.
+   *
+   * @return Whether the particles have converged to a single estimate
+   */
+  boolean update() {
+    if (!active || observationCount == 0) {
+      return false;
+    }
+
+    long startNanos = System.nanoTime();
+    if (parallel) {
+      int chunkSize = (count + parallelChunks - 1) / parallelChunks;
+      IntStream.range(0, parallelChunks)
+          .parallel()
+          .forEach(chunk -> weight(chunk * chunkSize, Math.min(count, (chunk + 1) * chunkSize)));
+    } else {
+      weight(0, count);
+    }
+    observationCount = 0;
+    normalize();
+    updateEstimate();
+    if (effectiveSampleSize < count / 2.0 || count != targetCount) {
+      resample();
+    }
+    lastUpdateSecs = (System.nanoTime() - startNanos + predictNanos) / 1e9;
+    predictNanos = 0;
+
+    // Scale the particle count for the next update to fit the budget
+    if (lastUpdateSecs > budgetSecs) {
+      targetCount = Math.max(minParticles, (int) (count * budgetSecs / lastUpdateSecs * 0.9));
+    } else if (lastUpdateSecs < budgetSecs / 2.0) {
+      targetCount = Math.min(maxParticles, (int) (count * 1.1) + 1);
+    }
+
+    if (stdDevMeters < convergedStdDevMeters
+        && stdDevRad < convergedStdDevRad
+        && headingSpreadRad < convergedHeadingSpreadRad) {
+      convergedCount++;
+    } else {
+      convergedCount = 0;
+    }
+    return convergedCount >= convergedUpdates;
+  }
+
+  /** Adds the log likelihood of the queued observations to a range of particles. */
+  private void weight(int start, int end) {
+    for (int i = start; i < end; i++) {
+      double cos = Math.cos(thetas[i]);
+      double sin = Math.sin(thetas[i]);
+      double logLikelihood = 0.0;
+      for (int j = 0; j < observationCount; j++) {
+        // Particle pose at the time of the observation
+        double x = xs[i] + correctionXs[j] * cos - correctionYs[j] * sin;
+        double y = ys[i] + correctionXs[j] * sin + correctionYs[j] * cos;
+        double theta = thetas[i] + correctionThetas[j];
+
+        // Where the tag would appear from that pose
+        double fieldDx = tagXs[j] - x;
+        double fieldDy = tagYs[j] - y;
+        double thetaCos = Math.cos(theta);
+        double thetaSin = Math.sin(theta);
+        double expectedX = fieldDx * thetaCos + fieldDy * thetaSin;
+        double expectedY = -fieldDx * thetaSin + fieldDy * thetaCos;
+        double expectedTheta = tagThetas[j] - theta;
+
+        double errorX = expectedX - observedXs[j];
+        double errorY = expectedY - observedYs[j];
+        double errorTheta = MathUtil.angleModulus(expectedTheta - observedThetas[j]);
+        double alternateErrorX = expectedX - alternateXs[j];
+        double alternateErrorY = expectedY - alternateYs[j];
+        double alternateErrorTheta = MathUtil.angleModulus(expectedTheta - alternateThetas[j]);
+        double cost =
+            (errorX * errorX + errorY * errorY) / (2.0 * variances[j])
+                + errorTheta * errorTheta / (2.0 * yawVariances[j]);
+        double alternateCost =
+            (alternateErrorX * alternateErrorX + alternateErrorY * alternateErrorY)
+                    / (2.0 * variances[j])
+                + alternateErrorTheta * alternateErrorTheta / (2.0 * yawVariances[j]);
+        logLikelihood -= Math.min(cost, alternateCost);
+      }
+      logWeights[i] += logLikelihood;
+    }
+  }
+
+  /** Normalizes the weights to sum to one and computes the effective sample size. */
+  private void normalize() {
+    double maxLogWeight = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < count; i++) {
+      maxLogWeight = Math.max(maxLogWeight, logWeights[i]);
+    }
+    double total = 0.0;
+    for (int i = 0; i < count; i++) {
+      weights[i] = Math.exp(logWeights[i] - maxLogWeight);
+      total += weights[i];
+    }
+    double sumSquares = 0.0;
+    for (int i = 0; i < count; i++) {
+      weights[i] /= total;
+      logWeights[i] = Math.log(weights[i]);
+      sumSquares += weights[i] * weights[i];
+    }
+    effectiveSampleSize = 1.0 / sumSquares;
+  }
+
+  /** Computes the weighted mean and spread, using a circular mean for the rotation. */
+  private void updateEstimate() {
+    double sumX = 0.0;
+    double sumY = 0.0;
+    double sumCos = 0.0;
+    double sumSin = 0.0;
+    for (int i = 0; i < count; i++) {
+      sumX += weights[i] * xs[i];
+      sumY += weights[i] * ys[i];
+      sumCos += weights[i] * Math.cos(thetas[i]);
+      sumSin += weights[i] * Math.sin(thetas[i]);
+    }
+    meanX = sumX;
+    meanY = sumY;
+    meanTheta = Math.atan2(sumSin, sumCos);
+
+    double variance = 0.0;
+    for (int i = 0; i < count; i++) {
+      double dx = xs[i] - meanX;
+      double dy = ys[i] - meanY;
+      variance += weights[i] * (dx * dx + dy * dy);
+    }
+    stdDevMeters = Math.sqrt(variance);
+    double resultantLength = Math.min(1.0, Math.hypot(sumCos, sumSin));
+    stdDevRad = Math.sqrt(-2.0 * Math.log(Math.max(resultantLength, 1e-12)));
+
+    double minWeight = headingSpreadMinWeightRatio / count;
+    headingSpreadRad = 0.0;
+    for (int i = 0; i < count; i++) {
+      if (weights[i] >= minWeight) {
+        headingSpreadRad =
+            Math.max(headingSpreadRad, Math.abs(MathUtil.angleModulus(thetas[i] - meanTheta)));
+      }
+    }
+  }
+
+  /** Draws the target number of particles with low variance (systematic) resampling. */
+  private void resample() {
+    double step = 1.0 / targetCount;
+    double position = random.nextDouble() * step;
+    double cumulative = weights[0];
+    int source = 0;
+    for (int i = 0; i < targetCount; i++) {
+      while (position > cumulative && source < count - 1) {
+        source++;
+        cumulative += weights[source];
+      }
+      resampledXs[i] = xs[source];
+      resampledYs[i] = ys[source];
+      resampledThetas[i] = thetas[source];
+      position += step;
+    }
+
+    double[] swap = xs;
+    xs = resampledXs;
+    resampledXs = swap;
+    swap = ys;
+    ys = resampledYs;
+    resampledYs = swap;
+    swap = thetas;
+    thetas = resampledThetas;
+    resampledThetas = swap;
+    count = targetCount;
+    for (int i = 0; i < count; i++) {
+      logWeights[i] = 0.0;
+    }
+  }
+
+  /** Returns the weighted mean of the particles. */
+  Pose2d getEstimate() {
+    return new Pose2d(meanX, meanY, new Rotation2d(meanTheta));
+  }
+
+  /** Returns the weighted standard deviation of the particle positions in meters. */
+  double getStdDevMeters() {
+    return stdDevMeters;
+  }
+
+  /** Returns the weighted circular standard deviation of the particle rotations in radians. */
+  double getStdDevRad() {
+    return stdDevRad;
+  }
+
+  /** Returns the largest heading error from the estimate of any meaningfully weighted particle. */
+  double getHeadingSpreadRad() {
+    return headingSpreadRad;
+  }
+
+  int getParticleCount() {
+    return count;
+  }
+
+  double getEffectiveSampleSize() {
+    return effectiveSampleSize;
+  }
+
+  /** Returns the time spent on the latest update and the predictions before it, in seconds. */
+  double getLastUpdateSecs() {
+    return lastUpdateSecs;
+  }
+
+  /** Returns up to the specified number of particles, evenly spaced through the set. */
+  Pose2d[] getParticles(int maxCount) {
+    int sampleCount = Math.min(maxCount, count);
+    Pose2d[] particles = new Pose2d[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      int index = (int) ((long) i * count / sampleCount);
+      particles[i] = new Pose2d(xs[index], ys[index], new Rotation2d(thetas[index]));
+    }
+    return particles;
+  }
+}
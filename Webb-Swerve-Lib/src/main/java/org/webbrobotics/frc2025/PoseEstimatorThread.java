@@ -0,0 +1,159 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs pose estimation for {@link RobotState} on its own thread. The main loop hands off each batch
+ * of odometry samples and vision measurements, which are fused as soon as they arrive, and readers
+ * use the snapshot published by {@link RobotState} after every update. Only used on a real robot
+ * when enabled by {@link Constants#threadedPoseEstimation}, since the estimate then depends on
+ * thread timing.
+ *
+ * <p>Odometry batches are copied into a preallocated ring and published with a single volatile
+ * write, and vision measurements go through a lock-free queue, so the main loop never waits on the
+ * estimator. Odometry still enters through the main loop so that it is part of the logged inputs.
+ */
+class PoseEstimatorThread extends Thread {
+  private static final int batchCapacity = 8;
+  // Upper bound on how long the thread sleeps without being woken
+  private static final long idleParkNanos = 20_000_000;
+
+  private final RobotState robotState;
+  private final OdometryBatch[] batches = new OdometryBatch[batchCapacity];
+  private final Queue<List<RobotState.VisionObservation>> visionInbox =
+      new ConcurrentLinkedQueue<>();
+
+  // Number of batches written by the main loop
+  private volatile long publishedBatches = 0;
+  // Number of batches integrated by the estimator, which may then be reused
+  private volatile long consumedBatches = 0;
+  private volatile long droppedBatches = 0;
+
+  /** Preallocated copy of the odometry samples passed to {@link RobotState}. */
+  private static class OdometryBatch {
+    final double[] timestamps;
+    final double[][] drivePositionsMeters;
+    final double[][] turnPositionsRad;
+    final double[] yawPositionsRad;
+    final double[] pitchPositionsRad;
+    final double[] rollPositionsRad;
+    boolean hasYaw = false;
+    boolean hasTilt = false;
+    int sampleCount = 0;
+
+    OdometryBatch(int moduleCount, int sampleCapacity) {
+      timestamps = new double[sampleCapacity];
+      drivePositionsMeters = new double[moduleCount][sampleCapacity];
+      turnPositionsRad = new double[moduleCount][sampleCapacity];
+      yawPositionsRad = new double[sampleCapacity];
+      pitchPositionsRad = new double[sampleCapacity];
+      rollPositionsRad = new double[sampleCapacity];
+    }
+  }
+
+  PoseEstimatorThread(RobotState robotState, int moduleCount, int sampleCapacity) {
+    this.robotState = robotState;
+    for (int i = 0; i < batchCapacity; i++) {
+      batches[i] = new OdometryBatch(moduleCount, sampleCapacity);
+    }
+    setName("PoseEstimatorThread");
+    setDaemon(true);
+  }
+
+  /** Returns the number of odometry batches dropped because the estimator fell behind. */
+  long getDroppedBatches() {
+    return droppedBatches;
+  }
+
+  /**
+   * Copies a batch of odometry samples and wakes the estimator. Never blocks. If the estimator has
+   * not caught up with the previous batches, the samples are dropped; positions are absolute, so
+   * the next batch still integrates the full motion.
+   */
+  void offerOdometry(
+      double[] timestamps,
+      double[][] drivePositionsMeters,
+      double[][] turnPositionsRad,
+      double[] yawPositionsRad,
+      double[] pitchPositionsRad,
+      double[] rollPositionsRad,
+      int sampleCount) {
+    long index = publishedBatches;
+    if (index - consumedBatches >= batches.length) {
+      droppedBatches++;
+      return;
+    }
+    OdometryBatch batch = batches[(int) (index % batches.length)];
+
+    int count = Math.min(sampleCount, batch.timestamps.length);
+    System.arraycopy(timestamps, 0, batch.timestamps, 0, count);
+    for (int i = 0; i < batch.drivePositionsMeters.length; i++) {
+      System.arraycopy(drivePositionsMeters[i], 0, batch.drivePositionsMeters[i], 0, count);
+      System.arraycopy(turnPositionsRad[i], 0, batch.turnPositionsRad[i], 0, count);
+    }
+    batch.hasYaw = yawPositionsRad != null;
+    if (batch.hasYaw) {
+      System.arraycopy(yawPositionsRad, 0, batch.yawPositionsRad, 0, count);
+    }
+    batch.hasTilt = pitchPositionsRad != null && rollPositionsRad != null;
+    if (batch.hasTilt) {
+      System.arraycopy(pitchPositionsRad, 0, batch.pitchPositionsRad, 0, count);
+      System.arraycopy(rollPositionsRad, 0, batch.rollPositionsRad, 0, count);
+    }
+    batch.sampleCount = count;
+    publishedBatches = index + 1;
+    LockSupport.unpark(this);
+  }
+
+  /** Queues a batch of vision measurements and wakes the estimator. Never blocks. */
+  void offerVision(List<RobotState.VisionObservation> observations) {
+    visionInbox.add(observations);
+    LockSupport.unpark(this);
+  }
+
+  /**
+   * Discards the queued vision measurements. Must be called while holding the lock on the robot
+   * state, so a batch already taken from the queue is either fused before or not at all.
+   */
+  void clearVision() {
+    visionInbox.clear();
+  }
+
+  @Override
+  public void run() {
+    while (true) {
+      // Integrate odometry first, so vision measurements have the newest history to replay
+      while (consumedBatches < publishedBatches) {
+        OdometryBatch batch = batches[(int) (consumedBatches % batches.length)];
+        robotState.integrateOdometrySamples(
+            batch.timestamps,
+            batch.drivePositionsMeters,
+            batch.turnPositionsRad,
+            batch.hasYaw ? batch.yawPositionsRad : null,
+            batch.hasTilt ? batch.pitchPositionsRad : null,
+            batch.hasTilt ? batch.rollPositionsRad : null,
+            batch.sampleCount);
+        consumedBatches++;
+      }
+
+      // Take and fuse each batch under the lock, so a pose reset can't land in between
+      while (!visionInbox.isEmpty()) {
+        synchronized (robotState) {
+          var observations = visionInbox.poll();
+          if (observations != null) {
+            robotState.fuseVisionMeasurements(observations);
+          }
+        }
+      }
+
+      // Sleep until more work is offered, an unpark before this returns immediately
+      LockSupport.parkNanos(this, idleParkNanos);
+    }
+  }
+}
@@ -3,12 +3,8 @@
  
 package org.webbrobotics.frc2025;
 
-import com.ctre.phoenix6.Utils;
 import edu.wpi.first.hal.AllianceStationID;
-import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.geometry.Pose2d;
-import edu.wpi.first.math.numbers.N1;
-import edu.wpi.first.math.numbers.N3;
 import edu.wpi.first.wpilibj.Alert;
 import edu.wpi.first.wpilibj.Alert.AlertType;
 import edu.wpi.first.wpilibj.DriverStation;
@@ -211,16 +207,9 @@ public class Robot extends LoggedRobot {
         autoMessagePrinted = true;
       }
 
-      var visionEst = robotContainer.getVision().getEstimatedGlobalPose();
-      visionEst.ifPresent(
-          est -> {
-            var estStdDevs = robotContainer.getVision().getEstimationStdDevs();
-            RobotState.getInstance()
-                .addVisionMeasurement(
-                    est.estimatedPose.toPose2d(),
-                    Utils.fpgaToCurrentTime(est.timestampSeconds),
-                    estStdDevs);
-          });
+      RobotState.getInstance()
+          .addVisionMeasurements(robotContainer.getVision().getVisionObservations());
+      RobotState.getInstance().addTagObservations(robotContainer.getVision().getTagObservations());
     }
 
     // Robot container periodic methods
@@ -319,17 +308,15 @@ public class Robot extends LoggedRobot {
     robotContainer.getVision().simulationPeriodic(currentPose);
 
     // Get and process vision measurements in simulation, similar to robotPeriodic
-    var visionEstimate = robotContainer.getVision().getEstimatedGlobalPose();
-    visionEstimate.ifPresent(
-        est -> {
-          // Get the standard deviations from Vision
-          Matrix<N3, N1> stdDevs = robotContainer.getVision().getEstimationStdDevs();
-
-          // Add the vision measurement with its standard deviations
-          RobotState.getInstance()
-              .addVisionMeasurement(est.estimatedPose.toPose2d(), est.timestampSeconds, stdDevs);
-          Logger.recordOutput("Vision/SimMeasurementTimestamp", est.timestampSeconds);
-          Logger.recordOutput("Vision/SimMeasurementPose", est.estimatedPose.toPose2d());
-        });
+    var observations = robotContainer.getVision().getVisionObservations();
+
+    // Add the vision measurements with their standard deviations
+    RobotState.getInstance().addVisionMeasurements(observations);
+    RobotState.getInstance().addTagObservations(robotContainer.getVision().getTagObservations());
+    if (!observations.isEmpty()) {
+      var latest = observations.get(observations.size() - 1);
+      Logger.recordOutput("Vision/SimMeasurementTimestamp", latest.timestamp());
+      Logger.recordOutput("Vision/SimMeasurementPose", latest.pose());
+    }
   }
 }
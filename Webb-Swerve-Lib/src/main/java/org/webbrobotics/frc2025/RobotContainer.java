@@ -16,8 +16,10 @@ import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.Commands;
 import edu.wpi.first.wpilibj2.command.button.CommandXboxController;
 import edu.wpi.first.wpilibj2.command.button.Trigger;
+import java.util.Arrays;
 import java.util.function.DoubleSupplier;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 import lombok.Getter;
 import lombok.experimental.ExtensionMethod;
 import org.littletonrobotics.junction.networktables.LoggedDashboardChooser;
@@ -26,7 +28,9 @@ import org.webbrobotics.frc2025.commands.DriveCommands;
 import org.webbrobotics.frc2025.subsystems.drive.Drive;
 import org.webbrobotics.frc2025.subsystems.drive.DriveConstants;
 import org.webbrobotics.frc2025.subsystems.drive.GyroIO;
+import org.webbrobotics.frc2025.subsystems.drive.GyroIOFused;
 import org.webbrobotics.frc2025.subsystems.drive.GyroIOPigeon2;
+import org.webbrobotics.frc2025.subsystems.drive.GyroIORedux;
 import org.webbrobotics.frc2025.subsystems.drive.ModuleIO;
 import org.webbrobotics.frc2025.subsystems.drive.ModuleIOComp;
 import org.webbrobotics.frc2025.subsystems.drive.ModuleIODev;
@@ -71,31 +75,30 @@ public class RobotContainer {
         case COMPBOT -> {
           drive =
               new Drive(
-                  new GyroIOPigeon2(),
-                  new ModuleIOComp(DriveConstants.moduleConfigsComp[0]),
-                  new ModuleIOComp(DriveConstants.moduleConfigsComp[1]),
-                  new ModuleIOComp(DriveConstants.moduleConfigsComp[2]),
-                  new ModuleIOComp(DriveConstants.moduleConfigsComp[3]));
+                  DriveConstants.fusedGyro
+                      ? new GyroIOFused(new GyroIOPigeon2(), new GyroIORedux())
+                      : new GyroIOPigeon2(),
+                  Arrays.stream(DriveConstants.moduleConfigsComp)
+                      .map(ModuleIOComp::new)
+                      .toArray(ModuleIO[]::new));
           vision = new Vision();
         }
         case DEVBOT -> {
           drive =
               new Drive(
                   new GyroIOPigeon2(),
-                  new ModuleIODev(DriveConstants.moduleConfigsDev[0]),
-                  new ModuleIODev(DriveConstants.moduleConfigsDev[1]),
-                  new ModuleIODev(DriveConstants.moduleConfigsDev[2]),
-                  new ModuleIODev(DriveConstants.moduleConfigsDev[3]));
+                  Arrays.stream(DriveConstants.moduleConfigsDev)
+                      .map(ModuleIODev::new)
+                      .toArray(ModuleIO[]::new));
           vision = new Vision();
         }
         case SIMBOT -> {
           drive =
               new Drive(
                   new GyroIO() {},
-                  new ModuleIOSim(),
-                  new ModuleIOSim(),
-                  new ModuleIOSim(),
-                  new ModuleIOSim());
+                  Stream.generate(ModuleIOSim::new)
+                      .limit(DriveConstants.moduleTranslations.length)
+                      .toArray(ModuleIO[]::new));
           vision = new Vision();
         }
       }
@@ -106,10 +109,9 @@ public class RobotContainer {
       drive =
           new Drive(
               new GyroIO() {},
-              new ModuleIO() {},
-              new ModuleIO() {},
-              new ModuleIO() {},
-              new ModuleIO() {});
+              Stream.generate(() -> new ModuleIO() {})
+                  .limit(DriveConstants.moduleTranslations.length)
+                  .toArray(ModuleIO[]::new));
     }
     if (vision == null) {
       vision = new Vision();
@@ -154,6 +156,9 @@ public class RobotContainer {
                                 AllianceFlipUtil.apply(Rotation2d.kZero))))
             .ignoringDisable(true));
 
+    // Localize from the tags when the starting pose is unknown
+    SmartDashboard.putData("Global Localization", DriveCommands.globalLocalization());
+
     // Endgame alerts
     new Trigger(
             () ->
@@ -3,55 +3,191 @@
  
 package org.webbrobotics.frc2025;
 
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.Matrix;
 import edu.wpi.first.math.Nat;
 import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.geometry.*;
-import edu.wpi.first.math.interpolation.TimeInterpolatableBuffer;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
-import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
-import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N3;
+import edu.wpi.first.math.util.Units;
 import java.util.*;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.experimental.ExtensionMethod;
+import org.ejml.simple.SimpleMatrix;
 import org.littletonrobotics.junction.AutoLogOutput;
 import org.littletonrobotics.junction.Logger;
+import org.webbrobotics.frc2025.Constants.Mode;
 import org.webbrobotics.frc2025.subsystems.drive.DriveConstants;
+import org.webbrobotics.frc2025.subsystems.drive.PhoenixOdometryThread;
 import org.webbrobotics.frc2025.util.GeomUtil;
+import org.webbrobotics.frc2025.util.PoseBuffer;
 
 @ExtensionMethod({GeomUtil.class})
 public class RobotState {
   private static final double poseBufferSizeSec = 2.0;
+  // Odometry drift, as the standard deviation added per square root meter traveled (x and y,
+  // robot relative) and per square root radian rotated (theta)
   private static final Matrix<N3, N1> odometryStateStdDevs =
-      new Matrix<>(VecBuilder.fill(0.003, 0.003, 0.002));
+      new Matrix<>(VecBuilder.fill(0.05, 0.05, 0.02));
+  // Lower bound on the estimate uncertainty, so vision is never ignored entirely
+  private static final Matrix<N3, N1> minEstimateStdDevs =
+      new Matrix<>(VecBuilder.fill(0.01, 0.01, 0.005));
+  private static final Matrix<N3, N1> initialEstimateStdDevs =
+      new Matrix<>(VecBuilder.fill(1.0, 1.0, 1.0));
+  // Time constants of the velocity and acceleration filters used for pose prediction
+  private static final double velocityFilterTimeConstantSecs = 0.02;
+  private static final double accelerationFilterTimeConstantSecs = 0.06;
+  // Odometry gaps longer than this are not used to estimate velocity
+  private static final double maxMotionSampleGapSecs = 0.1;
+  // Module residual that halves the module weight, as a fraction of the average module distance
+  // per sample with a lower bound for sensor noise
+  private static final double slipResidualRatio = 0.1;
+  private static final double minSlipResidualMeters = 0.001;
+  private static final int slipIterations = 2;
+  // Tilt below which the robot is on the flat floor, which resets the odometry height
+  private static final double levelTiltRad = Units.degreesToRadians(2.0);
+  private static final double tipTiltRad = Units.degreesToRadians(20.0);
+  // Change in horizontal acceleration between samples that indicates a collision
+  private static final double collisionJerkGs = 0.8;
+  // Uncertainty added to the estimate when a collision or tip starts
+  private static final Matrix<N3, N1> disturbanceStdDevs =
+      new Matrix<>(VecBuilder.fill(0.1, 0.1, 0.05));
 
   private static RobotState instance;
 
   public static RobotState getInstance() {
-    if (instance == null) instance = new RobotState();
+    if (instance == null) {
+      // Never threaded in simulation or replay, where the logged estimate must not depend on
+      // thread timing
+      instance =
+          new RobotState(Constants.threadedPoseEstimation && Constants.getMode() == Mode.REAL);
+    }
     return instance;
   }
 
   // Pose Estimation Members
-  @Getter @AutoLogOutput private Pose2d odometryPose = new Pose2d();
-  @Getter @AutoLogOutput private Pose2d estimatedPose = new Pose2d();
+  // Estimation runs on the caller's thread unless threaded estimation is enabled on a real robot.
+  // The estimator state is only modified while holding the lock on this object, and readers use
+  // the volatile poses or the latest snapshot without locking.
+  private final PoseEstimatorThread estimatorThread;
+  @Getter @AutoLogOutput private volatile Pose2d odometryPose = new Pose2d();
+  @Getter @AutoLogOutput private volatile Pose2d estimatedPose = new Pose2d();
+  @Getter private volatile PoseSnapshot snapshot;
+  // Estimated pose with the odometry height and the measured tilt, for when the robot drives over
+  // field elements
+  @Getter @AutoLogOutput private volatile Pose3d estimatedPose3d = new Pose3d();
+  private long snapshotVersion = 0;
+
+  // Odometry poses over the buffer window, sized for the highest odometry frequency
+  private final PoseBuffer poseBuffer =
+      new PoseBuffer(
+          poseBufferSizeSec,
+          (int) Math.ceil(poseBufferSizeSec * DriveConstants.maxOdometryFrequency) + 1);
+  private final double[] poseSample = new double[3];
+  // Variance added to the estimate per meter traveled (x and y, robot relative) and per radian
+  // rotated (theta)
+  private final double[] qVariancePerMeter = new double[3];
+
+  public enum VisionFusionMode {
+    /** Blend the whole correction by a single confidence factor from the averaged std devs. */
+    CONFIDENCE_BLEND,
+    /** Kalman update with a per-axis gain from the estimate and measurement covariances. */
+    KALMAN
+  }
+
+  /** A pose measured by vision, with its capture timestamp and standard deviations. */
+  public record VisionObservation(Pose2d pose, double timestamp, Matrix<N3, N1> stdDevs) {}
+
+  /**
+   * A single tag seen by a camera, with both solutions of an ambiguous target.
+   *
+   * @param tagId The fiducial ID of the tag
+   * @param timestamp The capture timestamp
+   * @param tagPose The field pose of the tag
+   * @param robotToTag The robot relative pose of the tag from the best solution
+   * @param alternateRobotToTag The robot relative pose of the tag from the alternate solution
+   */
+  public record TagObservation(
+      int tagId, double timestamp, Pose2d tagPose, Pose2d robotToTag, Pose2d alternateRobotToTag) {}
+
+  /**
+   * Immutable view of the pose estimate, published after every update so that it can be read from
+   * any thread without locking. The version increases by one with every update.
+   *
+   * @param version The number of updates before this snapshot
+   * @param timestamp The timestamp of the newest odometry sample in the estimate
+   * @param pose The estimated pose
+   * @param fieldVelocity The filtered field relative velocity
+   * @param fieldAcceleration The filtered field relative acceleration
+   * @param covariance The covariance of the estimated pose (x, y, theta)
+   */
+  public record PoseSnapshot(
+      long version,
+      double timestamp,
+      Pose2d pose,
+      ChassisSpeeds fieldVelocity,
+      ChassisSpeeds fieldAcceleration,
+      Matrix<N3, N3> covariance) {
+    /** Returns a copy of the covariance, so the snapshot itself is never modified. */
+    @Override
+    public Matrix<N3, N3> covariance() {
+      return covariance.copy();
+    }
+  }
 
-  private final TimeInterpolatableBuffer<Pose2d> poseBuffer =
-      TimeInterpolatableBuffer.createBuffer(poseBufferSizeSec);
-  private final Matrix<N3, N1> qStdDevs = new Matrix<>(Nat.N3(), Nat.N1());
+  @Getter @Setter
+  private volatile VisionFusionMode visionFusionMode = VisionFusionMode.CONFIDENCE_BLEND;
+  // Covariance of the pose estimate (x, y, theta), row major. Grows with odometry and shrinks
+  // with vision.
+  private final double[] covariance = new double[9];
+  // Reused when replaying odometry after vision measurements
+  private final double[] replayNoise = new double[9];
+  private final double[] replayCovariance = new double[9];
+  private final double[] replayEstimate = new double[3];
+  private final double[] replayOdometry = new double[3];
+  // Reused by the Kalman update: innovation covariance inverse, gain and innovation
+  private final double[] innovationInverse = new double[9];
+  private final double[] gain = new double[9];
+  private final double[] innovation = new double[3];
 
   // Odometry
-  private final SwerveDriveKinematics kinematics;
-  private SwerveModulePosition[] lastWheelPositions =
-      new SwerveModulePosition[] {
-        new SwerveModulePosition(),
-        new SwerveModulePosition(),
-        new SwerveModulePosition(),
-        new SwerveModulePosition()
-      };
+  public enum OdometryMode {
+    /** Least squares twist with every module weighted equally. */
+    EQUAL_WEIGHT,
+    /** Weighted least squares twist that down-weights modules inconsistent with the others. */
+    SLIP_WEIGHTED
+  }
+
+  @Getter @Setter private volatile OdometryMode odometryMode = OdometryMode.EQUAL_WEIGHT;
+  // Pseudo-inverse of the inverse kinematics matrix, maps module deltas (x0, y0, x1, y1, ...) to a
+  // robot relative twist (dx, dy, dtheta)
+  private final double[][] forwardKinematics;
+  private final double[] moduleX;
+  private final double[] moduleY;
+  private final double[] lastDrivePositionsMeters =
+      new double[DriveConstants.moduleTranslations.length];
+  // Scratch for one sample: module deltas (x0, y0, x1, y1, ...), module weights and the twist
+  private final double[] moduleDeltas = new double[DriveConstants.moduleTranslations.length * 2];
+  private final double[] moduleWeights = new double[DriveConstants.moduleTranslations.length];
+  private final double[] twist = new double[3];
+  // Highest slip score of each module in the latest batch, from 0 (consistent) to 1 (ignored).
+  // Written while holding the lock and copied for logging (main thread only).
+  private final double[] batchSlipScores = new double[DriveConstants.moduleTranslations.length];
+  private final double[] loggedSlipScores = new double[DriveConstants.moduleTranslations.length];
+  // Latest tilt from the gyro and the height integrated from wheel motion along the tilt
+  private volatile double pitchRad = 0.0;
+  private volatile double rollRad = 0.0;
+  private double odometryHeightMeters = 0.0;
+
+  // Tip and collision detection (main thread only)
+  @Getter @AutoLogOutput private boolean tipping = false;
+  @Getter @AutoLogOutput private boolean collisionDetected = false;
+  @AutoLogOutput private long collisionCount = 0;
+  private double lastAccelerationXGs = Double.NaN;
+  private double lastAccelerationYGs = Double.NaN;
   // Assume gyro starts at zero
   private Rotation2d gyroOffset = Rotation2d.kZero;
 
@@ -59,41 +195,513 @@ public class RobotState {
   @AutoLogOutput(key = "RobotState/RobotVelocity")
   private ChassisSpeeds robotVelocity = new ChassisSpeeds();
 
+  // Field relative velocity and acceleration of the pose estimate, filtered from the odometry
+  // steps and the gyro rate
+  private double fieldVelocityX = 0.0;
+  private double fieldVelocityY = 0.0;
+  private double fieldVelocityOmega = 0.0;
+  private double fieldAccelerationX = 0.0;
+  private double fieldAccelerationY = 0.0;
+  private double fieldAccelerationAlpha = 0.0;
+  private double lastMotionTimestamp = Double.NaN;
+  // Latest gyro yaw rate, used in place of the odometry rotation rate when present
+  @Setter private volatile OptionalDouble gyroVelocityRadPerSec = OptionalDouble.empty();
+
+  // Global localization over many pose hypotheses (main thread only)
+  private final ParticleLocalizer localizer = new ParticleLocalizer();
+  private Pose2d lastLocalizerOdometryPose = Pose2d.kZero;
+
+  // Vision measurements accepted and rejected from the most recent batch
+  private volatile int acceptedVisionMeasurements = 0;
+  private volatile int rejectedVisionMeasurements = 0;
+
   @Getter @Setter private OptionalDouble distanceToBranch = OptionalDouble.empty();
 
   public RobotState() {
+    this(false);
+  }
+
+  /**
+   * Creates a robot state.
+   *
+   * @param threadedEstimation Whether to run estimation on its own {@link PoseEstimatorThread}
+   */
+  RobotState(boolean threadedEstimation) {
     for (int i = 0; i < 3; ++i) {
-      qStdDevs.set(i, 0, Math.pow(odometryStateStdDevs.get(i, 0), 2));
+      qVariancePerMeter[i] = Math.pow(odometryStateStdDevs.get(i, 0), 2);
+      covariance[i * 4] = Math.pow(initialEstimateStdDevs.get(i, 0), 2);
+    }
+
+    int moduleCount = DriveConstants.moduleTranslations.length;
+    moduleX = new double[moduleCount];
+    moduleY = new double[moduleCount];
+    var inverseKinematics = new SimpleMatrix(moduleCount * 2, 3);
+    for (int i = 0; i < moduleCount; i++) {
+      var translation = DriveConstants.moduleTranslations[i];
+      moduleX[i] = translation.getX();
+      moduleY[i] = translation.getY();
+      inverseKinematics.setRow(i * 2, 0, 1, 0, -translation.getY());
+      inverseKinematics.setRow(i * 2 + 1, 0, 0, 1, translation.getX());
+    }
+    var pseudoInverse = inverseKinematics.pseudoInverse();
+    forwardKinematics = new double[3][moduleCount * 2];
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < moduleCount * 2; col++) {
+        forwardKinematics[row][col] = pseudoInverse.get(row, col);
+      }
+    }
+    publishSnapshot();
+
+    if (threadedEstimation) {
+      estimatorThread =
+          new PoseEstimatorThread(this, moduleCount, PhoenixOdometryThread.frameCapacity);
+      estimatorThread.start();
+    } else {
+      estimatorThread = null;
     }
-    kinematics = new SwerveDriveKinematics(DriveConstants.moduleTranslations);
   }
 
-  public void resetPose(Pose2d pose) {
+  public synchronized void resetPose(Pose2d pose) {
     // Gyro offset is the rotation that maps the old gyro rotation (estimated - offset) to the new
     // frame of rotation
     gyroOffset = pose.getRotation().minus(odometryPose.getRotation().minus(gyroOffset));
     estimatedPose = pose;
     odometryPose = pose;
+    odometryHeightMeters = 0.0;
     poseBuffer.clear();
+    localizer.stop();
+    if (estimatorThread != null) {
+      // Measurements queued before the reset are relative to the old pose
+      estimatorThread.clearVision();
+    }
+    Arrays.fill(covariance, 0.0);
+    for (int i = 0; i < 3; ++i) {
+      covariance[i * 4] = Math.pow(minEstimateStdDevs.get(i, 0), 2);
+    }
+    publishSnapshot();
   }
 
-  public void addOdometryObservation(OdometryObservation observation) {
-    Twist2d twist = kinematics.toTwist2d(lastWheelPositions, observation.wheelPositions());
-    lastWheelPositions = observation.wheelPositions();
-    Pose2d lastOdometryPose = odometryPose;
-    odometryPose = odometryPose.exp(twist);
-    // Use gyro if connected
-    observation.gyroAngle.ifPresent(
-        gyroAngle -> {
-          // Add offset to measured angle
-          Rotation2d angle = gyroAngle.plus(gyroOffset);
-          odometryPose = new Pose2d(odometryPose.getTranslation(), angle);
-        });
-    // Add pose to buffer at timestamp
-    poseBuffer.addSample(observation.timestamp(), odometryPose);
-    // Calculate diff from last odometry pose and add onto pose estimate
-    Twist2d finalTwist = lastOdometryPose.log(odometryPose);
-    estimatedPose = estimatedPose.exp(finalTwist);
+  /**
+   * Adds a batch of odometry samples. When the estimator runs on its own thread, the samples are
+   * copied and integrated there, so this returns without waiting for the estimate to update.
+   *
+   * @param timestamps The timestamp of each sample
+   * @param drivePositionsMeters The drive position of each module (outer index) at each sample
+   * @param turnPositionsRad The turn angle of each module (outer index) at each sample
+   * @param yawPositionsRad The gyro yaw at each sample, or null if the gyro is disconnected
+   * @param pitchPositionsRad The gyro pitch at each sample, or null if unavailable
+   * @param rollPositionsRad The gyro roll at each sample, or null if unavailable
+   * @param sampleCount The number of samples to integrate
+   */
+  public void addOdometrySamples(
+      double[] timestamps,
+      double[][] drivePositionsMeters,
+      double[][] turnPositionsRad,
+      double[] yawPositionsRad,
+      double[] pitchPositionsRad,
+      double[] rollPositionsRad,
+      int sampleCount) {
+    if (sampleCount == 0) {
+      return;
+    }
+    if (estimatorThread != null) {
+      estimatorThread.offerOdometry(
+          timestamps,
+          drivePositionsMeters,
+          turnPositionsRad,
+          yawPositionsRad,
+          pitchPositionsRad,
+          rollPositionsRad,
+          sampleCount);
+    } else {
+      integrateOdometrySamples(
+          timestamps,
+          drivePositionsMeters,
+          turnPositionsRad,
+          yawPositionsRad,
+          pitchPositionsRad,
+          rollPositionsRad,
+          sampleCount);
+    }
+  }
+
+  /**
+   * Integrates a batch of odometry samples. The poses are tracked as primitives while integrating,
+   * so no geometry objects are created per sample. When the tilt is known, the wheel motion (which
+   * follows the ground) is projected onto the field plane and the rest is integrated as height.
+   */
+  synchronized void integrateOdometrySamples(
+      double[] timestamps,
+      double[][] drivePositionsMeters,
+      double[][] turnPositionsRad,
+      double[] yawPositionsRad,
+      double[] pitchPositionsRad,
+      double[] rollPositionsRad,
+      int sampleCount) {
+
+    double odometryX = odometryPose.getX();
+    double odometryY = odometryPose.getY();
+    double odometryTheta = odometryPose.getRotation().getRadians();
+    double estimatedX = estimatedPose.getX();
+    double estimatedY = estimatedPose.getY();
+    double estimatedTheta = estimatedPose.getRotation().getRadians();
+    double gyroOffsetRad = gyroOffset.getRadians();
+    boolean slipWeighted = odometryMode == OdometryMode.SLIP_WEIGHTED;
+    Arrays.fill(batchSlipScores, 0.0);
+    for (int i = 0; i < sampleCount; i++) {
+      // Forward kinematics from the change in each module position
+      for (int j = 0; j < lastDrivePositionsMeters.length; j++) {
+        double distance = drivePositionsMeters[j][i] - lastDrivePositionsMeters[j];
+        moduleDeltas[j * 2] = distance * Math.cos(turnPositionsRad[j][i]);
+        moduleDeltas[j * 2 + 1] = distance * Math.sin(turnPositionsRad[j][i]);
+        lastDrivePositionsMeters[j] = drivePositionsMeters[j][i];
+      }
+      for (int row = 0; row < 3; row++) {
+        twist[row] = 0.0;
+        for (int col = 0; col < moduleDeltas.length; col++) {
+          twist[row] += forwardKinematics[row][col] * moduleDeltas[col];
+        }
+      }
+      if (slipWeighted) {
+        solveSlipWeightedTwist();
+      }
+      double dx = twist[0];
+      double dy = twist[1];
+      double dtheta = twist[2];
+      if (pitchPositionsRad != null && rollPositionsRad != null) {
+        // Rotate the robot relative motion by roll then pitch, keeping the level components
+        double sinPitch = Math.sin(pitchPositionsRad[i]);
+        double cosPitch = Math.cos(pitchPositionsRad[i]);
+        double sinRoll = Math.sin(rollPositionsRad[i]);
+        double cosRoll = Math.cos(rollPositionsRad[i]);
+        odometryHeightMeters += -dx * sinPitch + dy * sinRoll * cosPitch;
+        dx = dx * cosPitch + dy * sinRoll * sinPitch;
+        dy = dy * cosRoll;
+        pitchRad = pitchPositionsRad[i];
+        rollRad = rollPositionsRad[i];
+        // The floor is flat, so any height is drift once the robot is level again
+        if (Math.abs(pitchRad) < levelTiltRad && Math.abs(rollRad) < levelTiltRad) {
+          odometryHeightMeters = 0.0;
+        }
+      }
+
+      // Apply the twist to the odometry pose (same as Pose2d.exp)
+      double sinTheta = Math.sin(dtheta);
+      double cosTheta = Math.cos(dtheta);
+      double s;
+      double c;
+      if (Math.abs(dtheta) < 1e-9) {
+        s = 1.0 - dtheta * dtheta / 6.0;
+        c = 0.5 * dtheta;
+      } else {
+        s = sinTheta / dtheta;
+        c = (1.0 - cosTheta) / dtheta;
+      }
+      double localX = dx * s - dy * c;
+      double localY = dx * c + dy * s;
+      double lastOdometryX = odometryX;
+      double lastOdometryY = odometryY;
+      double lastOdometryTheta = odometryTheta;
+      odometryX += localX * Math.cos(odometryTheta) - localY * Math.sin(odometryTheta);
+      odometryY += localX * Math.sin(odometryTheta) + localY * Math.cos(odometryTheta);
+      odometryTheta += dtheta;
+      // Use gyro if connected, adding offset to measured angle
+      if (yawPositionsRad != null) {
+        odometryTheta = yawPositionsRad[i] + gyroOffsetRad;
+      }
+
+      // Add pose to buffer at timestamp
+      poseBuffer.addSample(timestamps[i], odometryX, odometryY, odometryTheta);
+
+      // Apply the change in odometry pose onto the pose estimate
+      double rotation = estimatedTheta - lastOdometryTheta;
+      double deltaX = odometryX - lastOdometryX;
+      double deltaY = odometryY - lastOdometryY;
+      double estimatedDeltaX = deltaX * Math.cos(rotation) - deltaY * Math.sin(rotation);
+      double estimatedDeltaY = deltaX * Math.sin(rotation) + deltaY * Math.cos(rotation);
+      double estimatedDeltaTheta = MathUtil.angleModulus(odometryTheta - lastOdometryTheta);
+      estimatedX += estimatedDeltaX;
+      estimatedY += estimatedDeltaY;
+      estimatedTheta += estimatedDeltaTheta;
+      updateMotion(timestamps[i], estimatedDeltaX, estimatedDeltaY, estimatedDeltaTheta);
+
+      // Grow the estimate covariance with the odometry step
+      transformCovariance(covariance, estimatedDeltaX, estimatedDeltaY);
+      addOdometryNoise(
+          covariance, estimatedDeltaX, estimatedDeltaY, estimatedDeltaTheta, estimatedTheta);
+    }
+    odometryPose = new Pose2d(odometryX, odometryY, new Rotation2d(odometryTheta));
+    estimatedPose = new Pose2d(estimatedX, estimatedY, new Rotation2d(estimatedTheta));
+    publishSnapshot();
+  }
+
+  /**
+   * Re-solves the twist from the current module deltas with iteratively reweighted least squares,
+   * starting from the equal weight twist. Each module is weighted by its residual to the rigid body
+   * motion of the last solution, so a module that skids or lifts contributes little to the twist.
+   */
+  private void solveSlipWeightedTwist() {
+    double totalDistance = 0.0;
+    for (int j = 0; j < moduleWeights.length; j++) {
+      totalDistance += Math.hypot(moduleDeltas[j * 2], moduleDeltas[j * 2 + 1]);
+    }
+    double residualScale =
+        Math.max(minSlipResidualMeters, slipResidualRatio * totalDistance / moduleWeights.length);
+
+    for (int iteration = 0; iteration < slipIterations; iteration++) {
+      // Cauchy weight from the residual of each module to the current twist
+      for (int j = 0; j < moduleWeights.length; j++) {
+        double residualX = moduleDeltas[j * 2] - (twist[0] - twist[2] * moduleY[j]);
+        double residualY = moduleDeltas[j * 2 + 1] - (twist[1] + twist[2] * moduleX[j]);
+        double residual = Math.hypot(residualX, residualY) / residualScale;
+        moduleWeights[j] = 1.0 / (1.0 + residual * residual);
+      }
+
+      // Weighted normal equations, solved in closed form since the twist only has three terms
+      double sumWeight = 0.0;
+      double sumX = 0.0;
+      double sumY = 0.0;
+      double sumRadiusSquared = 0.0;
+      double sumDx = 0.0;
+      double sumDy = 0.0;
+      double sumMoment = 0.0;
+      for (int j = 0; j < moduleWeights.length; j++) {
+        double weight = moduleWeights[j];
+        double moduleDx = moduleDeltas[j * 2];
+        double moduleDy = moduleDeltas[j * 2 + 1];
+        sumWeight += weight;
+        sumX += weight * moduleX[j];
+        sumY += weight * moduleY[j];
+        sumRadiusSquared += weight * (moduleX[j] * moduleX[j] + moduleY[j] * moduleY[j]);
+        sumDx += weight * moduleDx;
+        sumDy += weight * moduleDy;
+        sumMoment += weight * (moduleX[j] * moduleDy - moduleY[j] * moduleDx);
+      }
+      double denominator = sumRadiusSquared - (sumX * sumX + sumY * sumY) / sumWeight;
+      if (sumWeight < 1e-9 || denominator < 1e-9) {
+        // Remaining modules cannot determine the rotation, keep the previous solution
+        break;
+      }
+      twist[2] = (sumMoment + (sumY * sumDx - sumX * sumDy) / sumWeight) / denominator;
+      twist[0] = (sumDx + sumY * twist[2]) / sumWeight;
+      twist[1] = (sumDy - sumX * twist[2]) / sumWeight;
+    }
+
+    for (int j = 0; j < moduleWeights.length; j++) {
+      batchSlipScores[j] = Math.max(batchSlipScores[j], 1.0 - moduleWeights[j]);
+    }
+  }
+
+  /** Publishes a snapshot of the current estimate. Must be called while holding the lock. */
+  private void publishSnapshot() {
+    estimatedPose3d =
+        new Pose3d(
+            estimatedPose.getX(),
+            estimatedPose.getY(),
+            odometryHeightMeters,
+            new Rotation3d(rollRad, pitchRad, estimatedPose.getRotation().getRadians()));
+    var covarianceMatrix = new Matrix<>(Nat.N3(), Nat.N3(), covariance);
+    snapshot =
+        new PoseSnapshot(
+            snapshotVersion++,
+            poseBuffer.size() > 0 ? poseBuffer.getTimestamp(poseBuffer.size() - 1) : 0.0,
+            estimatedPose,
+            new ChassisSpeeds(fieldVelocityX, fieldVelocityY, fieldVelocityOmega),
+            new ChassisSpeeds(fieldAccelerationX, fieldAccelerationY, fieldAccelerationAlpha),
+            covarianceMatrix);
+  }
+
+  /**
+   * Returns the estimated pose at a past timestamp. This is the odometry pose at that time with
+   * the current vision correction applied, interpolated between odometry samples.
+   *
+   * @param timestamp The timestamp to sample, which is clamped to the buffer window
+   * @return The estimated pose, or empty if there is no odometry history yet
+   */
+  public synchronized Optional<Pose2d> getPoseAt(double timestamp) {
+    if (!poseBuffer.getSample(timestamp, poseSample)) {
+      return Optional.empty();
+    }
+    var sample = new Pose2d(poseSample[0], poseSample[1], new Rotation2d(poseSample[2]));
+    return Optional.of(estimatedPose.plus(new Transform2d(odometryPose, sample)));
+  }
+
+  /** Returns the odometry pose at a past timestamp, or empty if there is no odometry history. */
+  private synchronized Optional<Pose2d> getOdometryPoseAt(double timestamp) {
+    if (!poseBuffer.getSample(timestamp, poseSample)) {
+      return Optional.empty();
+    }
+    return Optional.of(new Pose2d(poseSample[0], poseSample[1], new Rotation2d(poseSample[2])));
+  }
+
+  /**
+   * Starts global localization with a particle filter, for when the starting pose is unknown or
+   * single tag estimates are ambiguous. Tag observations then update the filter, and the pose is
+   * reset to its estimate once it converges.
+   *
+   * @param hypotheses Poses the robot may be near, or none to search the whole field
+   */
+  public void startGlobalLocalization(Pose2d... hypotheses) {
+    lastLocalizerOdometryPose = odometryPose;
+    localizer.start(hypotheses);
+  }
+
+  /** Stops global localization without changing the pose. */
+  public void stopGlobalLocalization() {
+    localizer.stop();
+  }
+
+  @AutoLogOutput(key = "RobotState/Localizer/Active")
+  public boolean isLocalizing() {
+    return localizer.isActive();
+  }
+
+  /**
+   * Adds individual tag observations to global localization. Does nothing unless localization was
+   * started with {@link #startGlobalLocalization}. Must be called from the main loop.
+   *
+   * @param observations The tags seen since the previous call
+   */
+  public void addTagObservations(List<TagObservation> observations) {
+    if (!localizer.isActive()) {
+      return;
+    }
+
+    // Move the particles with the odometry since the previous update
+    Pose2d odometry = odometryPose;
+    var delta = new Transform2d(lastLocalizerOdometryPose, odometry);
+    lastLocalizerOdometryPose = odometry;
+    localizer.predict(delta.getX(), delta.getY(), delta.getRotation().getRadians());
+
+    for (var observation : observations) {
+      var observationOdometry = getOdometryPoseAt(observation.timestamp());
+      if (observationOdometry.isEmpty()) {
+        continue;
+      }
+      localizer.addObservation(
+          observation.tagPose(),
+          observation.robotToTag(),
+          observation.alternateRobotToTag(),
+          observationOdometry.get().relativeTo(odometry));
+    }
+    boolean converged = localizer.update();
+
+    Logger.recordOutput("RobotState/Localizer/Estimate", localizer.getEstimate());
+    Logger.recordOutput("RobotState/Localizer/StdDevMeters", localizer.getStdDevMeters());
+    Logger.recordOutput("RobotState/Localizer/StdDevRad", localizer.getStdDevRad());
+    Logger.recordOutput("RobotState/Localizer/HeadingSpreadRad", localizer.getHeadingSpreadRad());
+    Logger.recordOutput("RobotState/Localizer/ParticleCount", localizer.getParticleCount());
+    Logger.recordOutput(
+        "RobotState/Localizer/EffectiveSampleSize", localizer.getEffectiveSampleSize());
+    Logger.recordOutput("RobotState/Localizer/UpdateMs", localizer.getLastUpdateSecs() * 1000.0);
+    Logger.recordOutput("RobotState/Localizer/Particles", localizer.getParticles(100));
+
+    if (converged) {
+      resetPose(localizer.getEstimate());
+    }
+  }
+
+  /**
+   * Updates the filtered velocity and acceleration with one odometry step. Acceleration is the
+   * filtered derivative of the filtered velocity.
+   */
+  private void updateMotion(double timestamp, double dx, double dy, double dtheta) {
+    double dt = timestamp - lastMotionTimestamp;
+    lastMotionTimestamp = timestamp;
+    if (!(dt > 0.0) || dt > maxMotionSampleGapSecs) {
+      return;
+    }
+
+    double velocityGain = 1.0 - Math.exp(-dt / velocityFilterTimeConstantSecs);
+    double accelerationGain = 1.0 - Math.exp(-dt / accelerationFilterTimeConstantSecs);
+    double velocityX = fieldVelocityX + velocityGain * (dx / dt - fieldVelocityX);
+    double velocityY = fieldVelocityY + velocityGain * (dy / dt - fieldVelocityY);
+    double velocityOmega =
+        fieldVelocityOmega
+            + velocityGain * (gyroVelocityRadPerSec.orElse(dtheta / dt) - fieldVelocityOmega);
+    fieldAccelerationX +=
+        accelerationGain * ((velocityX - fieldVelocityX) / dt - fieldAccelerationX);
+    fieldAccelerationY +=
+        accelerationGain * ((velocityY - fieldVelocityY) / dt - fieldAccelerationY);
+    fieldAccelerationAlpha +=
+        accelerationGain * ((velocityOmega - fieldVelocityOmega) / dt - fieldAccelerationAlpha);
+    fieldVelocityX = velocityX;
+    fieldVelocityY = velocityY;
+    fieldVelocityOmega = velocityOmega;
+  }
+
+  /**
+   * Predicts the pose a short time ahead by extrapolating the estimated pose with constant
+   * acceleration. Followers can use this in place of the estimated pose to compensate for the
+   * latency between reading the pose and the module setpoints taking effect.
+   *
+   * @param lookaheadSecs How far ahead of the newest odometry sample to predict
+   * @return The predicted pose
+   */
+  public Pose2d getPredictedPose(double lookaheadSecs) {
+    var snapshot = this.snapshot;
+    var pose = snapshot.pose();
+    var velocity = snapshot.fieldVelocity();
+    var acceleration = snapshot.fieldAcceleration();
+    double halfSquared = 0.5 * lookaheadSecs * lookaheadSecs;
+    return new Pose2d(
+        pose.getX()
+            + velocity.vxMetersPerSecond * lookaheadSecs
+            + acceleration.vxMetersPerSecond * halfSquared,
+        pose.getY()
+            + velocity.vyMetersPerSecond * lookaheadSecs
+            + acceleration.vyMetersPerSecond * halfSquared,
+        new Rotation2d(
+            pose.getRotation().getRadians()
+                + velocity.omegaRadiansPerSecond * lookaheadSecs
+                + acceleration.omegaRadiansPerSecond * halfSquared));
+  }
+
+  /** Returns the filtered field relative velocity of the pose estimate. */
+  @AutoLogOutput(key = "RobotState/EstimatedFieldVelocity")
+  public ChassisSpeeds getEstimatedFieldVelocity() {
+    return snapshot.fieldVelocity();
+  }
+
+  /** Returns the filtered field relative acceleration of the pose estimate. */
+  @AutoLogOutput(key = "RobotState/EstimatedFieldAcceleration")
+  public ChassisSpeeds getEstimatedFieldAcceleration() {
+    return snapshot.fieldAcceleration();
+  }
+
+  /**
+   * Checks for collisions and tipping using the latest accelerometer sample and tilt. A collision
+   * shows as a spike in the change of horizontal acceleration between samples. Odometry is
+   * unreliable through both, so the estimate uncertainty is raised when either starts to let vision
+   * correct the pose sooner.
+   *
+   * @param accelerationXGs The robot relative x acceleration in Gs
+   * @param accelerationYGs The robot relative y acceleration in Gs
+   */
+  public void addAccelerometerSample(double accelerationXGs, double accelerationYGs) {
+    double jerkGs =
+        Math.hypot(accelerationXGs - lastAccelerationXGs, accelerationYGs - lastAccelerationYGs);
+    lastAccelerationXGs = accelerationXGs;
+    lastAccelerationYGs = accelerationYGs;
+    boolean wasCollision = collisionDetected;
+    boolean wasTipping = tipping;
+    // Jerk is NaN for the first sample, which is never a collision
+    collisionDetected = jerkGs > collisionJerkGs;
+    tipping = Math.acos(Math.cos(pitchRad) * Math.cos(rollRad)) > tipTiltRad;
+
+    if (collisionDetected && !wasCollision) {
+      collisionCount++;
+    }
+    if ((collisionDetected && !wasCollision) || (tipping && !wasTipping)) {
+      addDisturbanceUncertainty();
+    }
+  }
+
+  private synchronized void addDisturbanceUncertainty() {
+    for (int i = 0; i < 3; i++) {
+      covariance[i * 4] += Math.pow(disturbanceStdDevs.get(i, 0), 2);
+    }
+    publishSnapshot();
   }
 
   public void addDriveSpeeds(ChassisSpeeds speeds) {
@@ -110,7 +718,28 @@ public class RobotState {
   }
 
   public void periodicLog() {
-    // Any logging that might be needed can go here
+    var snapshot = this.snapshot;
+    Logger.recordOutput("RobotState/SnapshotVersion", snapshot.version());
+    Logger.recordOutput("RobotState/SnapshotTimestamp", snapshot.timestamp());
+    Logger.recordOutput(
+        "RobotState/EstimateStdDevs",
+        new double[] {
+          Math.sqrt(snapshot.covariance.get(0, 0)),
+          Math.sqrt(snapshot.covariance.get(1, 1)),
+          Math.sqrt(snapshot.covariance.get(2, 2))
+        });
+    copySlipScores();
+    Logger.recordOutput("RobotState/SlipScores", loggedSlipScores);
+    Logger.recordOutput("Vision/AcceptedMeasurements", acceptedVisionMeasurements);
+    Logger.recordOutput("Vision/RejectedMeasurements", rejectedVisionMeasurements);
+    if (estimatorThread != null) {
+      Logger.recordOutput("RobotState/DroppedOdometryBatches", estimatorThread.getDroppedBatches());
+    }
+  }
+
+  /** Copies the slip scores of the latest odometry batch for logging. */
+  private synchronized void copySlipScores() {
+    System.arraycopy(batchSlipScores, 0, loggedSlipScores, 0, loggedSlipScores.length);
   }
 
   /**
@@ -133,16 +762,78 @@ public class RobotState {
    * @param stdDevs Standard deviations of the vision measurement (x, y, theta)
    */
   public void addVisionMeasurement(Pose2d visionPose, double timestamp, Matrix<N3, N1> stdDevs) {
+    addVisionMeasurements(List.of(new VisionObservation(visionPose, timestamp, stdDevs)));
+  }
+
+  /**
+   * Add a batch of vision measurements, such as every result from every camera in one loop. The
+   * measurements may arrive in any order; they are sorted by timestamp and fused in a single replay
+   * of the odometry history. Measurements older than the history are rejected.
+   *
+   * <p>When the estimator runs on its own thread, the measurements are queued and fused there.
+   *
+   * @param observations The vision measurements to add
+   */
+  public void addVisionMeasurements(List<VisionObservation> observations) {
+    if (observations.isEmpty()) {
+      return;
+    }
+
+    // Log the standard deviations used for the newest measurement
+    var stdDevs = observations.get(observations.size() - 1).stdDevs();
+    Logger.recordOutput("Vision/MeasurementStdDevX", stdDevs.get(0, 0));
+    Logger.recordOutput("Vision/MeasurementStdDevY", stdDevs.get(1, 0));
+    Logger.recordOutput("Vision/MeasurementStdDevTheta", stdDevs.get(2, 0));
+
+    if (estimatorThread != null) {
+      estimatorThread.offerVision(observations);
+    } else {
+      fuseVisionMeasurements(observations);
+    }
+  }
+
+  /** Sorts a batch of vision measurements and fuses them with the estimate. */
+  synchronized void fuseVisionMeasurements(List<VisionObservation> observations) {
+    List<VisionObservation> sorted = new ArrayList<>(observations.size());
+    int rejected = 0;
+    for (var observation : observations) {
+      if (poseBuffer.size() == 0 || observation.timestamp() < poseBuffer.getTimestamp(0)) {
+        rejected++;
+      } else {
+        sorted.add(observation);
+      }
+    }
+    sorted.sort(Comparator.comparingDouble(VisionObservation::timestamp));
+    acceptedVisionMeasurements = sorted.size();
+    rejectedVisionMeasurements = rejected;
+    if (sorted.isEmpty()) {
+      return;
+    }
+
+    switch (visionFusionMode) {
+      case CONFIDENCE_BLEND -> {
+        for (var observation : sorted) {
+          addVisionMeasurementBlend(
+              observation.pose(), observation.timestamp(), observation.stdDevs());
+        }
+      }
+      case KALMAN -> addVisionMeasurementsKalman(sorted);
+    }
+    publishSnapshot();
+  }
+
+  private void addVisionMeasurementBlend(
+      Pose2d visionPose, double timestamp, Matrix<N3, N1> stdDevs) {
     // Get odometry based pose at timestamp
-    var sample = poseBuffer.getSample(timestamp);
-    if (sample.isEmpty()) {
+    if (!poseBuffer.getSample(timestamp, poseSample)) {
       // exit if not there
       return;
     }
+    var sample = new Pose2d(poseSample[0], poseSample[1], new Rotation2d(poseSample[2]));
 
     // sample --> odometryPose transform and backwards of that
-    var sampleToOdometryTransform = new Transform2d(sample.get(), odometryPose);
-    var odometryToSampleTransform = new Transform2d(odometryPose, sample.get());
+    var sampleToOdometryTransform = new Transform2d(sample, odometryPose);
+    var odometryToSampleTransform = new Transform2d(odometryPose, sample);
     // get old estimate by applying odometryToSample Transform
     Pose2d estimateAtTime = estimatedPose.plus(odometryToSampleTransform);
 
@@ -164,13 +855,237 @@ public class RobotState {
     // Recalculate current estimate by applying transform to old estimate
     // then replaying odometry data
     estimatedPose = estimateAtTime.plus(correctionTransform).plus(sampleToOdometryTransform);
+  }
 
-    // Log the standard deviations used
-    Logger.recordOutput("Vision/MeasurementStdDevX", stdDevs.get(0, 0));
-    Logger.recordOutput("Vision/MeasurementStdDevY", stdDevs.get(1, 0));
-    Logger.recordOutput("Vision/MeasurementStdDevTheta", stdDevs.get(2, 0));
+  private void addVisionMeasurementsKalman(List<VisionObservation> observations) {
+    // Get odometry based pose at the oldest measurement
+    double firstTimestamp = observations.get(0).timestamp();
+    int index = poseBuffer.floorIndex(firstTimestamp);
+    poseBuffer.getSample(firstTimestamp, poseSample);
+    var sample = new Pose2d(poseSample[0], poseSample[1], new Rotation2d(poseSample[2]));
+    Pose2d estimateAtTime = estimatedPose.plus(new Transform2d(odometryPose, sample));
+
+    // Replay the stored odometry steps since the measurement to find the motion (in the estimate
+    // frame) and the odometry noise accumulated between then and now
+    double correctionRotation =
+        estimatedPose.getRotation().getRadians() - odometryPose.getRotation().getRadians();
+    double correctionCos = Math.cos(correctionRotation);
+    double correctionSin = Math.sin(correctionRotation);
+    Arrays.fill(replayNoise, 0.0);
+    double totalDeltaX = 0.0;
+    double totalDeltaY = 0.0;
+    double lastX = poseSample[0];
+    double lastY = poseSample[1];
+    double lastTheta = poseSample[2];
+    for (int i = index + 1; i < poseBuffer.size(); i++) {
+      double deltaX = poseBuffer.getX(i) - lastX;
+      double deltaY = poseBuffer.getY(i) - lastY;
+      double deltaTheta = MathUtil.angleModulus(poseBuffer.getTheta(i) - lastTheta);
+      double estimatedDeltaX = deltaX * correctionCos - deltaY * correctionSin;
+      double estimatedDeltaY = deltaX * correctionSin + deltaY * correctionCos;
+      transformCovariance(replayNoise, estimatedDeltaX, estimatedDeltaY);
+      addOdometryNoise(
+          replayNoise,
+          estimatedDeltaX,
+          estimatedDeltaY,
+          deltaTheta,
+          poseBuffer.getTheta(i) + correctionRotation);
+      totalDeltaX += estimatedDeltaX;
+      totalDeltaY += estimatedDeltaY;
+      lastX = poseBuffer.getX(i);
+      lastY = poseBuffer.getY(i);
+      lastTheta = poseBuffer.getTheta(i);
+    }
+
+    // Covariance at the measurement: remove the replayed noise and undo the replayed motion
+    for (int i = 0; i < 9; i++) {
+      replayCovariance[i] = covariance[i] - replayNoise[i];
+    }
+    transformCovariance(replayCovariance, -totalDeltaX, -totalDeltaY);
+    clampCovariance(replayCovariance);
+
+    // Replay odometry forward from the oldest measurement, correcting the estimate and covariance
+    // at each measurement as it is reached
+    replayEstimate[0] = estimateAtTime.getX();
+    replayEstimate[1] = estimateAtTime.getY();
+    replayEstimate[2] = estimateAtTime.getRotation().getRadians();
+    replayOdometry[0] = poseSample[0];
+    replayOdometry[1] = poseSample[1];
+    replayOdometry[2] = poseSample[2];
+    applyVisionMeasurement(observations.get(0));
+    int next = 1;
+    for (int i = index + 1; i < poseBuffer.size(); i++) {
+      double timestamp = poseBuffer.getTimestamp(i);
+      while (next < observations.size() && observations.get(next).timestamp() < timestamp) {
+        poseBuffer.getSample(observations.get(next).timestamp(), poseSample);
+        replayOdometryStep(poseSample[0], poseSample[1], poseSample[2]);
+        applyVisionMeasurement(observations.get(next++));
+      }
+      replayOdometryStep(poseBuffer.getX(i), poseBuffer.getY(i), poseBuffer.getTheta(i));
+    }
+    // Measurements at or after the newest odometry sample
+    while (next < observations.size()) {
+      applyVisionMeasurement(observations.get(next++));
+    }
+
+    // The replay ends at the newest odometry sample, which is the current odometry pose
+    estimatedPose =
+        new Pose2d(replayEstimate[0], replayEstimate[1], new Rotation2d(replayEstimate[2]))
+            .plus(
+                new Transform2d(
+                    new Pose2d(
+                        replayOdometry[0], replayOdometry[1], new Rotation2d(replayOdometry[2])),
+                    odometryPose));
+    System.arraycopy(replayCovariance, 0, covariance, 0, 9);
   }
 
-  public record OdometryObservation(
-      SwerveModulePosition[] wheelPositions, Optional<Rotation2d> gyroAngle, double timestamp) {}
+  /**
+   * Moves the replayed estimate to the next odometry pose, applying the odometry step in the frame
+   * of the estimate and growing the replayed covariance.
+   */
+  private void replayOdometryStep(double x, double y, double theta) {
+    double rotation = replayEstimate[2] - replayOdometry[2];
+    double deltaX = x - replayOdometry[0];
+    double deltaY = y - replayOdometry[1];
+    double estimatedDeltaX = deltaX * Math.cos(rotation) - deltaY * Math.sin(rotation);
+    double estimatedDeltaY = deltaX * Math.sin(rotation) + deltaY * Math.cos(rotation);
+    double estimatedDeltaTheta = MathUtil.angleModulus(theta - replayOdometry[2]);
+    replayEstimate[0] += estimatedDeltaX;
+    replayEstimate[1] += estimatedDeltaY;
+    replayEstimate[2] += estimatedDeltaTheta;
+    replayOdometry[0] = x;
+    replayOdometry[1] = y;
+    replayOdometry[2] = theta;
+
+    transformCovariance(replayCovariance, estimatedDeltaX, estimatedDeltaY);
+    addOdometryNoise(
+        replayCovariance, estimatedDeltaX, estimatedDeltaY, estimatedDeltaTheta, replayEstimate[2]);
+  }
+
+  /**
+   * Applies a Kalman update to the replayed estimate and covariance. The 3x3 algebra is written
+   * out on the reused arrays, so nothing is allocated per measurement.
+   */
+  private void applyVisionMeasurement(VisionObservation observation) {
+    // Innovation covariance S = P + R, inverted by cofactors (symmetric positive definite)
+    var stdDevs = observation.stdDevs();
+    double s00 = replayCovariance[0] + stdDevs.get(0, 0) * stdDevs.get(0, 0);
+    double s01 = replayCovariance[1];
+    double s02 = replayCovariance[2];
+    double s11 = replayCovariance[4] + stdDevs.get(1, 0) * stdDevs.get(1, 0);
+    double s12 = replayCovariance[5];
+    double s22 = replayCovariance[8] + stdDevs.get(2, 0) * stdDevs.get(2, 0);
+    double c00 = s11 * s22 - s12 * s12;
+    double c01 = s02 * s12 - s01 * s22;
+    double c02 = s01 * s12 - s02 * s11;
+    double c11 = s00 * s22 - s02 * s02;
+    double c12 = s01 * s02 - s00 * s12;
+    double c22 = s00 * s11 - s01 * s01;
+    double determinant = s00 * c00 + s01 * c01 + s02 * c02;
+    innovationInverse[0] = c00 / determinant;
+    innovationInverse[1] = c01 / determinant;
+    innovationInverse[2] = c02 / determinant;
+    innovationInverse[3] = innovationInverse[1];
+    innovationInverse[4] = c11 / determinant;
+    innovationInverse[5] = c12 / determinant;
+    innovationInverse[6] = innovationInverse[2];
+    innovationInverse[7] = innovationInverse[5];
+    innovationInverse[8] = c22 / determinant;
+
+    // Per-axis Kalman gain, K = P S^-1
+    multiply(replayCovariance, innovationInverse, gain);
+
+    // Correct the estimate at the measurement
+    var visionPose = observation.pose();
+    innovation[0] = visionPose.getX() - replayEstimate[0];
+    innovation[1] = visionPose.getY() - replayEstimate[1];
+    innovation[2] =
+        MathUtil.angleModulus(visionPose.getRotation().getRadians() - replayEstimate[2]);
+    for (int row = 0; row < 3; row++) {
+      replayEstimate[row] +=
+          gain[row * 3] * innovation[0]
+              + gain[row * 3 + 1] * innovation[1]
+              + gain[row * 3 + 2] * innovation[2];
+    }
+
+    // Corrected covariance (I - K) P, averaged with its transpose to keep it symmetric. The
+    // product is formed in innovationInverse, which is no longer needed.
+    multiply(gain, replayCovariance, innovationInverse);
+    for (int row = 0; row < 3; row++) {
+      for (int col = row; col < 3; col++) {
+        double corrected =
+            replayCovariance[row * 3 + col]
+                - (innovationInverse[row * 3 + col] + innovationInverse[col * 3 + row]) / 2.0;
+        replayCovariance[row * 3 + col] = corrected;
+        replayCovariance[col * 3 + row] = corrected;
+      }
+    }
+    clampCovariance(replayCovariance);
+  }
+
+  /** Multiplies two row-major 3x3 matrices, result = a b. The result must not alias a or b. */
+  private static void multiply(double[] a, double[] b, double[] result) {
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 3; col++) {
+        result[row * 3 + col] =
+            a[row * 3] * b[col] + a[row * 3 + 1] * b[3 + col] + a[row * 3 + 2] * b[6 + col];
+      }
+    }
+  }
+
+  /**
+   * Transforms a covariance through an odometry step, P = F P F^T, where F is the jacobian of the
+   * step with respect to the starting pose. A rotation error at the start of the step becomes a
+   * translation error proportional to the distance moved.
+   *
+   * @param p Row-major covariance (x, y, theta), updated in place
+   * @param dx The field relative x translation of the step
+   * @param dy The field relative y translation of the step
+   */
+  private static void transformCovariance(double[] p, double dx, double dy) {
+    double xx = p[0];
+    double xy = p[1];
+    double xTheta = p[2];
+    double yy = p[4];
+    double yTheta = p[5];
+    double thetaTheta = p[8];
+    p[0] = xx - 2.0 * dy * xTheta + dy * dy * thetaTheta;
+    p[1] = xy - dy * yTheta + dx * xTheta - dx * dy * thetaTheta;
+    p[2] = xTheta - dy * thetaTheta;
+    p[3] = p[1];
+    p[4] = yy + 2.0 * dx * yTheta + dx * dx * thetaTheta;
+    p[5] = yTheta + dx * thetaTheta;
+    p[6] = p[2];
+    p[7] = p[5];
+  }
+
+  /**
+   * Adds the odometry noise for one step to a covariance. Translation noise is robot relative and
+   * is rotated into the field frame.
+   *
+   * @param p Row-major covariance (x, y, theta), updated in place
+   * @param dx The field relative x translation of the step
+   * @param dy The field relative y translation of the step
+   * @param dtheta The rotation of the step
+   * @param heading The robot heading during the step
+   */
+  private void addOdometryNoise(double[] p, double dx, double dy, double dtheta, double heading) {
+    double distance = Math.hypot(dx, dy);
+    double longitudinal = qVariancePerMeter[0] * distance;
+    double lateral = qVariancePerMeter[1] * distance;
+    double cos = Math.cos(heading);
+    double sin = Math.sin(heading);
+    p[0] += longitudinal * cos * cos + lateral * sin * sin;
+    p[1] += (longitudinal - lateral) * sin * cos;
+    p[3] = p[1];
+    p[4] += longitudinal * sin * sin + lateral * cos * cos;
+    p[8] += qVariancePerMeter[2] * Math.abs(dtheta);
+  }
+
+  /** Keeps the variances of a covariance at or above the minimum estimate uncertainty. */
+  private static void clampCovariance(double[] p) {
+    for (int i = 0; i < 3; i++) {
+      p[i * 4] = Math.max(p[i * 4], Math.pow(minEstimateStdDevs.get(i, 0), 2));
+    }
+  }
 }
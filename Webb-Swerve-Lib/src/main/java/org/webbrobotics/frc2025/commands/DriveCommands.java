@@ -153,6 +153,18 @@ public class DriveCommands {
             () -> angleController.reset(RobotState.getInstance().getRotation().getRadians()));
   }
 
+  /**
+   * Searches the whole field for the robot pose with the particle filter in {@link RobotState},
+   * for when the starting pose is unknown. Ends once the filter converges and the pose is reset to
+   * its estimate. Canceling the command stops the search without changing the pose.
+   */
+  public static Command globalLocalization() {
+    return Commands.runOnce(() -> RobotState.getInstance().startGlobalLocalization())
+        .andThen(Commands.waitUntil(() -> !RobotState.getInstance().isLocalizing()))
+        .finallyDo(() -> RobotState.getInstance().stopGlobalLocalization())
+        .ignoringDisable(true);
+  }
+
   /**
    * Measures the velocity feedforward constants for the drive motors.
    *
@@ -252,8 +264,9 @@ public class DriveCommands {
 
                       double[] positions = drive.getWheelRadiusCharacterizationPositions();
                       double wheelDelta = 0.0;
-                      for (int i = 0; i < 4; i++) {
-                        wheelDelta += Math.abs(positions[i] - state.positions[i]) / 4.0;
+                      for (int i = 0; i < positions.length; i++) {
+                        wheelDelta +=
+                            Math.abs(positions[i] - state.positions[i]) / positions.length;
                       }
                       double wheelRadius =
                           (state.gyroDelta * DriveConstants.driveBaseRadius) / wheelDelta;
@@ -267,8 +280,9 @@ public class DriveCommands {
                     () -> {
                       double[] positions = drive.getWheelRadiusCharacterizationPositions();
                       double wheelDelta = 0.0;
-                      for (int i = 0; i < 4; i++) {
-                        wheelDelta += Math.abs(positions[i] - state.positions[i]) / 4.0;
+                      for (int i = 0; i < positions.length; i++) {
+                        wheelDelta +=
+                            Math.abs(positions[i] - state.positions[i]) / positions.length;
                       }
                       double wheelRadius =
                           (state.gyroDelta * DriveConstants.driveBaseRadius) / wheelDelta;
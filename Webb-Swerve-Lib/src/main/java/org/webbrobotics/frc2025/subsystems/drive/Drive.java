@@ -3,24 +3,22 @@
  
 package org.webbrobotics.frc2025.subsystems.drive;
 
-import edu.wpi.first.math.VecBuilder;
 import edu.wpi.first.math.Vector;
 import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation3d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
-import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
 import edu.wpi.first.math.numbers.N2;
 import edu.wpi.first.wpilibj.Alert;
 import edu.wpi.first.wpilibj.Alert.AlertType;
 import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.RobotController;
 import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.OptionalDouble;
 import lombok.Setter;
 import org.littletonrobotics.junction.AutoLogOutput;
 import org.littletonrobotics.junction.Logger;
@@ -30,16 +28,23 @@ import org.webbrobotics.frc2025.Robot;
 import org.webbrobotics.frc2025.RobotState;
 import org.webbrobotics.frc2025.util.LoggedTracer;
 import org.webbrobotics.frc2025.util.LoggedTunableNumber;
-import org.webbrobotics.frc2025.util.swerve.SwerveSetpoint;
+import org.webbrobotics.frc2025.util.swerve.ModuleLimits;
+import org.webbrobotics.frc2025.util.swerve.MutableSwerveSetpoint;
 import org.webbrobotics.frc2025.util.swerve.SwerveSetpointGenerator;
 
 public class Drive extends SubsystemBase {
-  static final Lock odometryLock = new ReentrantLock();
   private final GyroIO gyroIO;
   private final GyroIOInputsAutoLogged gyroInputs = new GyroIOInputsAutoLogged();
-  private final Module[] modules = new Module[4]; // FL, FR, BL, BR
+  // In the order of DriveConstants.moduleTranslations
+  private final Module[] modules = new Module[DriveConstants.moduleTranslations.length];
   private final Alert gyroDisconnectedAlert =
       new Alert("Disconnected gyro, using kinematics as fallback.", AlertType.kError);
+  private final Alert odometryMissingAlert =
+      new Alert("Odometry samples missing from a device, skipping odometry.", AlertType.kError);
+  private final Alert moduleForcesMismatchAlert =
+      new Alert(
+          "Module forces don't match the number of modules, skipping feedforward.",
+          AlertType.kWarning);
 
   private static final LoggedTunableNumber coastWaitTime =
       new LoggedTunableNumber("Drive/CoastWaitTimeSeconds", 0.5);
@@ -48,42 +53,70 @@ public class Drive extends SubsystemBase {
 
   private final Timer lastMovementTimer = new Timer();
 
+  // Reused when sending odometry samples to robot state
+  private final double[][] odometryDrivePositionsMeters =
+      new double[modules.length][PhoenixOdometryThread.frameCapacity];
+  private final double[][] odometryTurnPositionsRad =
+      new double[modules.length][PhoenixOdometryThread.frameCapacity];
+  private final double[] odometryYawPositionsRad = new double[PhoenixOdometryThread.frameCapacity];
+  private final double[] odometryPitchPositionsRad =
+      new double[PhoenixOdometryThread.frameCapacity];
+  private final double[] odometryRollPositionsRad =
+      new double[PhoenixOdometryThread.frameCapacity];
+
   private final SwerveDriveKinematics kinematics =
       new SwerveDriveKinematics(DriveConstants.moduleTranslations);
 
   @AutoLogOutput private boolean velocityMode = false;
   @AutoLogOutput private boolean brakeModeEnabled = true;
 
-  private SwerveSetpoint currentSetpoint =
-      new SwerveSetpoint(
-          new ChassisSpeeds(),
-          new SwerveModuleState[] {
-            new SwerveModuleState(),
-            new SwerveModuleState(),
-            new SwerveModuleState(),
-            new SwerveModuleState()
-          });
+  // Generated in place every loop, and copied into the states sent to the modules
+  private final MutableSwerveSetpoint currentSetpoint = new MutableSwerveSetpoint(modules.length);
+  private final ChassisSpeeds discreteSpeeds = new ChassisSpeeds();
+  private final ChassisSpeeds setpointSpeeds = new ChassisSpeeds();
+  private final SwerveModuleState[] setpointStates = new SwerveModuleState[modules.length];
+  private final SwerveModuleState[] setpointStatesUnoptimized =
+      new SwerveModuleState[modules.length];
+  // Wheel torques with the setpoint angles, for logging
+  private final SwerveModuleState[] moduleTorques = new SwerveModuleState[modules.length];
   private final SwerveSetpointGenerator swerveSetpointGenerator;
+  private final ModuleLimitsProvider moduleLimitsProvider =
+      new ModuleLimitsProvider(DriveConstants.moduleLimitsFree, modules.length);
+  private final TractionController tractionController =
+      new TractionController(DriveConstants.moduleTranslations);
+
+  /** Relative to the robot center on the floor, to be updated by mechanisms as they move. */
+  @Setter @AutoLogOutput private Translation3d centerOfGravity = DriveConstants.centerOfGravity;
+
+  // Limits with the center of gravity, only rebuilt when what they were built from changes
+  private ModuleLimits moduleLimits = null;
+  private ModuleLimits moduleLimitsBase = null;
+  private Translation3d moduleLimitsCenterOfGravity = null;
 
-  public Drive(
-      GyroIO gyroIO,
-      ModuleIO flModuleIO,
-      ModuleIO frModuleIO,
-      ModuleIO blModuleIO,
-      ModuleIO brModuleIO) {
+  /**
+   * Creates the drive with one module IO for each of {@link DriveConstants#moduleTranslations}, in
+   * the same order.
+   */
+  public Drive(GyroIO gyroIO, ModuleIO... moduleIOs) {
+    if (moduleIOs.length != modules.length) {
+      throw new IllegalArgumentException(
+          "Expected " + modules.length + " module IOs, got " + moduleIOs.length + ".");
+    }
     this.gyroIO = gyroIO;
-    modules[0] = new Module(flModuleIO, 0);
-    modules[1] = new Module(frModuleIO, 1);
-    modules[2] = new Module(blModuleIO, 2);
-    modules[3] = new Module(brModuleIO, 3);
+    for (int i = 0; i < modules.length; i++) {
+      modules[i] = new Module(moduleIOs[i], i);
+      setpointStates[i] = new SwerveModuleState();
+      setpointStatesUnoptimized[i] = new SwerveModuleState();
+      moduleTorques[i] = new SwerveModuleState();
+    }
     lastMovementTimer.start();
     setBrakeMode(true);
 
     swerveSetpointGenerator =
         new SwerveSetpointGenerator(kinematics, DriveConstants.moduleTranslations);
 
-    // Start odometry thread
-    PhoenixOdometryThread.getInstance().start();
+    // Start odometry threads
+    PhoenixOdometryThread.startAll();
   }
 
   public enum CoastRequest {
@@ -96,13 +129,14 @@ public class Drive extends SubsystemBase {
 
   @Override
   public void periodic() {
-    odometryLock.lock(); // Prevents odometry updates while reading data
+    // Latch the odometry frames published so far without blocking the threads
+    PhoenixOdometryThread.latchAll();
+    PhoenixOdometryThread.logHealthAll();
     gyroIO.updateInputs(gyroInputs);
     Logger.processInputs("Drive/Gyro", gyroInputs);
     for (var module : modules) {
       module.updateInputs();
     }
-    odometryLock.unlock();
     LoggedTracer.record("Drive/Inputs");
 
     // Call periodic on modules
@@ -123,27 +157,97 @@ public class Drive extends SubsystemBase {
       Logger.recordOutput("Drive/SwerveStates/SetpointsUnoptimized", new SwerveModuleState[] {});
     }
 
-    // Send odometry updates to robot state
-    double[] sampleTimestamps =
-        Constants.getMode() == Mode.SIM
-            ? new double[] {Timer.getTimestamp()}
-            : gyroInputs.odometryYawTimestamps; // All signals are sampled together
-    int sampleCount = sampleTimestamps.length;
-    for (int i = 0; i < sampleCount; i++) {
-      SwerveModulePosition[] wheelPositions = new SwerveModulePosition[4];
-      for (int j = 0; j < 4; j++) {
-        wheelPositions[j] = modules[j].getOdometryPositions()[i];
+    // Send odometry updates to robot state, one sample per sample of the first module. Each CAN
+    // bus is sampled by its own thread, so devices on other buses are interpolated to match.
+    double[] sampleTimestamps = modules[0].getOdometryTimestamps();
+    int sampleCount = Math.min(modules[0].getOdometrySampleCount(), odometryYawPositionsRad.length);
+    int yawSampleCount =
+        Math.min(
+            gyroInputs.odometryYawTimestamps.length, gyroInputs.odometryYawPositionsRad.length);
+    // A stream is missing when it is empty while another stream has samples this cycle
+    boolean odometryMissing = gyroInputs.data.connected() && yawSampleCount == 0;
+    boolean odometryReceived = gyroInputs.data.connected() && yawSampleCount > 0;
+    for (var module : modules) {
+      odometryMissing |= module.getOdometrySampleCount() == 0;
+      odometryReceived |= module.getOdometrySampleCount() > 0;
+    }
+    odometryMissingAlert.set(odometryMissing && odometryReceived);
+    OptionalDouble gyroVelocityRadPerSec =
+        gyroInputs.data.connected()
+            ? OptionalDouble.of(gyroInputs.data.yawVelocityRadPerSec())
+            : OptionalDouble.empty();
+    RobotState.getInstance().setGyroVelocityRadPerSec(gyroVelocityRadPerSec);
+    if (!odometryMissing && sampleCount > 0) {
+      for (int i = 0; i < modules.length; i++) {
+        modules[i].getOdometryPositions(
+            sampleTimestamps,
+            sampleCount,
+            odometryDrivePositionsMeters[i],
+            odometryTurnPositionsRad[i]);
+      }
+      if (gyroInputs.data.connected()) {
+        Module.resample(
+            gyroInputs.odometryYawTimestamps,
+            gyroInputs.odometryYawPositionsRad,
+            yawSampleCount,
+            sampleTimestamps,
+            sampleCount,
+            odometryYawPositionsRad,
+            true);
+      }
+      // Pitch and roll are sampled in the same frames as the yaw
+      boolean hasTilt =
+          gyroInputs.data.connected()
+              && gyroInputs.odometryPitchPositionsRad.length >= yawSampleCount
+              && gyroInputs.odometryRollPositionsRad.length >= yawSampleCount;
+      if (hasTilt) {
+        Module.resample(
+            gyroInputs.odometryYawTimestamps,
+            gyroInputs.odometryPitchPositionsRad,
+            yawSampleCount,
+            sampleTimestamps,
+            sampleCount,
+            odometryPitchPositionsRad,
+            true);
+        Module.resample(
+            gyroInputs.odometryYawTimestamps,
+            gyroInputs.odometryRollPositionsRad,
+            yawSampleCount,
+            sampleTimestamps,
+            sampleCount,
+            odometryRollPositionsRad,
+            true);
       }
       RobotState.getInstance()
-          .addOdometryObservation(
-              new RobotState.OdometryObservation(
-                  wheelPositions,
-                  Optional.ofNullable(
-                      gyroInputs.data.connected() ? gyroInputs.odometryYawPositions[i] : null),
-                  sampleTimestamps[i]));
+          .addOdometrySamples(
+              sampleTimestamps,
+              odometryDrivePositionsMeters,
+              odometryTurnPositionsRad,
+              gyroInputs.data.connected() ? odometryYawPositionsRad : null,
+              hasTilt ? odometryPitchPositionsRad : null,
+              hasTilt ? odometryRollPositionsRad : null,
+              sampleCount);
     }
 
-    RobotState.getInstance().addDriveSpeeds(getChassisSpeeds());
+    SwerveModuleState[] measuredStates = getModuleStates();
+    ChassisSpeeds measuredSpeeds = kinematics.toChassisSpeeds(measuredStates);
+    RobotState.getInstance().addDriveSpeeds(measuredSpeeds);
+    if (gyroInputs.data.connected()) {
+      RobotState.getInstance()
+          .addAccelerometerSample(gyroInputs.accelerationXGs, gyroInputs.accelerationYGs);
+    }
+
+    // Track the speeds over the carpet for traction control, with the wheels only driven toward a
+    // setpoint in velocity mode
+    tractionController.update(
+        measuredSpeeds,
+        velocityMode ? setpointSpeeds : measuredSpeeds,
+        gyroVelocityRadPerSec,
+        measuredStates);
+    Logger.recordOutput(
+        "Drive/TractionControl/CarpetSpeeds", tractionController.getCarpetSpeeds());
+    Logger.recordOutput(
+        "Drive/TractionControl/SlipMetersPerSec", tractionController.getSlipMetersPerSec());
 
     // Update brake mode
     // Reset movement timer if velocity above threshold
@@ -176,7 +280,7 @@ public class Drive extends SubsystemBase {
 
     // Update current setpoint if not in velocity mode
     if (!velocityMode) {
-      currentSetpoint = new SwerveSetpoint(getChassisSpeeds(), getModuleStates());
+      currentSetpoint.set(getChassisSpeeds(), getModuleStates());
     }
 
     // Update gyro alert
@@ -203,23 +307,17 @@ public class Drive extends SubsystemBase {
   public void runVelocity(ChassisSpeeds speeds) {
     velocityMode = true;
     // Calculate module setpoints
-    ChassisSpeeds discreteSpeeds = ChassisSpeeds.discretize(speeds, Constants.loopPeriodSecs);
-    SwerveModuleState[] setpointStatesUnoptimized = kinematics.toSwerveModuleStates(discreteSpeeds);
-    currentSetpoint =
-        swerveSetpointGenerator.generateSetpoint(
-            DriveConstants.moduleLimitsFree,
-            currentSetpoint,
-            discreteSpeeds,
-            Constants.loopPeriodSecs);
-    SwerveModuleState[] setpointStates = currentSetpoint.moduleStates();
+    discretize(speeds);
+    updateUnoptimizedStates();
+    generateSetpoint();
 
     // Log unoptimized setpoints and setpoint speeds
     Logger.recordOutput("Drive/SwerveStates/SetpointsUnoptimized", setpointStatesUnoptimized);
     Logger.recordOutput("Drive/SwerveStates/Setpoints", setpointStates);
-    Logger.recordOutput("Drive/SwerveChassisSpeeds/Setpoints", currentSetpoint.chassisSpeeds());
+    Logger.recordOutput("Drive/SwerveChassisSpeeds/Setpoints", setpointSpeeds);
 
     // Send setpoints to modules
-    for (int i = 0; i < 4; i++) {
+    for (int i = 0; i < modules.length; i++) {
       modules[i].runSetpoint(setpointStates[i]);
     }
   }
@@ -231,49 +329,162 @@ public class Drive extends SubsystemBase {
    * @param moduleForces The forces applied to each module
    */
   public void runVelocity(ChassisSpeeds speeds, List<Vector<N2>> moduleForces) {
+    // Forces planned for another module layout don't apply to these modules
+    moduleForcesMismatchAlert.set(moduleForces.size() != modules.length);
+    if (moduleForces.size() != modules.length) {
+      runVelocity(speeds);
+      return;
+    }
     velocityMode = true;
     // Calculate module setpoints
-    ChassisSpeeds discreteSpeeds = ChassisSpeeds.discretize(speeds, Constants.loopPeriodSecs);
-    SwerveModuleState[] setpointStatesUnoptimized = kinematics.toSwerveModuleStates(discreteSpeeds);
-    currentSetpoint =
-        swerveSetpointGenerator.generateSetpoint(
-            DriveConstants.moduleLimitsFree,
-            currentSetpoint,
-            discreteSpeeds,
-            Constants.loopPeriodSecs);
-    SwerveModuleState[] setpointStates = currentSetpoint.moduleStates();
+    discretize(speeds);
+    updateUnoptimizedStates();
+    generateSetpoint();
 
     // Log unoptimized setpoints and setpoint speeds
     Logger.recordOutput("Drive/SwerveStates/SetpointsUnoptimized", setpointStatesUnoptimized);
     Logger.recordOutput("Drive/SwerveStates/Setpoints", setpointStates);
-    Logger.recordOutput("Drive/SwerveChassisSpeeds/Setpoints", currentSetpoint.chassisSpeeds());
+    Logger.recordOutput("Drive/SwerveChassisSpeeds/Setpoints", setpointSpeeds);
 
-    // Save module forces to swerve states for logging
-    SwerveModuleState[] wheelForces = new SwerveModuleState[4];
     // Send setpoints to modules
-    SwerveModuleState[] moduleStates = getModuleStates();
-    for (int i = 0; i < 4; i++) {
+    for (int i = 0; i < modules.length; i++) {
       // Optimize state
-      Rotation2d wheelAngle = moduleStates[i].angle;
+      Rotation2d wheelAngle = modules[i].getAngle();
       setpointStates[i].optimize(wheelAngle);
       setpointStates[i].cosineScale(wheelAngle);
 
       // Calculate wheel torque in direction
       var wheelForce = moduleForces.get(i);
-      Vector<N2> wheelDirection = VecBuilder.fill(wheelAngle.getCos(), wheelAngle.getSin());
-      double wheelTorqueNm = wheelForce.dot(wheelDirection) * DriveConstants.wheelRadius;
+      double wheelTorqueNm;
+      if (DriveConstants.tractionControl) {
+        wheelTorqueNm =
+            tractionController.getWheelForceNewtons(i, wheelForce, wheelAngle)
+                * DriveConstants.wheelRadius;
+      } else {
+        wheelTorqueNm =
+            (wheelForce.get(0) * wheelAngle.getCos() + wheelForce.get(1) * wheelAngle.getSin())
+                * DriveConstants.wheelRadius;
+      }
       modules[i].runSetpoint(setpointStates[i], wheelTorqueNm);
 
       // Save to array for logging
-      wheelForces[i] = new SwerveModuleState(wheelTorqueNm, setpointStates[i].angle);
+      moduleTorques[i].speedMetersPerSecond = wheelTorqueNm;
+      moduleTorques[i].angle = setpointStates[i].angle;
+    }
+    Logger.recordOutput("Drive/SwerveStates/ModuleForces", moduleTorques);
+  }
+
+  /**
+   * Discretizes the speeds over one loop into {@link #discreteSpeeds}, like {@link
+   * ChassisSpeeds#discretize(ChassisSpeeds, double)}: the result is the twist that reaches the pose
+   * the speeds would reach after one loop of constant motion.
+   */
+  private void discretize(ChassisSpeeds speeds) {
+    double dt = Constants.loopPeriodSecs;
+    double dx = speeds.vxMetersPerSecond * dt;
+    double dy = speeds.vyMetersPerSecond * dt;
+    double dtheta = speeds.omegaRadiansPerSecond * dt;
+
+    // Same as Pose2d.log from the origin
+    double halfDtheta = dtheta / 2.0;
+    double cosMinusOne = Math.cos(dtheta) - 1.0;
+    double halfThetaByTanOfHalfDtheta =
+        Math.abs(cosMinusOne) < 1e-9
+            ? 1.0 - 1.0 / 12.0 * dtheta * dtheta
+            : -(halfDtheta * Math.sin(dtheta)) / cosMinusOne;
+    // Rotate by the angle of (halfThetaByTanOfHalfDtheta, -halfDtheta) and scale by its length
+    discreteSpeeds.vxMetersPerSecond =
+        (dx * halfThetaByTanOfHalfDtheta + dy * halfDtheta) / dt;
+    discreteSpeeds.vyMetersPerSecond =
+        (dy * halfThetaByTanOfHalfDtheta - dx * halfDtheta) / dt;
+    discreteSpeeds.omegaRadiansPerSecond = speeds.omegaRadiansPerSecond;
+  }
+
+  /**
+   * Computes the module states of {@link #discreteSpeeds} into {@link #setpointStatesUnoptimized},
+   * like {@link SwerveDriveKinematics#toSwerveModuleStates}. Modules that are not moving keep their
+   * previous angle, and an angle is only replaced when it changes.
+   */
+  private void updateUnoptimizedStates() {
+    for (int i = 0; i < modules.length; i++) {
+      var translation = DriveConstants.moduleTranslations[i];
+      double x =
+          discreteSpeeds.vxMetersPerSecond
+              - translation.getY() * discreteSpeeds.omegaRadiansPerSecond;
+      double y =
+          discreteSpeeds.vyMetersPerSecond
+              + translation.getX() * discreteSpeeds.omegaRadiansPerSecond;
+      double speed = Math.hypot(x, y);
+      var state = setpointStatesUnoptimized[i];
+      state.speedMetersPerSecond = speed;
+      if (speed > 1e-6
+          && (x / speed != state.angle.getCos() || y / speed != state.angle.getSin())) {
+        state.angle = new Rotation2d(x, y);
+      }
     }
-    Logger.recordOutput("Drive/SwerveStates/ModuleForces", wheelForces);
+  }
+
+  /** Generates the next setpoint in place and copies it into the setpoint speeds and states. */
+  private void generateSetpoint() {
+    swerveSetpointGenerator.generateSetpoint(
+        getModuleLimits(),
+        currentSetpoint,
+        discreteSpeeds,
+        Constants.loopPeriodSecs,
+        currentSetpoint);
+    if (DriveConstants.tractionControl) {
+      // Limit before copying, so the next setpoint starts from what the modules are sent
+      tractionController.limitSetpoint(currentSetpoint);
+    }
+    currentSetpoint.getChassisSpeeds(setpointSpeeds);
+    for (int i = 0; i < modules.length; i++) {
+      currentSetpoint.getModuleState(i, setpointStates[i]);
+    }
+  }
+
+  /**
+   * Returns the limits for this cycle, lowered to what the battery can sustain if enabled and
+   * limited for tipping at the current center of gravity. The limits are only rebuilt and logged
+   * when they change.
+   */
+  private ModuleLimits getModuleLimits() {
+    var limits = DriveConstants.moduleLimitsFree;
+    if (DriveConstants.batteryAwareModuleLimits) {
+      double driveSupplyCurrentAmps = 0.0;
+      double turnSupplyCurrentAmps = 0.0;
+      double maxModuleSpeedMetersPerSec = 0.0;
+      for (int i = 0; i < modules.length; i++) {
+        driveSupplyCurrentAmps += modules[i].getDriveSupplyCurrentAmps();
+        turnSupplyCurrentAmps += modules[i].getTurnSupplyCurrentAmps();
+        maxModuleSpeedMetersPerSec =
+            Math.max(
+                maxModuleSpeedMetersPerSec,
+                Math.abs(currentSetpoint.moduleSpeedsMetersPerSecond[i]));
+      }
+      limits =
+          moduleLimitsProvider.update(
+              RobotController.getBatteryVoltage(),
+              driveSupplyCurrentAmps,
+              turnSupplyCurrentAmps,
+              maxModuleSpeedMetersPerSec);
+      Logger.recordOutput(
+          "Drive/BatteryOpenCircuitVolts", moduleLimitsProvider.getOpenCircuitVolts());
+    }
+    if (moduleLimits == null
+        || limits != moduleLimitsBase
+        || !centerOfGravity.equals(moduleLimitsCenterOfGravity)) {
+      moduleLimits = limits.withCenterOfGravity(centerOfGravity);
+      moduleLimitsBase = limits;
+      moduleLimitsCenterOfGravity = centerOfGravity;
+      Logger.recordOutput("Drive/ModuleLimits", moduleLimits);
+    }
+    return moduleLimits;
   }
 
   /** Runs the drive in a straight line with the specified drive output. */
   public void runCharacterization(double output) {
     velocityMode = false;
-    for (int i = 0; i < 4; i++) {
+    for (int i = 0; i < modules.length; i++) {
       modules[i].runCharacterization(output);
     }
   }
@@ -288,19 +499,23 @@ public class Drive extends SubsystemBase {
    * return to their normal orientations the next time a nonzero velocity is requested.
    */
   public void stopWithX() {
-    Rotation2d[] headings = new Rotation2d[4];
-    for (int i = 0; i < 4; i++) {
+    Rotation2d[] headings = new Rotation2d[modules.length];
+    for (int i = 0; i < modules.length; i++) {
       headings[i] = DriveConstants.moduleTranslations[i].getAngle();
     }
     kinematics.resetHeadings(headings);
+    swerveSetpointGenerator.resetHeadings(headings);
+    for (int i = 0; i < modules.length; i++) {
+      setpointStatesUnoptimized[i].angle = headings[i];
+    }
     stop();
   }
 
   /** Returns the module states (turn angles and drive velocities) for all the modules. */
   @AutoLogOutput(key = "Drive/SwerveStates/Measured")
   private SwerveModuleState[] getModuleStates() {
-    SwerveModuleState[] states = new SwerveModuleState[4];
-    for (int i = 0; i < 4; i++) {
+    SwerveModuleState[] states = new SwerveModuleState[modules.length];
+    for (int i = 0; i < modules.length; i++) {
       states[i] = modules[i].getState();
     }
     return states;
@@ -314,8 +529,8 @@ public class Drive extends SubsystemBase {
 
   /** Returns the position of each module in radians. */
   public double[] getWheelRadiusCharacterizationPositions() {
-    double[] values = new double[4];
-    for (int i = 0; i < 4; i++) {
+    double[] values = new double[modules.length];
+    for (int i = 0; i < modules.length; i++) {
       values[i] = modules[i].getWheelRadiusCharacterizationPosition();
     }
     return values;
@@ -324,8 +539,8 @@ public class Drive extends SubsystemBase {
   /** Returns the average velocity of the modules in rotations/sec (Phoenix native units). */
   public double getFFCharacterizationVelocity() {
     double output = 0.0;
-    for (int i = 0; i < 4; i++) {
-      output += modules[i].getFFCharacterizationVelocity() / 4.0;
+    for (int i = 0; i < modules.length; i++) {
+      output += modules[i].getFFCharacterizationVelocity() / modules.length;
     }
     return output;
   }
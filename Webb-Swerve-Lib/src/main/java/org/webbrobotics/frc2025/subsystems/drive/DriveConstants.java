@@ -5,7 +5,9 @@ package org.webbrobotics.frc2025.subsystems.drive;
 
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Translation3d;
 import edu.wpi.first.math.util.Units;
+import java.util.Arrays;
 import lombok.Builder;
 import org.webbrobotics.frc2025.Constants;
 import org.webbrobotics.frc2025.Constants.RobotType;
@@ -13,6 +15,15 @@ import org.webbrobotics.frc2025.util.swerve.ModuleLimits;
 
 public class DriveConstants {
   public static final double odometryFrequency = 250;
+  public static final OdometryTimestampMode odometryTimestampMode =
+      OdometryTimestampMode.LATENCY_COMPENSATED;
+  // Fuses the Pigeon 2 with the Redux gyro on the competition robot, see GyroIOFused
+  public static final boolean fusedGyro = false;
+  // Adjusts the odometry frequency at runtime within these bounds, see OdometryRateController
+  public static final boolean odometryAdaptiveRate = false;
+  public static final double minOdometryFrequency = 100;
+  public static final double maxOdometryFrequency = 500;
+  public static final double odometryMaxBusUtilization = 0.8;
   public static final double trackWidthX =
       Constants.getRobot() == RobotType.DEVBOT
           ? Units.inchesToMeters(20.75)
@@ -21,14 +32,8 @@ public class DriveConstants {
       Constants.getRobot() == RobotType.DEVBOT
           ? Units.inchesToMeters(20.75)
           : Units.inchesToMeters(22.75);
-  public static final double driveBaseRadius = Math.hypot(trackWidthX / 2, trackWidthY / 2);
-  public static final double maxLinearSpeed = 4.69;
-  public static final double maxAngularSpeed = 4.69 / driveBaseRadius;
-
-  /** Includes bumpers! */
-  public static final double robotWidth =
-      Units.inchesToMeters(28.0) + 2 * Units.inchesToMeters(2.0);
 
+  /** Positions of the modules, in the order of their configs. Sets the number of modules. */
   public static final Translation2d[] moduleTranslations = {
     new Translation2d(trackWidthX / 2, trackWidthY / 2),
     new Translation2d(trackWidthX / 2, -trackWidthY / 2),
@@ -36,10 +41,30 @@ public class DriveConstants {
     new Translation2d(-trackWidthX / 2, -trackWidthY / 2)
   };
 
+  public static final double driveBaseRadius =
+      Arrays.stream(moduleTranslations).mapToDouble(Translation2d::getNorm).max().orElseThrow();
+  public static final double maxLinearSpeed = 4.69;
+  public static final double maxAngularSpeed = 4.69 / driveBaseRadius;
+  public static final double robotMassKg = 67.0;
+  // With the mechanisms stowed, relative to the robot center on the floor
+  public static final Translation3d centerOfGravity =
+      new Translation3d(0.0, 0.0, Units.inchesToMeters(8.0));
+
+  /** Includes bumpers! */
+  public static final double robotWidth =
+      Units.inchesToMeters(28.0) + 2 * Units.inchesToMeters(2.0);
+
   public static final double wheelRadius = Units.inchesToMeters(2.000);
 
   public static final ModuleLimits moduleLimitsFree =
       new ModuleLimits(maxLinearSpeed, maxAngularSpeed, Units.degreesToRadians(1080.0));
+  // Lowers the drive limits to what the battery can sustain, see ModuleLimitsProvider. Keep off
+  // until its battery resistance and acceleration floor have been checked on the robot
+  public static final boolean batteryAwareModuleLimits = false;
+  // Limits the wheel setpoints to what the carpet can transmit, see TractionController. Keep off
+  // until wheelFrictionCoefficient has been measured on carpet; 1.2 is an estimate
+  public static final boolean tractionControl = false;
+  public static final double wheelFrictionCoefficient = 1.2;
 
   public static final ModuleConfig[] moduleConfigsComp = {
     // FL
@@ -123,6 +148,16 @@ public class DriveConstants {
     public static final int id = Constants.getRobot() == RobotType.DEVBOT ? 3 : 30;
   }
 
+  public enum OdometryTimestampMode {
+    /** Time the sample was read, minus the average latency reported by each signal. */
+    LATENCY_COMPENSATED,
+    /**
+     * Capture time reported by each device, falling back to the CANivore receive time and then the
+     * system receive time when unavailable. Mapped into FPGA time.
+     */
+    DEVICE
+  }
+
   @Builder
   public record ModuleConfig(
       int driveMotorId,
@@ -11,7 +11,14 @@ public interface GyroIO {
   public static class GyroIOInputs {
     public GyroIOData data = new GyroIOData(false, Rotation2d.kZero, 0);
     public double[] odometryYawTimestamps = new double[] {};
-    public Rotation2d[] odometryYawPositions = new Rotation2d[] {};
+    public double[] odometryYawPositionsRad = new double[] {};
+    // Sampled with the yaw, empty if the gyro does not measure tilt
+    public double[] odometryPitchPositionsRad = new double[] {};
+    public double[] odometryRollPositionsRad = new double[] {};
+    // Robot relative acceleration including gravity
+    public double accelerationXGs = 0.0;
+    public double accelerationYGs = 0.0;
+    public double accelerationZGs = 0.0;
   }
 
   public record GyroIOData(
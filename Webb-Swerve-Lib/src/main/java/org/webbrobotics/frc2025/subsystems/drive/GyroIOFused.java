@@ -0,0 +1,324 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.util.Units;
+import edu.wpi.first.wpilibj.Alert;
+import edu.wpi.first.wpilibj.Alert.AlertType;
+import edu.wpi.first.wpilibj.Timer;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * IO implementation that fuses two gyros into one yaw stream, so the heading survives a brownout or
+ * CAN fault on either device.
+ *
+ * <p>Each device has an offset from the fused yaw. While both are healthy, the secondary is
+ * resampled onto the primary timestamps, its offset and relative drift are tracked online, and the
+ * fused yaw is the average of the two. A device is voted out when it disconnects, stops producing
+ * samples, or disagrees with the other device; on a disagreement, the device that jumped further
+ * from its own reported rate is voted out. The remaining device carries the stream on its own
+ * timestamps. A voted out device rejoins once it has been available for {@link #recoverySecs}, with
+ * its offset aligned to the current fused yaw so the heading never jumps. At boot, each device also
+ * has to be available for that long before it is used.
+ *
+ * <p>An alert is raised while a device that was used has been voted out, and when a device has not
+ * become healthy within {@link #bootTimeoutSecs} of the first update.
+ */
+public class GyroIOFused implements GyroIO {
+  private static final double offsetFilterGain = 0.05;
+  private static final double driftFilterGain = 0.005;
+  private static final double faultThresholdRad = Units.degreesToRadians(2.0);
+  private static final double recoverySecs = 1.0;
+  private static final double bootTimeoutSecs = 5.0;
+
+  private final Device primary;
+  private final Device secondary;
+  private final double[] resampledSecondaryYaws = new double[PhoenixOdometryThread.frameCapacity];
+
+  // Drift of the secondary offset, measured at the offset timestamp
+  private double driftRadPerSec = 0.0;
+  private double offsetTimestamp = Double.NaN;
+  private boolean hasFrame = false;
+  private double lastFusedYawRad = 0.0;
+
+  private static class Device {
+    final GyroIO io;
+    final GyroIOInputs inputs = new GyroIOInputs();
+    final String logKey;
+    final Alert votedOutAlert;
+    final Alert neverHealthyAlert;
+    boolean healthy = false;
+    boolean everHealthy = false;
+    // Time of the first update, NaN before it
+    double firstUpdate = Double.NaN;
+    // Time the device became available, NaN if it is not available
+    double availableSince = Double.NaN;
+    int sampleCount = 0;
+    double offsetRad = 0.0;
+    long faultCount = 0;
+    // Newest sample of the previous cycle
+    double lastYawRad = Double.NaN;
+    double lastTimestamp = Double.NaN;
+
+    Device(GyroIO io, String name) {
+      this.io = io;
+      logKey = "Drive/Gyro/Fused/" + name + "/";
+      votedOutAlert =
+          new Alert(name + " gyro voted out, heading fused from one gyro.", AlertType.kWarning);
+      neverHealthyAlert =
+          new Alert(
+              name + " gyro never became healthy, heading fused from one gyro.",
+              AlertType.kWarning);
+    }
+
+    /**
+     * Updates the inputs and availability of the device.
+     *
+     * @return Whether the device just became healthy
+     */
+    boolean update(double now) {
+      if (Double.isNaN(firstUpdate)) {
+        firstUpdate = now;
+      }
+      io.updateInputs(inputs);
+      sampleCount =
+          Math.min(inputs.odometryYawTimestamps.length, inputs.odometryYawPositionsRad.length);
+      if (!inputs.data.connected() || sampleCount == 0) {
+        healthy = false;
+        availableSince = Double.NaN;
+        return false;
+      }
+      if (healthy) {
+        return false;
+      }
+      if (Double.isNaN(availableSince)) {
+        availableSince = now;
+      }
+      healthy = now - availableSince >= recoverySecs;
+      everHealthy |= healthy;
+      return healthy;
+    }
+
+    /** Votes the device out until it has been available again for the recovery time. */
+    void fault() {
+      healthy = false;
+      availableSince = Double.NaN;
+      faultCount++;
+    }
+
+    double getNewestYaw() {
+      return inputs.odometryYawPositionsRad[sampleCount - 1];
+    }
+
+    double getNewestTimestamp() {
+      return inputs.odometryYawTimestamps[sampleCount - 1];
+    }
+
+    /**
+     * Returns the largest distance any sample of this cycle has moved from what the reported rate
+     * predicts, comparing each sample with the one before it. The first sample is compared with
+     * the newest sample of the previous cycle.
+     */
+    double getJumpRad() {
+      double maxJump = 0.0;
+      double previousYaw = lastYawRad;
+      double previousTimestamp = lastTimestamp;
+      for (int i = 0; i < sampleCount; i++) {
+        double yaw = inputs.odometryYawPositionsRad[i];
+        double timestamp = inputs.odometryYawTimestamps[i];
+        if (!Double.isNaN(previousYaw)) {
+          double step = MathUtil.angleModulus(yaw - previousYaw);
+          double expectedStep =
+              inputs.data.yawVelocityRadPerSec() * (timestamp - previousTimestamp);
+          maxJump = Math.max(maxJump, Math.abs(step - expectedStep));
+        }
+        previousYaw = yaw;
+        previousTimestamp = timestamp;
+      }
+      return maxJump;
+    }
+
+    void recordNewestSample() {
+      if (sampleCount > 0) {
+        lastYawRad = getNewestYaw();
+        lastTimestamp = getNewestTimestamp();
+      }
+    }
+
+    void log(double now) {
+      votedOutAlert.set(everHealthy && !healthy);
+      neverHealthyAlert.set(!everHealthy && now - firstUpdate >= bootTimeoutSecs);
+      Logger.recordOutput(logKey + "Healthy", healthy);
+      Logger.recordOutput(logKey + "OffsetRad", offsetRad);
+      Logger.recordOutput(logKey + "FaultCount", faultCount);
+    }
+  }
+
+  /**
+   * Creates a fused gyro.
+   *
+   * @param primary The preferred gyro, whose timestamps and tilt are used while it is healthy
+   * @param secondary The backup gyro
+   */
+  public GyroIOFused(GyroIO primary, GyroIO secondary) {
+    this.primary = new Device(primary, "Primary");
+    this.secondary = new Device(secondary, "Secondary");
+  }
+
+  @Override
+  public void updateInputs(GyroIOInputs inputs) {
+    double now = Timer.getTimestamp();
+    boolean primaryRejoined = primary.update(now);
+    boolean secondaryRejoined = secondary.update(now);
+    if (primaryRejoined) {
+      alignOffset(primary, secondaryRejoined ? null : secondary);
+    }
+    if (secondaryRejoined) {
+      alignOffset(secondary, primary.healthy ? primary : null);
+    }
+
+    double residualRad = 0.0;
+    if (primary.healthy && secondary.healthy) {
+      residualRad = crossCheck();
+    }
+
+    if (primary.healthy) {
+      writeFusedStream(primary, secondary.healthy, inputs);
+    } else if (secondary.healthy) {
+      writeFusedStream(secondary, false, inputs);
+    } else {
+      inputs.data = new GyroIOData(false, new Rotation2d(lastFusedYawRad), 0.0);
+      inputs.odometryYawTimestamps = new double[] {};
+      inputs.odometryYawPositionsRad = new double[] {};
+      inputs.odometryPitchPositionsRad = new double[] {};
+      inputs.odometryRollPositionsRad = new double[] {};
+    }
+
+    primary.recordNewestSample();
+    secondary.recordNewestSample();
+    primary.log(now);
+    secondary.log(now);
+    Logger.recordOutput("Drive/Gyro/Fused/ResidualRad", residualRad);
+    Logger.recordOutput("Drive/Gyro/Fused/DriftRadPerSec", driftRadPerSec);
+  }
+
+  /**
+   * Sets the offset of a device that just became healthy so it continues the fused yaw, using the
+   * other device when it is healthy and the last fused yaw otherwise.
+   */
+  private void alignOffset(Device device, Device reference) {
+    if (reference != null && reference.healthy) {
+      device.offsetRad =
+          MathUtil.angleModulus(
+              device.getNewestYaw() - (reference.getNewestYaw() - reference.offsetRad));
+    } else if (hasFrame) {
+      device.offsetRad = MathUtil.angleModulus(device.getNewestYaw() - lastFusedYawRad);
+    } else {
+      device.offsetRad = 0.0;
+      hasFrame = true;
+    }
+    // Relative drift has to be learned again for the new pairing
+    driftRadPerSec = 0.0;
+    offsetTimestamp = Double.NaN;
+  }
+
+  /**
+   * Compares the secondary against the primary on the primary timestamps, updating the secondary
+   * offset and drift or voting out a faulty device.
+   *
+   * @return The mean residual between the devices after the offset, or the largest residual when
+   *     a device was voted out, in radians
+   */
+  private double crossCheck() {
+    Module.resample(
+        secondary.inputs.odometryYawTimestamps,
+        secondary.inputs.odometryYawPositionsRad,
+        secondary.sampleCount,
+        primary.inputs.odometryYawTimestamps,
+        Math.min(primary.sampleCount, resampledSecondaryYaws.length),
+        resampledSecondaryYaws,
+        true);
+
+    int count = Math.min(primary.sampleCount, resampledSecondaryYaws.length);
+    if (count == 0) {
+      return 0.0;
+    }
+    double totalResidual = 0.0;
+    double maxResidual = 0.0;
+    for (int i = 0; i < count; i++) {
+      double residual = getResidual(i);
+      totalResidual += residual;
+      if (Math.abs(residual) > Math.abs(maxResidual)) {
+        maxResidual = residual;
+      }
+    }
+    if (Math.abs(maxResidual) > faultThresholdRad) {
+      // Vote out whichever device jumped further from its own rate, preferring the primary
+      if (secondary.getJumpRad() >= primary.getJumpRad()) {
+        secondary.fault();
+      } else {
+        primary.fault();
+      }
+      return maxResidual;
+    }
+
+    // Track the secondary offset and its drift from the mean residual
+    double meanResidual = totalResidual / count;
+    double timestamp = primary.inputs.odometryYawTimestamps[count - 1];
+    double dt = Double.isNaN(offsetTimestamp) ? 0.0 : timestamp - offsetTimestamp;
+    secondary.offsetRad =
+        MathUtil.angleModulus(
+            secondary.offsetRad + driftRadPerSec * dt + offsetFilterGain * meanResidual);
+    if (dt > 0.0) {
+      driftRadPerSec += driftFilterGain * meanResidual / dt;
+    }
+    offsetTimestamp = timestamp;
+    return meanResidual;
+  }
+
+  /** Returns the secondary minus the primary at a primary sample, both in the fused frame. */
+  private double getResidual(int index) {
+    double timestamp = primary.inputs.odometryYawTimestamps[index];
+    double drift =
+        Double.isNaN(offsetTimestamp) ? 0.0 : driftRadPerSec * (timestamp - offsetTimestamp);
+    double secondaryOffset = secondary.offsetRad + drift;
+    return MathUtil.angleModulus(
+        (resampledSecondaryYaws[index] - secondaryOffset)
+            - (primary.inputs.odometryYawPositionsRad[index] - primary.offsetRad));
+  }
+
+  /**
+   * Writes the fused stream on the timestamps of one device, averaging in the secondary when both
+   * devices are healthy.
+   */
+  private void writeFusedStream(Device device, boolean average, GyroIOInputs inputs) {
+    int count =
+        average ? Math.min(device.sampleCount, resampledSecondaryYaws.length) : device.sampleCount;
+    inputs.odometryYawTimestamps = new double[count];
+    inputs.odometryYawPositionsRad = new double[count];
+    for (int i = 0; i < count; i++) {
+      inputs.odometryYawTimestamps[i] = device.inputs.odometryYawTimestamps[i];
+      double yaw = device.inputs.odometryYawPositionsRad[i] - device.offsetRad;
+      if (average) {
+        yaw += getResidual(i) / 2.0;
+      }
+      inputs.odometryYawPositionsRad[i] = yaw;
+    }
+    if (count > 0) {
+      lastFusedYawRad = inputs.odometryYawPositionsRad[count - 1];
+    }
+
+    // Tilt is only valid on the timestamps of the device that measured it
+    inputs.odometryPitchPositionsRad = device.inputs.odometryPitchPositionsRad;
+    inputs.odometryRollPositionsRad = device.inputs.odometryRollPositionsRad;
+    inputs.accelerationXGs = device.inputs.accelerationXGs;
+    inputs.accelerationYGs = device.inputs.accelerationYGs;
+    inputs.accelerationZGs = device.inputs.accelerationZGs;
+    inputs.data =
+        new GyroIOData(
+            true, new Rotation2d(lastFusedYawRad), device.inputs.data.yawVelocityRadPerSec());
+  }
+}
@@ -14,26 +14,40 @@ import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
 import edu.wpi.first.units.measure.Angle;
 import edu.wpi.first.units.measure.AngularVelocity;
-import java.util.Queue;
+import edu.wpi.first.units.measure.LinearAcceleration;
+import java.util.Arrays;
 import org.webbrobotics.frc2025.util.PhoenixUtil;
 
 /** IO implementation for Pigeon 2. */
 public class GyroIOPigeon2 implements GyroIO {
   private final Pigeon2 pigeon = new Pigeon2(PigeonConstants.id, "*");
   private final StatusSignal<Angle> yaw = pigeon.getYaw();
-  private final Queue<Double> yawPositionQueue;
-  private final Queue<Double> yawTimestampQueue;
+  private final int yawPositionSlot;
   private final StatusSignal<AngularVelocity> yawVelocity = pigeon.getAngularVelocityZWorld();
+  private final StatusSignal<Angle> pitch = pigeon.getPitch();
+  private final int pitchPositionSlot;
+  private final StatusSignal<Angle> roll = pigeon.getRoll();
+  private final int rollPositionSlot;
+  private final StatusSignal<LinearAcceleration> accelerationX = pigeon.getAccelerationX();
+  private final StatusSignal<LinearAcceleration> accelerationY = pigeon.getAccelerationY();
+  private final StatusSignal<LinearAcceleration> accelerationZ = pigeon.getAccelerationZ();
+  private final PhoenixOdometryThread odometryThread =
+      PhoenixOdometryThread.getInstance(pigeon.getNetwork());
+  private final double[] odometryBuffer = new double[PhoenixOdometryThread.frameCapacity];
 
   public GyroIOPigeon2() {
     pigeon.getConfigurator().apply(new Pigeon2Configuration());
     pigeon.getConfigurator().setYaw(0.0);
     yaw.setUpdateFrequency(DriveConstants.odometryFrequency);
     yawVelocity.setUpdateFrequency(50.0);
+    BaseStatusSignal.setUpdateFrequencyForAll(DriveConstants.odometryFrequency, pitch, roll);
+    BaseStatusSignal.setUpdateFrequencyForAll(100.0, accelerationX, accelerationY, accelerationZ);
     pigeon.optimizeBusUtilization();
-    yawTimestampQueue = PhoenixOdometryThread.getInstance().makeTimestampQueue();
-    yawPositionQueue = PhoenixOdometryThread.getInstance().registerSignal(pigeon.getYaw());
-    PhoenixUtil.registerSignals(true, yaw, yawVelocity);
+    yawPositionSlot = odometryThread.registerSignal(pigeon.getYaw());
+    pitchPositionSlot = odometryThread.registerSignal(pigeon.getPitch());
+    rollPositionSlot = odometryThread.registerSignal(pigeon.getRoll());
+    PhoenixUtil.registerSignals(
+        true, yaw, yawVelocity, accelerationX, accelerationY, accelerationZ);
     tryUntilOk(5, () -> pigeon.setYaw(0.0, 0.25));
   }
 
@@ -44,12 +58,27 @@ public class GyroIOPigeon2 implements GyroIO {
             BaseStatusSignal.isAllGood(yaw, yawVelocity),
             Rotation2d.fromDegrees(yaw.getValueAsDouble()),
             Units.degreesToRadians(yawVelocity.getValueAsDouble()));
+    inputs.accelerationXGs = accelerationX.getValueAsDouble();
+    inputs.accelerationYGs = accelerationY.getValueAsDouble();
+    inputs.accelerationZGs = accelerationZ.getValueAsDouble();
 
-    inputs.odometryYawTimestamps =
-        yawTimestampQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryYawPositions =
-        yawPositionQueue.stream().map(Rotation2d::fromDegrees).toArray(Rotation2d[]::new);
-    yawTimestampQueue.clear();
-    yawPositionQueue.clear();
+    int timestampCount = odometryThread.readTimestamps(odometryBuffer);
+    inputs.odometryYawTimestamps = Arrays.copyOf(odometryBuffer, timestampCount);
+    int yawSampleCount = odometryThread.readSamples(yawPositionSlot, odometryBuffer);
+    inputs.odometryYawPositionsRad = new double[yawSampleCount];
+    for (int i = 0; i < yawSampleCount; i++) {
+      inputs.odometryYawPositionsRad[i] = Units.degreesToRadians(odometryBuffer[i]);
+    }
+    inputs.odometryPitchPositionsRad = readDegreesAsRadians(pitchPositionSlot);
+    inputs.odometryRollPositionsRad = readDegreesAsRadians(rollPositionSlot);
+  }
+
+  private double[] readDegreesAsRadians(int slot) {
+    int sampleCount = odometryThread.readSamples(slot, odometryBuffer);
+    double[] radians = new double[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      radians[i] = Units.degreesToRadians(odometryBuffer[i]);
+    }
+    return radians;
   }
 }
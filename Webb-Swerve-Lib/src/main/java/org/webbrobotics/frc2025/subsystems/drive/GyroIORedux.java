@@ -8,13 +8,14 @@ import com.reduxrobotics.sensors.canandgyro.CanandgyroSettings;
 import edu.wpi.first.math.filter.Debouncer;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
-import java.util.Queue;
+import java.util.Arrays;
 
 public class GyroIORedux implements GyroIO {
   private final Canandgyro gyro = new Canandgyro(30);
 
-  private final Queue<Double> yawTimestampQueue;
-  private final Queue<Double> yawPositionQueue;
+  private final int yawPositionSlot;
+  private final PhoenixOdometryThread odometryThread = PhoenixOdometryThread.getInstance("rio");
+  private final double[] odometryBuffer = new double[PhoenixOdometryThread.frameCapacity];
 
   private final Debouncer connectedDebouncer = new Debouncer(0.5);
 
@@ -29,8 +30,7 @@ public class GyroIORedux implements GyroIO {
     gyro.clearStickyFaults();
 
     // Register the gyro signals
-    yawTimestampQueue = PhoenixOdometryThread.getInstance().makeTimestampQueue();
-    yawPositionQueue = PhoenixOdometryThread.getInstance().registerSignal(gyro::getYaw);
+    yawPositionSlot = odometryThread.registerSignal(gyro::getYaw);
   }
 
   @Override
@@ -41,11 +41,12 @@ public class GyroIORedux implements GyroIO {
             Rotation2d.fromRotations(gyro.getYaw()),
             Units.rotationsToRadians(gyro.getAngularVelocityYaw()));
 
-    inputs.odometryYawTimestamps =
-        yawTimestampQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryYawPositions =
-        yawPositionQueue.stream().map(Rotation2d::fromRotations).toArray(Rotation2d[]::new);
-    yawTimestampQueue.clear();
-    yawPositionQueue.clear();
+    int timestampCount = odometryThread.readTimestamps(odometryBuffer);
+    inputs.odometryYawTimestamps = Arrays.copyOf(odometryBuffer, timestampCount);
+    int yawSampleCount = odometryThread.readSamples(yawPositionSlot, odometryBuffer);
+    inputs.odometryYawPositionsRad = new double[yawSampleCount];
+    for (int i = 0; i < yawSampleCount; i++) {
+      inputs.odometryYawPositionsRad[i] = Units.rotationsToRadians(odometryBuffer[i]);
+    }
   }
 }
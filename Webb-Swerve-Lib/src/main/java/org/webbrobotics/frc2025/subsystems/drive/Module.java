@@ -3,6 +3,7 @@
  
 package org.webbrobotics.frc2025.subsystems.drive;
 
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.controller.SimpleMotorFeedforward;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.kinematics.SwerveModulePosition;
@@ -64,7 +65,10 @@ public class Module {
   private final Alert driveDisconnectedAlert;
   private final Alert turnDisconnectedAlert;
   private final Alert turnEncoderDisconnectedAlert;
-  private SwerveModulePosition[] odometryPositions = new SwerveModulePosition[] {};
+  private double[] odometryTimestamps = new double[] {};
+  private double[] odometryDrivePositionsMeters = new double[PhoenixOdometryThread.frameCapacity];
+  private double[] odometryTurnPositionsRad = new double[] {};
+  private int odometrySampleCount = 0;
 
   public Module(ModuleIO io, int index) {
     this.io = io;
@@ -98,12 +102,19 @@ public class Module {
     }
 
     // Calculate positions for odometry
-    int sampleCount = inputs.odometryDrivePositionsRad.length; // All signals are sampled together
-    odometryPositions = new SwerveModulePosition[sampleCount];
-    for (int i = 0; i < sampleCount; i++) {
-      double positionMeters = inputs.odometryDrivePositionsRad[i] * DriveConstants.wheelRadius;
-      Rotation2d angle = inputs.odometryTurnPositions[i];
-      odometryPositions[i] = new SwerveModulePosition(positionMeters, angle);
+    odometrySampleCount =
+        Math.min(
+            inputs.odometryTimestamps.length,
+            Math.min(
+                inputs.odometryDrivePositionsRad.length, inputs.odometryTurnPositionsRad.length));
+    odometryTimestamps = inputs.odometryTimestamps;
+    odometryTurnPositionsRad = inputs.odometryTurnPositionsRad;
+    if (odometryDrivePositionsMeters.length < odometrySampleCount) {
+      odometryDrivePositionsMeters = new double[odometrySampleCount];
+    }
+    for (int i = 0; i < odometrySampleCount; i++) {
+      odometryDrivePositionsMeters[i] =
+          inputs.odometryDrivePositionsRad[i] * DriveConstants.wheelRadius;
     }
 
     // Update alerts
@@ -162,6 +173,16 @@ public class Module {
     return inputs.data.driveVelocityRadPerSec() * DriveConstants.wheelRadius;
   }
 
+  /** Returns the supply current of the drive motor in amps. */
+  public double getDriveSupplyCurrentAmps() {
+    return inputs.data.driveSupplyCurrentAmps();
+  }
+
+  /** Returns the supply current of the turn motor in amps. */
+  public double getTurnSupplyCurrentAmps() {
+    return inputs.data.turnSupplyCurrentAmps();
+  }
+
   /** Returns the module position (turn angle and drive position). */
   public SwerveModulePosition getPosition() {
     return new SwerveModulePosition(getPositionMeters(), getAngle());
@@ -172,9 +193,69 @@ public class Module {
     return new SwerveModuleState(getVelocityMetersPerSec(), getAngle());
   }
 
-  /** Returns the module positions received this cycle. */
-  public SwerveModulePosition[] getOdometryPositions() {
-    return odometryPositions;
+  /** Returns the number of odometry samples received this cycle. */
+  public int getOdometrySampleCount() {
+    return odometrySampleCount;
+  }
+
+  /** Returns the timestamps of the odometry samples received this cycle. */
+  public double[] getOdometryTimestamps() {
+    return odometryTimestamps;
+  }
+
+  /**
+   * Copies the drive positions in meters and turn angles in radians at each of the specified
+   * timestamps, interpolated between the odometry samples received this cycle.
+   */
+  public void getOdometryPositions(
+      double[] timestamps, int count, double[] drivePositionsMeters, double[] turnPositionsRad) {
+    resample(
+        odometryTimestamps,
+        odometryDrivePositionsMeters,
+        odometrySampleCount,
+        timestamps,
+        count,
+        drivePositionsMeters,
+        false);
+    resample(
+        odometryTimestamps,
+        odometryTurnPositionsRad,
+        odometrySampleCount,
+        timestamps,
+        count,
+        turnPositionsRad,
+        true);
+  }
+
+  /**
+   * Linearly interpolates a series of samples at each of the specified ascending timestamps.
+   * Timestamps outside of the samples use the nearest sample.
+   *
+   * @param sampleCount The number of valid samples, which must be at least one.
+   * @param angles Whether the samples are angles in radians, which are interpolated the short way.
+   */
+  static void resample(
+      double[] sampleTimestamps,
+      double[] samples,
+      int sampleCount,
+      double[] timestamps,
+      int count,
+      double[] dest,
+      boolean angles) {
+    int lower = 0;
+    for (int i = 0; i < count; i++) {
+      while (lower < sampleCount - 1 && sampleTimestamps[lower + 1] <= timestamps[i]) {
+        lower++;
+      }
+      int upper = Math.min(lower + 1, sampleCount - 1);
+      double span = sampleTimestamps[upper] - sampleTimestamps[lower];
+      double t =
+          span > 0.0
+              ? MathUtil.clamp((timestamps[i] - sampleTimestamps[lower]) / span, 0.0, 1.0)
+              : 0.0;
+      double delta = samples[upper] - samples[lower];
+      dest[i] = samples[lower] + (angles ? MathUtil.angleModulus(delta) : delta) * t;
+    }
   }
 
   /** Returns the module position in radians. */
@@ -13,8 +13,9 @@ public interface ModuleIO {
         new ModuleIOData(
             false, 0, 0, 0, 0, 0, false, false, Rotation2d.kZero, Rotation2d.kZero, 0, 0, 0, 0);
 
+    public double[] odometryTimestamps = new double[] {};
     public double[] odometryDrivePositionsRad = new double[] {};
-    public Rotation2d[] odometryTurnPositions = new Rotation2d[] {};
+    public double[] odometryTurnPositionsRad = new double[] {};
   }
 
   public record ModuleIOData(
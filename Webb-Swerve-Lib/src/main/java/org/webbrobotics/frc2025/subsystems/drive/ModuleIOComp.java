@@ -25,14 +25,14 @@ import edu.wpi.first.units.measure.Angle;
 import edu.wpi.first.units.measure.AngularVelocity;
 import edu.wpi.first.units.measure.Current;
 import edu.wpi.first.units.measure.Voltage;
-import java.util.Queue;
+import java.util.Arrays;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import org.webbrobotics.frc2025.subsystems.drive.DriveConstants.ModuleConfig;
 import org.webbrobotics.frc2025.util.PhoenixUtil;
 
 public class ModuleIOComp implements ModuleIO {
-  private static final double driveCurrentLimitAmps = 80;
+  public static final double driveCurrentLimitAmps = 80;
   private static final double turnCurrentLimitAmps = 40;
   public static final double driveReduction = (50.0 / 14.0) * (16.0 / 28.0) * (45.0 / 15.0);
   public static final double turnReduction = (150.0 / 7.0);
@@ -57,7 +57,7 @@ public class ModuleIOComp implements ModuleIO {
 
   // Inputs from drive motor
   private final StatusSignal<Angle> drivePosition;
-  private final Queue<Double> drivePositionQueue;
+  private final int drivePositionSlot;
   private final StatusSignal<AngularVelocity> driveVelocity;
   private final StatusSignal<Voltage> driveAppliedVolts;
   private final StatusSignal<Current> driveSupplyCurrentAmps;
@@ -66,12 +66,17 @@ public class ModuleIOComp implements ModuleIO {
   // Inputs from turn motor
   private final StatusSignal<Angle> turnAbsolutePosition;
   private final StatusSignal<Angle> turnPosition;
-  private final Queue<Double> turnPositionQueue;
+  private final int turnPositionSlot;
   private final StatusSignal<AngularVelocity> turnVelocity;
   private final StatusSignal<Voltage> turnAppliedVolts;
   private final StatusSignal<Current> turnSupplyCurrentAmps;
   private final StatusSignal<Current> turnTorqueCurrentAmps;
 
+  // Drive and turn signals are sampled by the odometry thread for their CAN bus
+  private final PhoenixOdometryThread odometryThread;
+  // Reused when reading odometry samples
+  private final double[] odometryBuffer = new double[PhoenixOdometryThread.frameCapacity];
+
   // Connection debouncers
   private final Debouncer driveConnectedDebounce = new Debouncer(0.5);
   private final Debouncer turnConnectedDebounce = new Debouncer(0.5);
@@ -122,9 +127,9 @@ public class ModuleIOComp implements ModuleIO {
     tryUntilOk(5, () -> encoder.getConfigurator().apply(cancoderConfig));
 
     // Create drive status signals
+    odometryThread = PhoenixOdometryThread.getInstance(driveTalon.getNetwork());
     drivePosition = driveTalon.getPosition();
-    drivePositionQueue =
-        PhoenixOdometryThread.getInstance().registerSignal(driveTalon.getPosition());
+    drivePositionSlot = odometryThread.registerSignal(driveTalon.getPosition());
     driveVelocity = driveTalon.getVelocity();
     driveAppliedVolts = driveTalon.getMotorVoltage();
     driveSupplyCurrentAmps = driveTalon.getSupplyCurrent();
@@ -133,7 +138,7 @@ public class ModuleIOComp implements ModuleIO {
     // Create turn status signals
     turnAbsolutePosition = encoder.getAbsolutePosition();
     turnPosition = turnTalon.getPosition();
-    turnPositionQueue = PhoenixOdometryThread.getInstance().registerSignal(turnTalon.getPosition());
+    turnPositionSlot = odometryThread.registerSignal(turnTalon.getPosition());
     turnVelocity = turnTalon.getVelocity();
     turnAppliedVolts = turnTalon.getMotorVoltage();
     turnSupplyCurrentAmps = turnTalon.getSupplyCurrent();
@@ -204,12 +209,18 @@ public class ModuleIOComp implements ModuleIO {
             turnTorqueCurrentAmps.getValueAsDouble());
 
     // Update odometry inputs
-    inputs.odometryDrivePositionsRad =
-        drivePositionQueue.stream().mapToDouble(Units::rotationsToRadians).toArray();
-    inputs.odometryTurnPositions =
-        turnPositionQueue.stream().map(Rotation2d::fromRotations).toArray(Rotation2d[]::new);
-    drivePositionQueue.clear();
-    turnPositionQueue.clear();
+    int timestampCount = odometryThread.readTimestamps(odometryBuffer);
+    inputs.odometryTimestamps = Arrays.copyOf(odometryBuffer, timestampCount);
+    int driveSampleCount = odometryThread.readSamples(drivePositionSlot, odometryBuffer);
+    inputs.odometryDrivePositionsRad = new double[driveSampleCount];
+    for (int i = 0; i < driveSampleCount; i++) {
+      inputs.odometryDrivePositionsRad[i] = Units.rotationsToRadians(odometryBuffer[i]);
+    }
+    int turnSampleCount = odometryThread.readSamples(turnPositionSlot, odometryBuffer);
+    inputs.odometryTurnPositionsRad = new double[turnSampleCount];
+    for (int i = 0; i < turnSampleCount; i++) {
+      inputs.odometryTurnPositionsRad[i] = Units.rotationsToRadians(odometryBuffer[i]);
+    }
   }
 
   @Override
@@ -25,7 +25,7 @@ import edu.wpi.first.units.measure.Current;
 import edu.wpi.first.units.measure.Voltage;
 import edu.wpi.first.wpilibj.AnalogInput;
 import edu.wpi.first.wpilibj.RobotController;
-import java.util.Queue;
+import java.util.Arrays;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.function.Supplier;
@@ -57,7 +57,7 @@ public class ModuleIODev implements ModuleIO {
 
   // Inputs from drive motor
   private final StatusSignal<Angle> drivePosition;
-  private final Queue<Double> drivePositionQueue;
+  private final int drivePositionSlot;
   private final StatusSignal<AngularVelocity> driveVelocity;
   private final StatusSignal<Voltage> driveAppliedVolts;
   private final StatusSignal<Current> driveSupplyCurrentAmps;
@@ -66,12 +66,17 @@ public class ModuleIODev implements ModuleIO {
   // Inputs from turn motor
   private final Supplier<Rotation2d> turnAbsolutePosition;
   private final StatusSignal<Angle> turnPosition;
-  private final Queue<Double> turnPositionQueue;
+  private final int turnPositionSlot;
   private final StatusSignal<AngularVelocity> turnVelocity;
   private final StatusSignal<Voltage> turnAppliedVolts;
   private final StatusSignal<Current> turnSupplyCurrentAmps;
   private final StatusSignal<Current> turnTorqueCurrentAmps;
 
+  // Drive and turn signals are sampled by the odometry thread for their CAN bus
+  private final PhoenixOdometryThread odometryThread;
+  // Reused when reading odometry samples
+  private final double[] odometryBuffer = new double[PhoenixOdometryThread.frameCapacity];
+
   // Connection debouncers
   private final Debouncer driveConnectedDebounce = new Debouncer(0.5);
   private final Debouncer turnConnectedDebounce = new Debouncer(0.5);
@@ -118,9 +123,9 @@ public class ModuleIODev implements ModuleIO {
     tryUntilOk(5, () -> turnTalon.setPosition(turnAbsolutePosition.get().getRotations(), 0.25));
 
     // Create drive status signals
+    odometryThread = PhoenixOdometryThread.getInstance(driveTalon.getNetwork());
     drivePosition = driveTalon.getPosition();
-    drivePositionQueue =
-        PhoenixOdometryThread.getInstance().registerSignal(driveTalon.getPosition());
+    drivePositionSlot = odometryThread.registerSignal(driveTalon.getPosition());
     driveVelocity = driveTalon.getVelocity();
     driveAppliedVolts = driveTalon.getMotorVoltage();
     driveSupplyCurrentAmps = driveTalon.getSupplyCurrent();
@@ -128,7 +133,7 @@ public class ModuleIODev implements ModuleIO {
 
     // Create turn status signals
     turnPosition = turnTalon.getPosition();
-    turnPositionQueue = PhoenixOdometryThread.getInstance().registerSignal(turnTalon.getPosition());
+    turnPositionSlot = odometryThread.registerSignal(turnTalon.getPosition());
     turnVelocity = turnTalon.getVelocity();
     turnAppliedVolts = turnTalon.getMotorVoltage();
     turnSupplyCurrentAmps = turnTalon.getSupplyCurrent();
@@ -197,12 +202,18 @@ public class ModuleIODev implements ModuleIO {
             turnTorqueCurrentAmps.getValueAsDouble());
 
     // Update odometry inputs
-    inputs.odometryDrivePositionsRad =
-        drivePositionQueue.stream().mapToDouble(Units::rotationsToRadians).toArray();
-    inputs.odometryTurnPositions =
-        turnPositionQueue.stream().map(Rotation2d::fromRotations).toArray(Rotation2d[]::new);
-    drivePositionQueue.clear();
-    turnPositionQueue.clear();
+    int timestampCount = odometryThread.readTimestamps(odometryBuffer);
+    inputs.odometryTimestamps = Arrays.copyOf(odometryBuffer, timestampCount);
+    int driveSampleCount = odometryThread.readSamples(drivePositionSlot, odometryBuffer);
+    inputs.odometryDrivePositionsRad = new double[driveSampleCount];
+    for (int i = 0; i < driveSampleCount; i++) {
+      inputs.odometryDrivePositionsRad[i] = Units.rotationsToRadians(odometryBuffer[i]);
+    }
+    int turnSampleCount = odometryThread.readSamples(turnPositionSlot, odometryBuffer);
+    inputs.odometryTurnPositionsRad = new double[turnSampleCount];
+    for (int i = 0; i < turnSampleCount; i++) {
+      inputs.odometryTurnPositionsRad[i] = Units.rotationsToRadians(odometryBuffer[i]);
+    }
   }
 
   @Override
@@ -8,6 +8,7 @@ import edu.wpi.first.math.controller.PIDController;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.system.plant.DCMotor;
 import edu.wpi.first.math.system.plant.LinearSystemId;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.simulation.DCMotorSim;
 import org.webbrobotics.frc2025.Constants;
 
@@ -81,8 +82,9 @@ public class ModuleIOSim implements ModuleIO {
             0.0);
 
     // Update odometry inputs (50Hz because high-frequency odometry in sim doesn't matter)
+    inputs.odometryTimestamps = new double[] {Timer.getTimestamp()};
     inputs.odometryDrivePositionsRad = new double[] {inputs.data.drivePositionRad()};
-    inputs.odometryTurnPositions = new Rotation2d[] {inputs.data.turnPosition()};
+    inputs.odometryTurnPositionsRad = new double[] {inputs.data.turnPosition().getRadians()};
   }
 
   @Override
@@ -0,0 +1,133 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025.subsystems.drive;
+
+import edu.wpi.first.math.system.plant.DCMotor;
+import org.webbrobotics.frc2025.Constants;
+import org.webbrobotics.frc2025.util.swerve.ModuleLimits;
+
+/**
+ * Computes the drive limits the battery can sustain each cycle, so the setpoint generator never
+ * asks for more acceleration than the drive motors can deliver without browning out the robot.
+ *
+ * <p>The battery is modeled as an open circuit voltage behind a fixed resistance. The open circuit
+ * voltage is estimated from the measured bus voltage and the supply current the modules draw, and
+ * sets how much supply current the drive motors can share before the bus sags to the minimum
+ * voltage. The Kraken motor model turns that supply current into torque current at the speed of the
+ * fastest module, which gives the acceleration. The top speed follows the measured bus voltage.
+ * Both are only ever lowered from the static limits, and are rounded down to fixed steps so the
+ * same limits object is returned until one of them moves by a whole step.
+ */
+class ModuleLimitsProvider {
+  private static final DCMotor driveMotorModel = DCMotor.getKrakenX60Foc(1);
+  // Battery internal resistance plus the main breaker and wiring
+  private static final double batteryResistanceOhms = 0.02;
+  // A volt above the brownout voltage set in Robot
+  private static final double minBusVoltage = 7.0;
+  private static final double voltageTimeConstantSecs = 0.1;
+  // The generator limits braking by the same acceleration, so it must stay able to stop
+  private static final double minDriveAcceleration = 3.0;
+  private static final double driveVelocityStep = 0.05;
+  private static final double driveAccelerationStep = 0.25;
+
+  private final ModuleLimits maxLimits;
+  private final int moduleCount;
+  private double openCircuitVolts = Double.NaN;
+  private double busVolts = Double.NaN;
+  private ModuleLimits limits;
+
+  ModuleLimitsProvider(ModuleLimits maxLimits, int moduleCount) {
+    this.maxLimits = maxLimits;
+    this.moduleCount = moduleCount;
+    limits = maxLimits;
+  }
+
+  /**
+   * Returns the limits for this cycle.
+   *
+   * @param measuredBusVolts The battery voltage measured by the roboRIO.
+   * @param driveSupplyCurrentAmps The total supply current of the drive motors.
+   * @param turnSupplyCurrentAmps The total supply current of the turn motors.
+   * @param maxModuleSpeedMetersPerSec The speed of the fastest module.
+   */
+  ModuleLimits update(
+      double measuredBusVolts,
+      double driveSupplyCurrentAmps,
+      double turnSupplyCurrentAmps,
+      double maxModuleSpeedMetersPerSec) {
+    openCircuitVolts =
+        filter(
+            openCircuitVolts,
+            measuredBusVolts
+                + batteryResistanceOhms * (driveSupplyCurrentAmps + turnSupplyCurrentAmps));
+    busVolts = filter(busVolts, measuredBusVolts);
+
+    // Supply current each drive motor can draw before the bus sags to the minimum voltage
+    double driveBudgetAmps =
+        Math.max(
+                0.0,
+                (openCircuitVolts - minBusVoltage) / batteryResistanceOhms - turnSupplyCurrentAmps)
+            / moduleCount;
+
+    // Torque current bought by that supply current at this speed, solving the power balance
+    // V_bus * I_supply = E * I + R * I^2 with the bus at the minimum voltage
+    double motorSpeedRadPerSec =
+        Math.abs(maxModuleSpeedMetersPerSec)
+            / DriveConstants.wheelRadius
+            * ModuleIOComp.driveReduction;
+    double backEmfVolts = motorSpeedRadPerSec / driveMotorModel.KvRadPerSecPerVolt;
+    double resistanceOhms = driveMotorModel.rOhms;
+    double powerWatts = minBusVoltage * driveBudgetAmps;
+    double powerLimitedAmps =
+        (Math.sqrt(backEmfVolts * backEmfVolts + 4.0 * resistanceOhms * powerWatts) - backEmfVolts)
+            / (2.0 * resistanceOhms);
+    double voltageLimitedAmps = Math.max(0.0, (busVolts - backEmfVolts) / resistanceOhms);
+    double torqueCurrentAmps =
+        Math.min(
+            ModuleIOComp.driveCurrentLimitAmps, Math.min(powerLimitedAmps, voltageLimitedAmps));
+
+    double moduleForceNewtons =
+        torqueCurrentAmps
+            * driveMotorModel.KtNMPerAmp
+            * ModuleIOComp.driveReduction
+            / DriveConstants.wheelRadius;
+    double acceleration = moduleForceNewtons * moduleCount / DriveConstants.robotMassKg;
+    double maxDriveVelocity =
+        quantize(
+            maxLimits.maxDriveVelocity() * busVolts / driveMotorModel.nominalVoltageVolts,
+            maxLimits.maxDriveVelocity(),
+            driveVelocityStep);
+    double maxDriveAcceleration =
+        quantize(
+            Math.max(minDriveAcceleration, acceleration),
+            maxLimits.maxDriveAcceleration(),
+            driveAccelerationStep);
+    if (maxDriveVelocity != limits.maxDriveVelocity()
+        || maxDriveAcceleration != limits.maxDriveAcceleration()) {
+      limits =
+          new ModuleLimits(
+              maxDriveVelocity, maxDriveAcceleration, maxLimits.maxSteeringVelocity());
+    }
+    return limits;
+  }
+
+  /** Returns the estimated open circuit voltage of the battery. */
+  double getOpenCircuitVolts() {
+    return openCircuitVolts;
+  }
+
+  /** Rounds a limit down to a whole step, or returns the maximum if the limit reaches it. */
+  private static double quantize(double value, double max, double step) {
+    return value >= max ? max : Math.floor(value / step) * step;
+  }
+
+  /** Low-pass filters a voltage, starting from the first value. */
+  private static double filter(double filtered, double value) {
+    if (Double.isNaN(filtered)) {
+      return value;
+    }
+    double gain = Constants.loopPeriodSecs / (voltageTimeConstantSecs + Constants.loopPeriodSecs);
+    return filtered + gain * (value - filtered);
+  }
+}
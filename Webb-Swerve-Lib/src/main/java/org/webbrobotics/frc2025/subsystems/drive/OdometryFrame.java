@@ -0,0 +1,20 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025.subsystems.drive;
+
+/**
+ * A single high-frequency odometry sample: the timestamp and the value of every signal registered
+ * with {@link PhoenixOdometryThread}, all captured in the same pass. Frames are preallocated by the
+ * thread and reused once the consumer has released them.
+ *
+ * <p>The timestamp is in FPGA time.
+ */
+class OdometryFrame {
+  double timestamp = 0.0;
+  final double[] values;
+
+  OdometryFrame(int signalCount) {
+    values = new double[signalCount];
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025.subsystems.drive;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusCode;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.RobotController;
+import org.webbrobotics.frc2025.util.CanivoreReader;
+
+/**
+ * Adjusts the sampling rate of an odometry thread to the highest rate its CAN bus can sustain.
+ *
+ * <p>The rate is raised in small steps while bus utilization has headroom and the thread keeps up,
+ * and cut back sharply when the bus is overloaded or samples are being missed. Signal update
+ * frequencies are applied from a notifier so the odometry thread itself is never blocked.
+ */
+class OdometryRateController {
+  private static final double updatePeriodSecs = 1.0;
+  private static final double increaseStepHz = 25.0;
+  private static final double decreaseFactor = 0.8;
+  // Fraction of the target rate the thread must achieve to be considered keeping up
+  private static final double minAchievedRatio = 0.9;
+
+  private final PhoenixOdometryThread thread;
+  private final CanivoreReader canivoreReader;
+  private final Notifier notifier;
+
+  private long lastSamples = 0;
+  private long lastUpdateMicros = 0;
+  private volatile double busUtilization = 0.0;
+
+  OdometryRateController(PhoenixOdometryThread thread, String busName) {
+    this.thread = thread;
+    canivoreReader = new CanivoreReader(busName);
+    notifier = new Notifier(this::update);
+    notifier.setName("OdometryRateController-" + busName);
+    notifier.startPeriodic(updatePeriodSecs);
+  }
+
+  /** Returns the most recent bus utilization, from 0 to 1. */
+  double getBusUtilization() {
+    return busUtilization;
+  }
+
+  private void update() {
+    long now = RobotController.getFPGATime();
+    long samples = thread.getTotalSamples();
+    boolean hasAchievedHz = lastUpdateMicros > 0 && now > lastUpdateMicros;
+    double achievedHz =
+        hasAchievedHz ? (samples - lastSamples) / ((now - lastUpdateMicros) / 1e6) : 0.0;
+    lastSamples = samples;
+    lastUpdateMicros = now;
+
+    var status = canivoreReader.getStatus();
+    if (status.isEmpty() || status.get().Status != StatusCode.OK || !hasAchievedHz) {
+      return;
+    }
+    busUtilization = status.get().BusUtilization;
+
+    // Additive increase while there is headroom, multiplicative decrease when overloaded
+    double frequency = thread.getFrequency();
+    double newFrequency = frequency;
+    if (busUtilization > DriveConstants.odometryMaxBusUtilization
+        || achievedHz < frequency * minAchievedRatio) {
+      newFrequency = frequency * decreaseFactor;
+    } else if (busUtilization * (frequency + increaseStepHz) / frequency
+        < DriveConstants.odometryMaxBusUtilization) {
+      newFrequency = frequency + increaseStepHz;
+    }
+    newFrequency =
+        MathUtil.clamp(
+            newFrequency, DriveConstants.minOdometryFrequency, DriveConstants.maxOdometryFrequency);
+
+    if (newFrequency != frequency) {
+      BaseStatusSignal.setUpdateFrequencyForAll(newFrequency, thread.getPhoenixSignals());
+      thread.setFrequency(newFrequency);
+      // Measure the achieved rate from the change onwards
+      lastSamples = thread.getTotalSamples();
+      lastUpdateMicros = RobotController.getFPGATime();
+    }
+  }
+}
@@ -5,100 +5,482 @@ package org.webbrobotics.frc2025.subsystems.drive;
 
 import com.ctre.phoenix6.BaseStatusSignal;
 import com.ctre.phoenix6.CANBus;
+import com.ctre.phoenix6.StatusCode;
 import com.ctre.phoenix6.StatusSignal;
+import com.ctre.phoenix6.Timestamp;
+import com.ctre.phoenix6.Utils;
 import edu.wpi.first.units.measure.Angle;
 import edu.wpi.first.wpilibj.RobotController;
 import edu.wpi.first.wpilibj.Threads;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.lang.invoke.VarHandle;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.DoubleSupplier;
+import org.littletonrobotics.junction.Logger;
+import org.webbrobotics.frc2025.subsystems.drive.DriveConstants.OdometryTimestampMode;
 
 /**
- * Provides an interface for asynchronously reading high-frequency measurements to a set of queues.
+ * Provides an interface for asynchronously reading high-frequency measurements.
  *
- * <p>This version is intended for Phoenix 6 devices on both the RIO and CANivore buses. When using
- * a CANivore, the thread uses the "waitForAll" blocking method to enable more consistent sampling.
- * This also allows Phoenix Pro users to benefit from lower latency between devices using CANivore
- * time synchronization.
+ * <p>This version is intended for Phoenix 6 devices on both the RIO and CANivore buses. There is
+ * one thread per CAN bus, so each bus is sampled independently and a slow bus never holds back a
+ * fast one. When using a CANivore, the thread uses the "waitForAll" blocking method to enable more
+ * consistent sampling. This also allows Phoenix Pro users to benefit from lower latency between
+ * devices using CANivore time synchronization. All timestamps are in FPGA time, so samples from
+ * different buses can be merged by timestamp.
+ *
+ * <p>Every sample is stored as one {@link OdometryFrame} containing the timestamp and the value of
+ * each registered signal. Frames come from a preallocated ring and are published with a single
+ * volatile write, so all signals are always read from the same samples. The consumer calls {@link
+ * #latchSamples()} once per cycle and then reads each signal by the slot returned when it was
+ * registered. Neither side blocks the other and nothing is allocated per sample.
+ *
+ * <p>In {@link OdometryTimestampMode#DEVICE} mode the frame timestamp is the average of the capture
+ * times reported by each Phoenix device. Phoenix time is mapped into FPGA time using a continuously
+ * filtered estimate of the offset between the clocks.
+ *
+ * <p>The thread also keeps health counters (sample period jitter, wait timeouts, dropped samples
+ * and time spent waiting), which are published once per cycle by {@link #logHealth()}. After each
+ * sampling pass the counters are copied into one of two snapshot buffers, which is published by the
+ * write to the sample count, so the consumer always reads counters from the same pass.
+ *
+ * <p>The sampling rate starts at {@link DriveConstants#odometryFrequency}. When adaptive rate is
+ * enabled, an {@link OdometryRateController} adjusts it at runtime based on bus utilization and the
+ * achieved sample rate.
  */
 public class PhoenixOdometryThread extends Thread {
+  /** Number of frames that can be buffered before new samples are dropped. */
+  public static final int frameCapacity = 32;
+
+  // Clock offset samples taken across a longer gap than this were likely preempted
+  private static final double maxClockReadSecs = 50e-6;
+  private static final double clockOffsetFilterGain = 0.01;
+
+  // Upper edges of the sample period jitter histogram bins, the last bin is unbounded
+  private static final long[] jitterBinEdgesMicros = {125, 250, 500, 1000, 2000, 4000};
+
+  // Layout of the health snapshots, the jitter histogram bins come first
+  private static final int droppedSamplesIndex = jitterBinEdgesMicros.length + 1;
+  private static final int waitTimeoutsIndex = droppedSamplesIndex + 1;
+  private static final int waitErrorsIndex = waitTimeoutsIndex + 1;
+  private static final int interruptsIndex = waitErrorsIndex + 1;
+  private static final int totalWaitMicrosIndex = interruptsIndex + 1;
+  private static final int healthSnapshotLength = totalWaitMicrosIndex + 1;
+
   private final Lock signalsLock =
       new ReentrantLock(); // Prevents conflicts when registering signals
   private BaseStatusSignal[] phoenixSignals = new BaseStatusSignal[0];
-  private final List<DoubleSupplier> genericSignals = new ArrayList<>();
-  private final List<Queue<Double>> phoenixQueues = new ArrayList<>();
-  private final List<Queue<Double>> genericQueues = new ArrayList<>();
-  private final List<Queue<Double>> timestampQueues = new ArrayList<>();
+  private int[] phoenixSlots = new int[0];
+  private DoubleSupplier[] genericSignals = new DoubleSupplier[0];
+  private int[] genericSlots = new int[0];
+  private int signalCount = 0;
+
+  // Frame pool, allocated once all signals are registered
+  private OdometryFrame[] frames = new OdometryFrame[0];
+
+  // Number of frames written by the odometry thread
+  private volatile long publishedFrames = 0;
+  // Frames before this index have been read by the consumer and may be reused
+  private volatile long releasedFrames = 0;
+  // End of the frames latched by the consumer (consumer thread only)
+  private long latchedFrames = 0;
+
+  // Estimate of FPGA time minus Phoenix time (odometry thread only)
+  private double clockOffset = 0.0;
+  private boolean hasClockOffset = false;
+
+  // Health counters (odometry thread only)
+  private final long[] jitterHistogram = new long[jitterBinEdgesMicros.length + 1];
+  private long droppedSamples = 0;
+  private long waitTimeouts = 0;
+  private long waitErrors = 0;
+  private long interrupts = 0;
+  private long totalWaitMicros = 0;
+  private long lastSampleMicros = 0;
+
+  // Deadline of the next sample when not using "waitForAll" (odometry thread only)
+  private long nextSampleNanos = 0;
 
-  private static boolean isCANFD = new CANBus("*").isNetworkFD();
-  private static PhoenixOdometryThread instance = null;
+  // Snapshot of the health counters after pass n is in buffer n % 2, published by totalSamples
+  private final long[][] healthSnapshots = new long[2][healthSnapshotLength];
+  private volatile long totalSamples = 0;
 
-  public static PhoenixOdometryThread getInstance() {
+  // Health counters at the current and previous log (consumer thread only)
+  private final long[] loggedHealth = new long[healthSnapshotLength];
+  private long lastLogMicros = 0;
+  private long lastLogSamples = 0;
+  private long lastLogWaitMicros = 0;
+
+  private final String busName;
+  private final boolean isCANFD;
+
+  // Log keys, built once so logging doesn't concatenate strings every cycle
+  private final String achievedHzKey;
+  private final String averageWaitKey;
+  private final String[] jitterBinKeys = new String[jitterBinEdgesMicros.length + 1];
+  private final String frequencyKey;
+  private final String busUtilizationKey;
+  private final String totalSamplesKey;
+  private final String droppedSamplesKey;
+  private final String waitTimeoutsKey;
+  private final String waitErrorsKey;
+  private final String interruptsKey;
+
+  // Sampling frequency, adjusted at runtime by the rate controller
+  private volatile double frequency = DriveConstants.odometryFrequency;
+  private OdometryRateController rateController = null;
+
+  private static final Map<String, PhoenixOdometryThread> instances = new HashMap<>();
+  private static PhoenixOdometryThread[] threads = new PhoenixOdometryThread[0];
+
+  /**
+   * Returns the odometry thread for a CAN bus, creating it if necessary.
+   *
+   * @param canBusName The name of the CAN bus, as passed to the device constructors. Generic
+   *     signals that are not on a Phoenix bus should use the RIO bus.
+   */
+  public static synchronized PhoenixOdometryThread getInstance(String canBusName) {
+    String busName = canBusName.isEmpty() ? "rio" : canBusName;
+    var instance = instances.get(busName);
     if (instance == null) {
-      instance = new PhoenixOdometryThread();
+      instance = new PhoenixOdometryThread(busName);
+      instances.put(busName, instance);
+      threads = instances.values().toArray(PhoenixOdometryThread[]::new);
     }
     return instance;
   }
 
-  private PhoenixOdometryThread() {
-    setName("PhoenixOdometryThread");
+  /** Starts the thread for every CAN bus with registered signals. */
+  public static void startAll() {
+    for (var thread : threads) {
+      thread.start();
+    }
+  }
+
+  /** Latches the samples of every thread. Call once per cycle before reading samples. */
+  public static void latchAll() {
+    for (var thread : threads) {
+      thread.latchSamples();
+    }
+  }
+
+  /** Logs the health of every thread. Call once per cycle. */
+  public static void logHealthAll() {
+    for (var thread : threads) {
+      thread.logHealth();
+    }
+  }
+
+  private PhoenixOdometryThread(String busName) {
+    this.busName = busName;
+    isCANFD = new CANBus(busName).isNetworkFD();
+    // "*" selects any available CANivore
+    String logKey = "Odometry/" + (busName.equals("*") ? "CANivore" : busName) + "/";
+    achievedHzKey = logKey + "AchievedHz";
+    averageWaitKey = logKey + "AverageWaitMS";
+    for (int i = 0; i < jitterBinKeys.length; i++) {
+      String range =
+          i == 0
+              ? "Under" + jitterBinEdgesMicros[0]
+              : i == jitterBinEdgesMicros.length
+                  ? "Over" + jitterBinEdgesMicros[i - 1]
+                  : jitterBinEdgesMicros[i - 1] + "To" + jitterBinEdgesMicros[i];
+      jitterBinKeys[i] = logKey + "JitterHistogram/" + range + "us";
+    }
+    frequencyKey = logKey + "FrequencyHz";
+    busUtilizationKey = logKey + "BusUtilization";
+    totalSamplesKey = logKey + "TotalSamples";
+    droppedSamplesKey = logKey + "DroppedSamples";
+    waitTimeoutsKey = logKey + "WaitTimeouts";
+    waitErrorsKey = logKey + "WaitErrors";
+    interruptsKey = logKey + "Interrupts";
+    setName("PhoenixOdometryThread-" + busName);
     setDaemon(true);
   }
 
   @Override
   public void start() {
-    if (timestampQueues.size() > 0) {
+    if (signalCount > 0) {
+      frames = new OdometryFrame[frameCapacity];
+      for (int i = 0; i < frameCapacity; i++) {
+        frames[i] = new OdometryFrame(signalCount);
+      }
+      // Only Phoenix signals can have their update frequency changed
+      if (DriveConstants.odometryAdaptiveRate && phoenixSignals.length > 0) {
+        rateController = new OdometryRateController(this, busName);
+      }
       super.start();
     }
   }
 
-  /** Registers a Phoenix signal to be read from the thread. */
-  public Queue<Double> registerSignal(StatusSignal<Angle> signal) {
-    Queue<Double> queue = new ArrayBlockingQueue<>(20);
+  /**
+   * Registers a Phoenix signal to be read from the thread.
+   *
+   * @return The slot to pass to {@link #readSamples(int, double[])}.
+   */
+  public int registerSignal(StatusSignal<Angle> signal) {
     signalsLock.lock();
-    Drive.odometryLock.lock();
     try {
+      checkNotStarted();
       BaseStatusSignal[] newSignals = new BaseStatusSignal[phoenixSignals.length + 1];
       System.arraycopy(phoenixSignals, 0, newSignals, 0, phoenixSignals.length);
       newSignals[phoenixSignals.length] = signal;
       phoenixSignals = newSignals;
-      phoenixQueues.add(queue);
+      phoenixSlots = append(phoenixSlots, signalCount);
+      return signalCount++;
     } finally {
       signalsLock.unlock();
-      Drive.odometryLock.unlock();
     }
-    return queue;
   }
 
-  /** Registers a generic signal to be read from the thread. */
-  public Queue<Double> registerSignal(DoubleSupplier signal) {
-    Queue<Double> queue = new ArrayBlockingQueue<>(20);
+  /**
+   * Registers a generic signal to be read from the thread.
+   *
+   * @return The slot to pass to {@link #readSamples(int, double[])}.
+   */
+  public int registerSignal(DoubleSupplier signal) {
     signalsLock.lock();
-    Drive.odometryLock.lock();
     try {
-      genericSignals.add(signal);
-      genericQueues.add(queue);
+      checkNotStarted();
+      DoubleSupplier[] newSignals = new DoubleSupplier[genericSignals.length + 1];
+      System.arraycopy(genericSignals, 0, newSignals, 0, genericSignals.length);
+      newSignals[genericSignals.length] = signal;
+      genericSignals = newSignals;
+      genericSlots = append(genericSlots, signalCount);
+      return signalCount++;
     } finally {
       signalsLock.unlock();
-      Drive.odometryLock.unlock();
     }
-    return queue;
   }
 
-  /** Returns a new queue that returns timestamp values for each sample. */
-  public Queue<Double> makeTimestampQueue() {
-    Queue<Double> queue = new ArrayBlockingQueue<>(20);
-    Drive.odometryLock.lock();
-    try {
-      timestampQueues.add(queue);
-    } finally {
-      Drive.odometryLock.unlock();
+  private void checkNotStarted() {
+    if (isAlive()) {
+      throw new IllegalStateException(
+          "Odometry signals must be registered before the odometry thread is started");
+    }
+  }
+
+  private static int[] append(int[] values, int value) {
+    int[] newValues = new int[values.length + 1];
+    System.arraycopy(values, 0, newValues, 0, values.length);
+    newValues[values.length] = value;
+    return newValues;
+  }
+
+  /**
+   * Latches the frames published since the previous call and releases the previously latched frames
+   * for reuse. Call once per cycle before reading samples. Never blocks.
+   */
+  public void latchSamples() {
+    releasedFrames = latchedFrames;
+    latchedFrames = publishedFrames;
+  }
+
+  /** Returns the number of frames in the current latch. */
+  public int getSampleCount() {
+    return (int) (latchedFrames - releasedFrames);
+  }
+
+  /**
+   * Copies the timestamp of each latched frame into the destination array, oldest first.
+   *
+   * @return The number of timestamps copied.
+   */
+  public int readTimestamps(double[] dest) {
+    int count = Math.min(getSampleCount(), dest.length);
+    long start = releasedFrames;
+    for (int i = 0; i < count; i++) {
+      dest[i] = frames[(int) ((start + i) % frames.length)].timestamp;
+    }
+    return count;
+  }
+
+  /**
+   * Copies the value of one signal from each latched frame into the destination array, oldest
+   * first.
+   *
+   * @param slot The slot returned when the signal was registered.
+   * @return The number of samples copied.
+   */
+  public int readSamples(int slot, double[] dest) {
+    int count = Math.min(getSampleCount(), dest.length);
+    long start = releasedFrames;
+    for (int i = 0; i < count; i++) {
+      dest[i] = frames[(int) ((start + i) % frames.length)].values[slot];
+    }
+    return count;
+  }
+
+  /** Returns the current sampling frequency in Hz. */
+  double getFrequency() {
+    return frequency;
+  }
+
+  /**
+   * Sets the sampling frequency in Hz. The update frequency of the Phoenix signals should be
+   * changed to match.
+   */
+  void setFrequency(double frequency) {
+    this.frequency = frequency;
+  }
+
+  /** Returns the Phoenix signals sampled by the thread. */
+  BaseStatusSignal[] getPhoenixSignals() {
+    return phoenixSignals;
+  }
+
+  /** Returns the total number of sampling passes since the thread started. */
+  long getTotalSamples() {
+    return totalSamples;
+  }
+
+  /**
+   * Logs the health of the thread: achieved sample rate, average time spent waiting for samples,
+   * the sample period jitter histogram and cumulative error counters. Call once per cycle.
+   */
+  public void logHealth() {
+    if (!isAlive()) {
+      return;
+    }
+
+    long now = RobotController.getFPGATime();
+    long samples = readHealthSnapshot();
+    long waitMicros = loggedHealth[totalWaitMicrosIndex];
+    long newSamples = samples - lastLogSamples;
+    if (lastLogMicros > 0 && now > lastLogMicros) {
+      Logger.recordOutput(achievedHzKey, newSamples / ((now - lastLogMicros) / 1e6));
+    }
+    Logger.recordOutput(
+        averageWaitKey,
+        newSamples > 0 ? (waitMicros - lastLogWaitMicros) / 1000.0 / newSamples : 0.0);
+    for (int i = 0; i < jitterBinKeys.length; i++) {
+      Logger.recordOutput(jitterBinKeys[i], loggedHealth[i]);
+    }
+    Logger.recordOutput(frequencyKey, frequency);
+    if (rateController != null) {
+      Logger.recordOutput(busUtilizationKey, rateController.getBusUtilization());
+    }
+    Logger.recordOutput(totalSamplesKey, samples);
+    Logger.recordOutput(droppedSamplesKey, loggedHealth[droppedSamplesIndex]);
+    Logger.recordOutput(waitTimeoutsKey, loggedHealth[waitTimeoutsIndex]);
+    Logger.recordOutput(waitErrorsKey, loggedHealth[waitErrorsIndex]);
+    Logger.recordOutput(interruptsKey, loggedHealth[interruptsIndex]);
+    lastLogMicros = now;
+    lastLogSamples = samples;
+    lastLogWaitMicros = waitMicros;
+  }
+
+  /**
+   * Copies the latest published health snapshot into {@link #loggedHealth}. The odometry thread
+   * only starts overwriting a snapshot after publishing the next one, so the copy is retried if a
+   * sample was published while copying. The fence keeps the copy from being reordered after the
+   * second read of the sample count.
+   *
+   * @return The number of sampling passes the snapshot belongs to.
+   */
+  private long readHealthSnapshot() {
+    while (true) {
+      long samples = totalSamples;
+      System.arraycopy(
+          healthSnapshots[(int) (samples % 2)], 0, loggedHealth, 0, healthSnapshotLength);
+      VarHandle.acquireFence();
+      if (totalSamples == samples) {
+        return samples;
+      }
+    }
+  }
+
+  /** Copies the health counters into the snapshot for the next pass and publishes it. */
+  private void publishHealth() {
+    long samples = totalSamples + 1;
+    long[] snapshot = healthSnapshots[(int) (samples % 2)];
+    System.arraycopy(jitterHistogram, 0, snapshot, 0, jitterHistogram.length);
+    snapshot[droppedSamplesIndex] = droppedSamples;
+    snapshot[waitTimeoutsIndex] = waitTimeouts;
+    snapshot[waitErrorsIndex] = waitErrors;
+    snapshot[interruptsIndex] = interrupts;
+    snapshot[totalWaitMicrosIndex] = totalWaitMicros;
+    totalSamples = samples;
+  }
+
+  /** Records the time since the previous sample in the jitter histogram. */
+  private void recordSamplePeriod(long sampleMicros) {
+    if (lastSampleMicros > 0) {
+      long periodMicros = sampleMicros - lastSampleMicros;
+      long jitterMicros = Math.abs(periodMicros - (long) (1e6 / frequency));
+      int bin = 0;
+      while (bin < jitterBinEdgesMicros.length && jitterMicros >= jitterBinEdgesMicros[bin]) {
+        bin++;
+      }
+      jitterHistogram[bin]++;
+    }
+    lastSampleMicros = sampleMicros;
+  }
+
+  private void recordStatus(StatusCode status) {
+    if (status == StatusCode.RxTimeout) {
+      waitTimeouts++;
+    } else if (!status.isOK()) {
+      waitErrors++;
+    }
+  }
+
+  /**
+   * Samples the FPGA and Phoenix clocks back to back and updates the offset between them. Reads
+   * that took too long are ignored since the thread was likely preempted between them.
+   */
+  private void updateClockOffset() {
+    double phoenixBefore = Utils.getCurrentTimeSeconds();
+    double fpgaTime = RobotController.getFPGATime() / 1e6;
+    double phoenixAfter = Utils.getCurrentTimeSeconds();
+    if (phoenixAfter - phoenixBefore > maxClockReadSecs) {
+      return;
+    }
+
+    double offset = fpgaTime - (phoenixBefore + phoenixAfter) / 2.0;
+    if (hasClockOffset) {
+      clockOffset += (offset - clockOffset) * clockOffsetFilterGain;
+    } else {
+      clockOffset = offset;
+      hasClockOffset = true;
+    }
+  }
+
+  /** Returns the best available capture time of a Phoenix signal, in FPGA time. */
+  private double getCaptureTimestamp(BaseStatusSignal signal) {
+    var timestamps = signal.getAllTimestamps();
+    Timestamp timestamp = timestamps.getDeviceTimestamp();
+    if (!timestamp.isValid()) {
+      timestamp = timestamps.getCANivoreTimestamp();
+    }
+    if (!timestamp.isValid()) {
+      timestamp = timestamps.getSystemTimestamp();
+    }
+    return timestamp.getTime() + clockOffset;
+  }
+
+  /**
+   * Parks until the next sample is due. Deadlines advance by the exact period so the rate does not
+   * drift, and restart from now if the thread fell more than a period behind.
+   */
+  private void waitForNextPeriod() {
+    long periodNanos = Math.round(1e9 / frequency);
+    long now = System.nanoTime();
+    nextSampleNanos += periodNanos;
+    if (now - nextSampleNanos > periodNanos) {
+      nextSampleNanos = now;
+    }
+    long remainingNanos;
+    while ((remainingNanos = nextSampleNanos - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remainingNanos);
+      if (Thread.interrupted()) {
+        interrupts++;
+        return;
+      }
     }
-    return queue;
   }
 
   @Override
@@ -106,30 +488,43 @@ public class PhoenixOdometryThread extends Thread {
     Threads.setCurrentThreadPriority(true, 99);
     while (true) {
       // Wait for updates from all signals
-      signalsLock.lock();
-      try {
-        if (isCANFD && phoenixSignals.length > 0) {
-          BaseStatusSignal.waitForAll(2.0 / DriveConstants.odometryFrequency, phoenixSignals);
-        } else {
-          // "waitForAll" does not support blocking on multiple signals with a bus
-          // that is not CAN FD, regardless of Pro licensing. No reasoning for this
-          // behavior is provided by the documentation.
-          Thread.sleep((long) (1000.0 / DriveConstants.odometryFrequency));
-          if (phoenixSignals.length > 0) BaseStatusSignal.refreshAll(phoenixSignals);
-        }
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-      } finally {
-        signalsLock.unlock();
+      long waitStartMicros = RobotController.getFPGATime();
+      if (isCANFD && phoenixSignals.length > 0) {
+        recordStatus(BaseStatusSignal.waitForAll(2.0 / frequency, phoenixSignals));
+      } else {
+        // "waitForAll" does not support blocking on multiple signals with a bus
+        // that is not CAN FD, regardless of Pro licensing. No reasoning for this
+        // behavior is provided by the documentation.
+        waitForNextPeriod();
+        if (phoenixSignals.length > 0) recordStatus(BaseStatusSignal.refreshAll(phoenixSignals));
       }
+      long sampleMicros = RobotController.getFPGATime();
+      totalWaitMicros += sampleMicros - waitStartMicros;
+      recordSamplePeriod(sampleMicros);
 
-      // Save new data to queues
-      Drive.odometryLock.lock();
-      try {
+      // Drop the sample if the consumer has not released enough frames
+      long frameIndex = publishedFrames;
+      if (frameIndex - releasedFrames >= frames.length) {
+        droppedSamples++;
+        publishHealth();
+        continue;
+      }
+      OdometryFrame frame = frames[(int) (frameIndex % frames.length)];
+
+      double timestamp = sampleMicros / 1e6;
+      if (DriveConstants.odometryTimestampMode == OdometryTimestampMode.DEVICE
+          && phoenixSignals.length > 0) {
+        // Sample timestamp is the average capture time reported by each device
+        updateClockOffset();
+        double totalTimestamp = 0.0;
+        for (BaseStatusSignal signal : phoenixSignals) {
+          totalTimestamp += getCaptureTimestamp(signal);
+        }
+        timestamp = totalTimestamp / phoenixSignals.length;
+      } else {
         // Sample timestamp is current FPGA time minus average CAN latency
         //     Default timestamps from Phoenix are NOT compatible with
         //     FPGA timestamps, this solution is imperfect but close
-        double timestamp = RobotController.getFPGATime() / 1e6;
         double totalLatency = 0.0;
         for (BaseStatusSignal signal : phoenixSignals) {
           totalLatency += signal.getTimestamp().getLatency();
@@ -137,20 +532,18 @@ public class PhoenixOdometryThread extends Thread {
         if (phoenixSignals.length > 0) {
           timestamp -= totalLatency / phoenixSignals.length;
         }
+      }
 
-        // Add new samples to queues
-        for (int i = 0; i < phoenixSignals.length; i++) {
-          phoenixQueues.get(i).offer(phoenixSignals[i].getValueAsDouble());
-        }
-        for (int i = 0; i < genericSignals.size(); i++) {
-          genericQueues.get(i).offer(genericSignals.get(i).getAsDouble());
-        }
-        for (int i = 0; i < timestampQueues.size(); i++) {
-          timestampQueues.get(i).offer(timestamp);
-        }
-      } finally {
-        Drive.odometryLock.unlock();
+      // Fill the frame and publish it to the consumer
+      frame.timestamp = timestamp;
+      for (int i = 0; i < phoenixSignals.length; i++) {
+        frame.values[phoenixSlots[i]] = phoenixSignals[i].getValueAsDouble();
+      }
+      for (int i = 0; i < genericSignals.length; i++) {
+        frame.values[genericSlots[i]] = genericSignals[i].getAsDouble();
       }
+      publishedFrames = frameIndex + 1;
+      publishHealth();
     }
   }
 }
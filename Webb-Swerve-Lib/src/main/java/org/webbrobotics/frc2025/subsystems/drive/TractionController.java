@@ -0,0 +1,195 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.Vector;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import edu.wpi.first.math.numbers.N2;
+import java.util.OptionalDouble;
+import org.ejml.simple.SimpleMatrix;
+import org.webbrobotics.frc2025.Constants;
+import org.webbrobotics.frc2025.util.LoggedTunableNumber;
+import org.webbrobotics.frc2025.util.swerve.MutableSwerveSetpoint;
+
+/**
+ * Keeps the module setpoints within what the carpet can transmit, so the wheels don't spin on hard
+ * launches.
+ *
+ * <p>The chassis velocity over the carpet is tracked from the measured chassis speeds, but may only
+ * change as fast as friction can accelerate the robot. Faster changes are wheel slip, so the
+ * estimate keeps following the carpet while the wheels spin. Only wheels driven toward a change can
+ * slip into it, so changes away from the setpoint, like being pushed by another robot, are followed
+ * at any rate. Being pushed toward the setpoint still reads as slip and cuts the feedforward. The
+ * slip of each module is its measured wheel speed minus the speed of the carpet under it. Each
+ * cycle, the wheel speed setpoint may only step past the carpet speed by what friction can add in
+ * one cycle plus an allowed slip, and the wheel force feedforward is limited to the friction cone
+ * of the module. A limited setpoint is written back with chassis speeds fit to its module speeds,
+ * so the next setpoint is generated from what the modules were sent.
+ */
+class TractionController {
+  private static final double gravity = 9.81;
+  private static final LoggedTunableNumber maxSlipMetersPerSec =
+      new LoggedTunableNumber("Drive/TractionControl/MaxSlipMetersPerSec", 0.3);
+
+  private final Translation2d[] moduleTranslations;
+  private final double maxAcceleration;
+  private final double maxWheelForceNewtons;
+  private final double[] slipMetersPerSec;
+  // Least-squares chassis speeds from module velocities, like SwerveDriveKinematics
+  private final double[][] forwardKinematics;
+  private final ChassisSpeeds carpetSpeeds = new ChassisSpeeds();
+  private boolean hasEstimate = false;
+
+  TractionController(Translation2d[] moduleTranslations) {
+    this.moduleTranslations = moduleTranslations;
+    maxAcceleration = DriveConstants.wheelFrictionCoefficient * gravity;
+    maxWheelForceNewtons = maxAcceleration * DriveConstants.robotMassKg / moduleTranslations.length;
+    slipMetersPerSec = new double[moduleTranslations.length];
+
+    int moduleCount = moduleTranslations.length;
+    var inverseKinematics = new SimpleMatrix(moduleCount * 2, 3);
+    for (int i = 0; i < moduleCount; i++) {
+      inverseKinematics.setRow(i * 2, 0, 1, 0, -moduleTranslations[i].getY());
+      inverseKinematics.setRow(i * 2 + 1, 0, 0, 1, moduleTranslations[i].getX());
+    }
+    var pseudoInverse = inverseKinematics.pseudoInverse();
+    forwardKinematics = new double[3][moduleCount * 2];
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < moduleCount * 2; col++) {
+        forwardKinematics[row][col] = pseudoInverse.get(row, col);
+      }
+    }
+  }
+
+  /**
+   * Updates the chassis velocity over the carpet and the slip of each module.
+   *
+   * @param measuredSpeeds The chassis speeds measured by the wheels.
+   * @param setpointSpeeds The chassis speeds the wheels are driven toward.
+   * @param gyroVelocityRadPerSec The yaw velocity measured by the gyro, if connected.
+   * @param measuredStates The measured module states.
+   */
+  void update(
+      ChassisSpeeds measuredSpeeds,
+      ChassisSpeeds setpointSpeeds,
+      OptionalDouble gyroVelocityRadPerSec,
+      SwerveModuleState[] measuredStates) {
+    // The gyro doesn't slip, so prefer it for the rotation
+    carpetSpeeds.omegaRadiansPerSecond =
+        gyroVelocityRadPerSec.orElse(measuredSpeeds.omegaRadiansPerSecond);
+    if (!hasEstimate) {
+      carpetSpeeds.vxMetersPerSecond = measuredSpeeds.vxMetersPerSecond;
+      carpetSpeeds.vyMetersPerSecond = measuredSpeeds.vyMetersPerSecond;
+      hasEstimate = true;
+    } else {
+      // Carry the last estimate into the frame of the rotated robot
+      double rotation = -carpetSpeeds.omegaRadiansPerSecond * Constants.loopPeriodSecs;
+      double cos = Math.cos(rotation);
+      double sin = Math.sin(rotation);
+      double lastVx = carpetSpeeds.vxMetersPerSecond * cos - carpetSpeeds.vyMetersPerSecond * sin;
+      double lastVy = carpetSpeeds.vxMetersPerSecond * sin + carpetSpeeds.vyMetersPerSecond * cos;
+
+      // Follow the wheels only as fast as friction can accelerate the robot, unless the change is
+      // away from where the wheels are driven
+      double dvx = measuredSpeeds.vxMetersPerSecond - lastVx;
+      double dvy = measuredSpeeds.vyMetersPerSecond - lastVy;
+      double drivenDvx = setpointSpeeds.vxMetersPerSecond - lastVx;
+      double drivenDvy = setpointSpeeds.vyMetersPerSecond - lastVy;
+      double dv = Math.hypot(dvx, dvy);
+      double maxDv = maxAcceleration * Constants.loopPeriodSecs;
+      boolean driven = dvx * drivenDvx + dvy * drivenDvy > 0.0;
+      double scale = driven && dv > maxDv ? maxDv / dv : 1.0;
+      carpetSpeeds.vxMetersPerSecond = lastVx + dvx * scale;
+      carpetSpeeds.vyMetersPerSecond = lastVy + dvy * scale;
+    }
+
+    for (int i = 0; i < slipMetersPerSec.length; i++) {
+      Rotation2d angle = measuredStates[i].angle;
+      slipMetersPerSec[i] =
+          measuredStates[i].speedMetersPerSecond
+              - getCarpetSpeed(i, angle.getCos(), angle.getSin());
+    }
+  }
+
+  /**
+   * Limits the module speeds of a setpoint in place to steps the carpet can follow. When a module
+   * is limited, the chassis speeds of the setpoint are fit to the limited module velocities.
+   */
+  void limitSetpoint(MutableSwerveSetpoint setpoint) {
+    if (!hasEstimate) {
+      return;
+    }
+    double maxStep = maxAcceleration * Constants.loopPeriodSecs + maxSlipMetersPerSec.get();
+    boolean limited = false;
+    for (int i = 0; i < slipMetersPerSec.length; i++) {
+      double carpetSpeed =
+          getCarpetSpeed(i, setpoint.moduleAngleCos[i], setpoint.moduleAngleSin[i]);
+      double speed = setpoint.moduleSpeedsMetersPerSecond[i];
+      double limitedSpeed = MathUtil.clamp(speed, carpetSpeed - maxStep, carpetSpeed + maxStep);
+      if (limitedSpeed != speed) {
+        setpoint.moduleSpeedsMetersPerSecond[i] = limitedSpeed;
+        limited = true;
+      }
+    }
+    if (!limited) {
+      return;
+    }
+
+    double vx = 0.0;
+    double vy = 0.0;
+    double omega = 0.0;
+    for (int i = 0; i < slipMetersPerSec.length; i++) {
+      double moduleVx = setpoint.moduleSpeedsMetersPerSecond[i] * setpoint.moduleAngleCos[i];
+      double moduleVy = setpoint.moduleSpeedsMetersPerSecond[i] * setpoint.moduleAngleSin[i];
+      vx += forwardKinematics[0][i * 2] * moduleVx + forwardKinematics[0][i * 2 + 1] * moduleVy;
+      vy += forwardKinematics[1][i * 2] * moduleVx + forwardKinematics[1][i * 2 + 1] * moduleVy;
+      omega +=
+          forwardKinematics[2][i * 2] * moduleVx + forwardKinematics[2][i * 2 + 1] * moduleVy;
+    }
+    setpoint.vxMetersPerSecond = vx;
+    setpoint.vyMetersPerSecond = vy;
+    setpoint.omegaRadiansPerSecond = omega;
+  }
+
+  /**
+   * Returns the force along the wheel of a module to use as feedforward, limited to the friction
+   * cone of the module. No force is applied while the wheel is already slipping in its direction.
+   */
+  double getWheelForceNewtons(int module, Vector<N2> wheelForce, Rotation2d wheelAngle) {
+    double forceNewtons =
+        wheelForce.get(0) * wheelAngle.getCos() + wheelForce.get(1) * wheelAngle.getSin();
+    double forceNorm = wheelForce.norm();
+    if (forceNorm > maxWheelForceNewtons) {
+      forceNewtons *= maxWheelForceNewtons / forceNorm;
+    }
+    if (hasEstimate
+        && Math.abs(slipMetersPerSec[module]) > maxSlipMetersPerSec.get()
+        && Math.signum(slipMetersPerSec[module]) == Math.signum(forceNewtons)) {
+      return 0.0;
+    }
+    return forceNewtons;
+  }
+
+  /** Returns the speed of the carpet under a module along the wheel angle with this cos and sin. */
+  private double getCarpetSpeed(int module, double angleCos, double angleSin) {
+    Translation2d translation = moduleTranslations[module];
+    double omega = carpetSpeeds.omegaRadiansPerSecond;
+    return (carpetSpeeds.vxMetersPerSecond - omega * translation.getY()) * angleCos
+        + (carpetSpeeds.vyMetersPerSecond + omega * translation.getX()) * angleSin;
+  }
+
+  /** Returns the estimated chassis speeds over the carpet. */
+  ChassisSpeeds getCarpetSpeeds() {
+    return carpetSpeeds;
+  }
+
+  /** Returns the slip of each module in meters per second, positive when spinning forwards. */
+  double[] getSlipMetersPerSec() {
+    return slipMetersPerSec;
+  }
+}
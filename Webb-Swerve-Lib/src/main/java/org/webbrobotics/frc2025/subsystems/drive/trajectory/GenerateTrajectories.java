@@ -27,7 +27,7 @@ public class GenerateTrajectories {
     // Create vehicle model
     VehicleModel model =
         VehicleModel.newBuilder()
-            .setMass(67)
+            .setMass(DriveConstants.robotMassKg)
             .setMoi(5.8)
             .setVehicleLength(DriveConstants.trackWidthX)
             .setVehicleWidth(DriveConstants.trackWidthY)
@@ -37,6 +37,11 @@ public class HolonomicTrajectory {
     }
   }
 
+  /** Wraps a trajectory that is already loaded, such as one generated in memory. */
+  public HolonomicTrajectory(Trajectory trajectory) {
+    this.trajectory = trajectory;
+  }
+
   public double getDuration() {
     if (trajectory.getStatesCount() > 0) {
       return trajectory.getStates(trajectory.getStatesCount() - 1).getTime();
@@ -128,8 +133,10 @@ public class HolonomicTrajectory {
     double interpolatedAngularVelocity =
         MathUtil.interpolate(before.getState().getOmega(), after.getState().getOmega(), s);
 
-    List<ModuleForce> moduleForces = new ArrayList<>(4);
-    for (int i = 0; i < 4; i++) {
+    int moduleCount =
+        Math.min(before.getState().getModuleForcesCount(), after.getState().getModuleForcesCount());
+    List<ModuleForce> moduleForces = new ArrayList<>(moduleCount);
+    for (int i = 0; i < moduleCount; i++) {
       double interpolatedFx =
           MathUtil.interpolate(
               before.getState().getModuleForces(i).getFx(),
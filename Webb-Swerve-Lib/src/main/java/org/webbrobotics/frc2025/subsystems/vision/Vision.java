@@ -31,8 +31,10 @@ import org.photonvision.PhotonPoseEstimator.PoseStrategy;
 import org.photonvision.simulation.PhotonCameraSim;
 import org.photonvision.simulation.SimCameraProperties;
 import org.photonvision.simulation.VisionSystemSim;
+import org.photonvision.targeting.PhotonPipelineResult;
 import org.photonvision.targeting.PhotonTrackedTarget;
 import org.webbrobotics.frc2025.Robot;
+import org.webbrobotics.frc2025.RobotState;
 
 public class Vision {
   public static final String kCameraNames[] = {"Camera_FrontLeft", "Camera_FrontRight"};
@@ -52,6 +54,10 @@ public class Vision {
   private PhotonCamera[] cameras;
   private PhotonPoseEstimator[] photonEstimators;
   private Matrix<N3, N1> curStdDevs;
+  // Most recent result from each camera, since reading results consumes them
+  private PhotonPipelineResult[] latestResults;
+  // Individual tags seen by the latest call to getVisionObservations
+  private final List<RobotState.TagObservation> tagObservations = new ArrayList<>();
 
   // Simulation
   private PhotonCameraSim[] cameraSims;
@@ -61,9 +67,11 @@ public class Vision {
     cameras = new PhotonCamera[kCameraNames.length];
     photonEstimators = new PhotonPoseEstimator[kCameraNames.length];
     cameraSims = new PhotonCameraSim[kCameraNames.length];
+    latestResults = new PhotonPipelineResult[kCameraNames.length];
 
     for (int i = 0; i < kCameraNames.length; i++) {
       cameras[i] = new PhotonCamera(kCameraNames[i]);
+      latestResults[i] = new PhotonPipelineResult();
       photonEstimators[i] =
           new PhotonPoseEstimator(
               kTagLayout, PoseStrategy.MULTI_TAG_PNP_ON_COPROCESSOR, kRobotToCams[i]);
@@ -99,74 +107,60 @@ public class Vision {
   }
 
   /**
-   * The latest estimated robot pose on the field from vision data. This may be empty. This should
-   * only be called once per loop.
+   * Every robot pose estimated from vision since the last call, from all cameras. This may be
+   * empty. This should only be called once per loop, since reading the camera results consumes
+   * them.
    *
-   * <p>Also includes updates for the standard deviations, which can (optionally) be retrieved with
-   * {@link getEstimationStdDevs}
+   * <p>Each observation includes standard deviations calculated for that estimate. The latest can
+   * also be retrieved with {@link #getEstimationStdDevs()}.
    *
-   * @return An {@link EstimatedRobotPose} with an estimated pose, estimate timestamp, and targets
-   *     used for estimation.
+   * @return The estimated poses with their timestamps and standard deviations
    */
-  public Optional<EstimatedRobotPose> getEstimatedGlobalPose() {
-    Optional<EstimatedRobotPose> visionEst = Optional.empty();
+  public List<RobotState.VisionObservation> getVisionObservations() {
+    List<RobotState.VisionObservation> observations = new ArrayList<>();
     List<PhotonTrackedTarget> allDetectedTags = new ArrayList<>();
+    List<PhotonTrackedTarget> allUsedTags = new ArrayList<>();
+    tagObservations.clear();
 
-    // Try each camera until we get a valid result
+    // Process every unread result from every camera
     for (int i = 0; i < cameras.length; i++) {
-      var result = cameras[i].getLatestResult();
-      if (result != null) {
+      for (var result : cameras[i].getAllUnreadResults()) {
+        latestResults[i] = result;
         allDetectedTags.addAll(result.getTargets());
+        addTagObservations(i, result);
 
         // Log individual camera data - do this for each camera
         logCameraData(cameras[i], result.getTargets());
 
         var est = photonEstimators[i].update(result);
         if (est.isPresent()) {
-          visionEst = est;
-          updateEstimationStdDevs(Optional.of(est.get()), result.getTargets());
-          break;
+          updateEstimationStdDevs(est, result.getTargets());
+          observations.add(
+              new RobotState.VisionObservation(
+                  est.get().estimatedPose.toPose2d(), est.get().timestampSeconds, curStdDevs));
+          allUsedTags.addAll(est.get().targetsUsed);
         }
       }
-      if (visionEst.isPresent()) break;
     }
 
-    // Log the vision pose estimation
-    visionEst.ifPresent(
-        est -> {
-          Logger.recordOutput("Vision/EstimatedPose", est.estimatedPose.toPose2d());
-          Logger.recordOutput("Vision/EstimationTimestamp", est.timestampSeconds);
-
-          // Create array of field poses for all detected tags
-          Pose2d[] tagPoses = new Pose2d[est.targetsUsed.size()];
-          int[] tagIDs = new int[est.targetsUsed.size()];
-
-          for (int i = 0; i < est.targetsUsed.size(); i++) {
-            PhotonTrackedTarget target = est.targetsUsed.get(i);
-            int tagID = target.getFiducialId();
-            tagIDs[i] = tagID;
-
-            var optTagPose = kTagLayout.getTagPose(tagID);
-            if (optTagPose.isPresent()) {
-              tagPoses[i] = optTagPose.get().toPose2d();
-            } else {
-              tagPoses[i] = new Pose2d();
-            }
-          }
-
-          Logger.recordOutput("Vision/DetectedTagIDs", tagIDs);
-          Logger.recordOutput("Vision/DetectedTagPoses", tagPoses);
-          Logger.recordOutput("Vision/NumberOfDetectedTags", est.targetsUsed.size());
-        });
+    // Log the vision pose estimations
+    Pose2d[] estimatedPoses = new Pose2d[observations.size()];
+    double[] estimationTimestamps = new double[observations.size()];
+    for (int i = 0; i < observations.size(); i++) {
+      estimatedPoses[i] = observations.get(i).pose();
+      estimationTimestamps[i] = observations.get(i).timestamp();
+    }
+    Logger.recordOutput("Vision/EstimatedPoses", estimatedPoses);
+    Logger.recordOutput("Vision/EstimationTimestamps", estimationTimestamps);
 
-    // Log if no estimation was found but tags were detected
-    if (visionEst.isEmpty() && !allDetectedTags.isEmpty()) {
-      // Log all detected tags even if no pose estimation was possible
-      int[] tagIDs = new int[allDetectedTags.size()];
-      Pose2d[] tagPoses = new Pose2d[allDetectedTags.size()];
+    // Log the tags used for estimation, or all detected tags if no estimation was possible
+    List<PhotonTrackedTarget> loggedTags = allUsedTags.isEmpty() ? allDetectedTags : allUsedTags;
+    if (!loggedTags.isEmpty()) {
+      int[] tagIDs = new int[loggedTags.size()];
+      Pose2d[] tagPoses = new Pose2d[loggedTags.size()];
 
-      for (int i = 0; i < allDetectedTags.size(); i++) {
-        PhotonTrackedTarget target = allDetectedTags.get(i);
+      for (int i = 0; i < loggedTags.size(); i++) {
+        PhotonTrackedTarget target = loggedTags.get(i);
         tagIDs[i] = target.getFiducialId();
 
         var optTagPose = kTagLayout.getTagPose(target.getFiducialId());
@@ -179,24 +173,54 @@ public class Vision {
 
       Logger.recordOutput("Vision/DetectedTagIDs", tagIDs);
       Logger.recordOutput("Vision/DetectedTagPoses", tagPoses);
-      Logger.recordOutput("Vision/NumberOfDetectedTags", allDetectedTags.size());
+      Logger.recordOutput("Vision/NumberOfDetectedTags", loggedTags.size());
     }
 
     if (Robot.isSimulation()) {
-      visionEst.ifPresentOrElse(
-          est ->
-              getSimDebugField()
-                  .getObject("VisionEstimation")
-                  .setPose(est.estimatedPose.toPose2d()),
-          () -> {
-            getSimDebugField().getObject("VisionEstimation").setPoses();
-          });
+      getSimDebugField().getObject("VisionEstimation").setPoses(estimatedPoses);
     }
 
     // Call the logSeenAprilTags method to ensure it runs every cycle
     logSeenAprilTags();
 
-    return visionEst;
+    return observations;
+  }
+
+  /**
+   * Every individual tag seen by the latest call to {@link #getVisionObservations()}, with both
+   * solutions for each tag so that ambiguous tags can be resolved by the caller.
+   */
+  public List<RobotState.TagObservation> getTagObservations() {
+    return tagObservations;
+  }
+
+  /** Helper method to record the individual tags in a result */
+  private void addTagObservations(int cameraIndex, PhotonPipelineResult result) {
+    for (var target : result.getTargets()) {
+      var tagPose = kTagLayout.getTagPose(target.getFiducialId());
+      if (tagPose.isEmpty()) continue;
+
+      var robotToTag = kRobotToCams[cameraIndex].plus(target.getBestCameraToTarget());
+      var alternateCameraToTarget = target.getAlternateCameraToTarget();
+      // Targets without an alternate solution report an empty transform
+      var alternateRobotToTag =
+          alternateCameraToTarget.getTranslation().getNorm() > 0.0
+              ? kRobotToCams[cameraIndex].plus(alternateCameraToTarget)
+              : robotToTag;
+      tagObservations.add(
+          new RobotState.TagObservation(
+              target.getFiducialId(),
+              result.getTimestampSeconds(),
+              tagPose.get().toPose2d(),
+              toPose2d(robotToTag),
+              toPose2d(alternateRobotToTag)));
+    }
+  }
+
+  /** Projects a robot relative transform onto the floor, keeping its yaw. */
+  private static Pose2d toPose2d(Transform3d transform) {
+    return new Pose2d(
+        transform.getTranslation().toTranslation2d(), transform.getRotation().toRotation2d());
   }
 
   /** Helper method to log data from individual cameras */
@@ -273,8 +297,8 @@ public class Vision {
   }
 
   /**
-   * Returns the latest standard deviations of the estimated pose from {@link
-   * #getEstimatedGlobalPose()}, for use with {@link
+   * Returns the latest standard deviations of the estimated poses from {@link
+   * #getVisionObservations()}, for use with {@link
    * edu.wpi.first.math.estimator.SwerveDrivePoseEstimator SwerveDrivePoseEstimator}. This should
    * only be used when there are targets visible.
    */
@@ -316,8 +340,7 @@ public class Vision {
     Map<Integer, Pose3d> seenTagsWithPoses = new HashMap<Integer, Pose3d>();
 
     // Check all cameras for detected tags
-    for (PhotonCamera camera : cameras) {
-      var result = camera.getLatestResult();
+    for (var result : latestResults) {
       if (result.hasTargets()) {
         for (PhotonTrackedTarget target : result.getTargets()) {
           int id = target.getFiducialId();
@@ -0,0 +1,163 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025.util;
+
+import edu.wpi.first.math.MathUtil;
+
+/**
+ * Fixed-capacity history of timestamped poses, stored as parallel primitive arrays in a ring.
+ * Lookups use a binary search and interpolate in place, so nothing is allocated after the buffer is
+ * created.
+ *
+ * <p>Samples must be added in increasing timestamp order. Samples older than the history length
+ * (relative to the newest sample) are discarded, and the oldest sample is overwritten when the
+ * buffer is full.
+ */
+public class PoseBuffer {
+  private final double historySecs;
+  private final double[] timestamps;
+  private final double[] xs;
+  private final double[] ys;
+  private final double[] thetas;
+
+  private int head = 0; // Index of the oldest sample
+  private int size = 0;
+
+  /**
+   * Creates a new pose buffer.
+   *
+   * @param historySecs The length of history to keep, in seconds
+   * @param capacity The maximum number of samples to keep
+   */
+  public PoseBuffer(double historySecs, int capacity) {
+    this.historySecs = historySecs;
+    timestamps = new double[capacity];
+    xs = new double[capacity];
+    ys = new double[capacity];
+    thetas = new double[capacity];
+  }
+
+  /** Removes all samples. */
+  public void clear() {
+    head = 0;
+    size = 0;
+  }
+
+  /** Returns the number of samples in the buffer. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the timestamp of a sample, where index 0 is the oldest sample. */
+  public double getTimestamp(int index) {
+    return timestamps[physicalIndex(index)];
+  }
+
+  /** Returns the x position of a sample, where index 0 is the oldest sample. */
+  public double getX(int index) {
+    return xs[physicalIndex(index)];
+  }
+
+  /** Returns the y position of a sample, where index 0 is the oldest sample. */
+  public double getY(int index) {
+    return ys[physicalIndex(index)];
+  }
+
+  /** Returns the rotation of a sample in radians, where index 0 is the oldest sample. */
+  public double getTheta(int index) {
+    return thetas[physicalIndex(index)];
+  }
+
+  /**
+   * Returns the index of the newest sample at or before the specified timestamp, or the oldest
+   * sample if there is none. Returns -1 if the buffer is empty.
+   */
+  public int floorIndex(double timestamp) {
+    if (size == 0) {
+      return -1;
+    }
+    int low = 0;
+    int high = size - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (timestamps[physicalIndex(mid)] <= timestamp) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Adds a sample to the buffer. A sample with the same timestamp as the newest sample replaces it,
+   * and samples older than the newest sample are ignored.
+   *
+   * @param timestamp The timestamp of the sample in seconds
+   * @param x The x position in meters
+   * @param y The y position in meters
+   * @param theta The rotation in radians
+   */
+  public void addSample(double timestamp, double x, double y, double theta) {
+    int index;
+    if (size > 0 && timestamp <= timestamps[physicalIndex(size - 1)]) {
+      if (timestamp < timestamps[physicalIndex(size - 1)]) {
+        return;
+      }
+      index = physicalIndex(size - 1);
+    } else {
+      if (size == timestamps.length) {
+        head = (head + 1) % timestamps.length;
+        size--;
+      }
+      index = physicalIndex(size);
+      size++;
+    }
+    timestamps[index] = timestamp;
+    xs[index] = x;
+    ys[index] = y;
+    thetas[index] = theta;
+
+    // Discard samples that have fallen out of the history
+    while (size > 1 && timestamps[head] < timestamp - historySecs) {
+      head = (head + 1) % timestamps.length;
+      size--;
+    }
+  }
+
+  /**
+   * Interpolates the pose at the specified timestamp. Timestamps outside of the buffer use the
+   * nearest sample.
+   *
+   * @param timestamp The timestamp to sample in seconds
+   * @param dest Array of at least three elements to hold the x, y, and theta of the pose
+   * @return Whether a pose was found, which is false only when the buffer is empty
+   */
+  public boolean getSample(double timestamp, double[] dest) {
+    int index = floorIndex(timestamp);
+    if (index < 0) {
+      return false;
+    }
+
+    int lower = physicalIndex(index);
+    if (index == size - 1) {
+      dest[0] = xs[lower];
+      dest[1] = ys[lower];
+      dest[2] = thetas[lower];
+      return true;
+    }
+    int upper = physicalIndex(index + 1);
+    double t =
+        MathUtil.clamp(
+            (timestamp - timestamps[lower]) / (timestamps[upper] - timestamps[lower]), 0.0, 1.0);
+    dest[0] = MathUtil.interpolate(xs[lower], xs[upper], t);
+    dest[1] = MathUtil.interpolate(ys[lower], ys[upper], t);
+    dest[2] = thetas[lower] + MathUtil.angleModulus(thetas[upper] - thetas[lower]) * t;
+    return true;
+  }
+
+  private int physicalIndex(int index) {
+    return (head + index) % timestamps.length;
+  }
+}
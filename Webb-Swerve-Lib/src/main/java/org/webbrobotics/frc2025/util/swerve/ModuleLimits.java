@@ -3,5 +3,34 @@
  
 package org.webbrobotics.frc2025.util.swerve;
 
+import edu.wpi.first.math.geometry.Translation3d;
+
+/**
+ * Limits for the setpoint generator. The center of gravity is relative to the center of the robot
+ * on the floor, in the same frame as the module locations. When its height is positive, chassis
+ * acceleration is also limited so the robot doesn't tip over the modules.
+ */
 public record ModuleLimits(
-    double maxDriveVelocity, double maxDriveAcceleration, double maxSteeringVelocity) {}
+    double maxDriveVelocity,
+    double maxDriveAcceleration,
+    double maxSteeringVelocity,
+    double centerOfGravityX,
+    double centerOfGravityY,
+    double centerOfGravityHeight) {
+  /** Creates limits without a center of gravity, so the robot is never limited for tipping. */
+  public ModuleLimits(
+      double maxDriveVelocity, double maxDriveAcceleration, double maxSteeringVelocity) {
+    this(maxDriveVelocity, maxDriveAcceleration, maxSteeringVelocity, 0.0, 0.0, 0.0);
+  }
+
+  /** Returns these limits with the specified center of gravity. */
+  public ModuleLimits withCenterOfGravity(Translation3d centerOfGravity) {
+    return new ModuleLimits(
+        maxDriveVelocity,
+        maxDriveAcceleration,
+        maxSteeringVelocity,
+        centerOfGravity.getX(),
+        centerOfGravity.getY(),
+        centerOfGravity.getZ());
+  }
+}
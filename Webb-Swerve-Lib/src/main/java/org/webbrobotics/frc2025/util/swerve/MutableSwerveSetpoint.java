@@ -0,0 +1,93 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025.util.swerve;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+
+/**
+ * Caller-owned setpoint written in place by {@link SwerveSetpointGenerator}, so that generating a
+ * setpoint every loop allocates nothing. Module angles are stored with their cosine and sine, which
+ * keeps the values exactly as a {@link Rotation2d} would hold them from one loop to the next.
+ *
+ * <p>Module states are read with a {@link Rotation2d} that is cached per module. It is only
+ * replaced when the angle of the module changes, since {@link Rotation2d} is immutable.
+ */
+public class MutableSwerveSetpoint {
+  public double vxMetersPerSecond = 0.0;
+  public double vyMetersPerSecond = 0.0;
+  public double omegaRadiansPerSecond = 0.0;
+  public final double[] moduleSpeedsMetersPerSecond;
+  public final double[] moduleAnglesRad;
+  public final double[] moduleAngleCos;
+  public final double[] moduleAngleSin;
+  private final Rotation2d[] moduleAngles;
+
+  /** Creates a stopped setpoint with every module at zero degrees. */
+  public MutableSwerveSetpoint(int moduleCount) {
+    moduleSpeedsMetersPerSecond = new double[moduleCount];
+    moduleAnglesRad = new double[moduleCount];
+    moduleAngleCos = new double[moduleCount];
+    moduleAngleSin = new double[moduleCount];
+    moduleAngles = new Rotation2d[moduleCount];
+    for (int i = 0; i < moduleCount; i++) {
+      moduleAngleCos[i] = 1.0;
+      moduleAngles[i] = Rotation2d.kZero;
+    }
+  }
+
+  public int getModuleCount() {
+    return moduleSpeedsMetersPerSecond.length;
+  }
+
+  /** Sets the setpoint to the specified chassis speeds and module states. */
+  public void set(ChassisSpeeds chassisSpeeds, SwerveModuleState[] moduleStates) {
+    vxMetersPerSecond = chassisSpeeds.vxMetersPerSecond;
+    vyMetersPerSecond = chassisSpeeds.vyMetersPerSecond;
+    omegaRadiansPerSecond = chassisSpeeds.omegaRadiansPerSecond;
+    for (int i = 0; i < moduleSpeedsMetersPerSecond.length; i++) {
+      moduleSpeedsMetersPerSecond[i] = moduleStates[i].speedMetersPerSecond;
+      moduleAnglesRad[i] = moduleStates[i].angle.getRadians();
+      moduleAngleCos[i] = moduleStates[i].angle.getCos();
+      moduleAngleSin[i] = moduleStates[i].angle.getSin();
+    }
+  }
+
+  /** Sets the setpoint to the specified immutable setpoint. */
+  public void set(SwerveSetpoint setpoint) {
+    set(setpoint.chassisSpeeds(), setpoint.moduleStates());
+  }
+
+  /** Copies the chassis speeds of the setpoint into an existing object. */
+  public void getChassisSpeeds(ChassisSpeeds chassisSpeeds) {
+    chassisSpeeds.vxMetersPerSecond = vxMetersPerSecond;
+    chassisSpeeds.vyMetersPerSecond = vyMetersPerSecond;
+    chassisSpeeds.omegaRadiansPerSecond = omegaRadiansPerSecond;
+  }
+
+  /**
+   * Copies the state of a module into an existing object. Allocates only when the angle of the
+   * module has changed since the previous call.
+   */
+  public void getModuleState(int index, SwerveModuleState moduleState) {
+    moduleState.speedMetersPerSecond = moduleSpeedsMetersPerSecond[index];
+    if (moduleAngles[index].getRadians() != moduleAnglesRad[index]) {
+      moduleAngles[index] = Rotation2d.fromRadians(moduleAnglesRad[index]);
+    }
+    moduleState.angle = moduleAngles[index];
+  }
+
+  /** Returns an immutable copy of the setpoint. */
+  public SwerveSetpoint toSwerveSetpoint() {
+    var chassisSpeeds = new ChassisSpeeds();
+    getChassisSpeeds(chassisSpeeds);
+    var moduleStates = new SwerveModuleState[moduleSpeedsMetersPerSecond.length];
+    for (int i = 0; i < moduleStates.length; i++) {
+      moduleStates[i] = new SwerveModuleState();
+      getModuleState(i, moduleStates[i]);
+    }
+    return new SwerveSetpoint(chassisSpeeds, moduleStates);
+  }
+}
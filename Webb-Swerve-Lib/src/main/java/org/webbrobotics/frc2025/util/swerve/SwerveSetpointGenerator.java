@@ -17,6 +17,7 @@ import java.util.Optional;
 import lombok.Builder;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.ExtensionMethod;
+import org.ejml.simple.SimpleMatrix;
 import org.webbrobotics.frc2025.util.EqualsUtil;
 import org.webbrobotics.frc2025.util.GeomUtil;
 
@@ -28,14 +29,31 @@ import org.webbrobotics.frc2025.util.GeomUtil;
  * rotation speed and wheel velocity/acceleration. By generating a new setpoint every iteration, the
  * robot will converge to the desired setpoint quickly while avoiding any intermediate state that is
  * kinematically infeasible (and can result in wheel slip or robot heading drift as a result).
+ * Given a center of gravity in the limits, chassis acceleration is also kept low enough that the
+ * robot doesn't tip over.
  */
 @Builder
 @RequiredArgsConstructor
 @ExtensionMethod({GeomUtil.class, EqualsUtil.GeomExtensions.class})
 public class SwerveSetpointGenerator {
+  private static final int maxRootIterations = 10;
+  // Below this squared change in module velocity, the drive limit is solved by searching
+  private static final double minDriveQuadraticA = 1e-12;
+  // Kinematics keeps the previous angle of slower modules, so it may not match their velocity
+  private static final double minMovingSpeed = 1e-6;
+  private static final double piCos = Math.cos(Math.PI);
+  private static final double piSin = Math.sin(Math.PI);
+  private static final double gravity = 9.81;
+
   private final SwerveDriveKinematics kinematics;
   private final Translation2d[] moduleLocations;
 
+  // Brackets kept by each iteration of the root finder
+  private final double[] rootGuesses = new double[maxRootIterations + 1];
+  private final boolean[] rootUpperBrackets = new boolean[maxRootIterations + 1];
+  // Scratch for the allocation-free generator, sized on first use
+  private final Workspace workspace = new Workspace();
+
   /**
    * Check if it would be faster to go to the opposite of the goal heading (and reverse drive
    * direction).
@@ -60,31 +78,38 @@ public class SwerveSetpointGenerator {
     }
   }
 
-  @FunctionalInterface
-  private interface Function2d {
-    double f(double x, double y);
+  /**
+   * Returns whether a module points further from its velocity than it can steer in one loop. This
+   * only happens while it is barely moving, since its angle is held below the speed kinematics can
+   * give a direction for, so it is steered like a stopped module.
+   */
+  private boolean isMisaligned(double vx, double vy, double headingRad, double max_theta_step) {
+    double velocityRad = unwrapAngle(headingRad, Math.atan2(vy, vx));
+    return Math.abs(velocityRad - headingRad) > max_theta_step;
   }
 
   /**
-   * Find the root of the generic 2D parametric function 'func' using the regula falsi technique.
-   * This is a pretty naive way to do root finding, but it's usually faster than simple bisection
-   * while being robust in ways that e.g. the Newton-Raphson method isn't.
+   * Find the root of a 2D parametric function using the regula falsi technique. This is a pretty
+   * naive way to do root finding, but it's usually faster than simple bisection while being robust
+   * in ways that e.g. the Newton-Raphson method isn't.
    *
-   * @param func The Function2d to take the root of.
+   * <p>The function is the drive velocity minus an offset. Each iteration narrows the bracket in
+   * place and records which side was kept, and the interpolant is assembled from the innermost
+   * bracket outward so the result matches a recursive search exactly.
+   *
+   * @param offset The value subtracted from the drive velocity.
    * @param x_0 x value of the lower bracket.
    * @param y_0 y value of the lower bracket.
-   * @param f_0 value of 'func' at x_0, y_0 (passed in by caller to save a call to 'func' during
-   *     recursion)
+   * @param f_0 value of the function at x_0, y_0.
    * @param x_1 x value of the upper bracket.
    * @param y_1 y value of the upper bracket.
-   * @param f_1 value of 'func' at x_1, y_1 (passed in by caller to save a call to 'func' during
-   *     recursion)
+   * @param f_1 value of the function at x_1, y_1.
    * @param iterations_left Number of iterations of root finding left.
    * @return The parameter value 's' that interpolating between 0 and 1 that corresponds to the
    *     (approximate) root.
    */
   private double findRoot(
-      Function2d func,
+      double offset,
       double x_0,
       double y_0,
       double f_0,
@@ -92,25 +117,52 @@ public class SwerveSetpointGenerator {
       double y_1,
       double f_1,
       int iterations_left) {
-    if (iterations_left < 0 || epsilonEquals(f_0, f_1)) {
-      return 1.0;
+    final double[] guesses = rootGuesses;
+    final boolean[] upper = rootUpperBrackets;
+    int depth = 0;
+    while (iterations_left >= 0 && !epsilonEquals(f_0, f_1) && depth < guesses.length) {
+      var s_guess = Math.max(0.0, Math.min(1.0, -f_0 / (f_1 - f_0)));
+      var x_guess = (x_1 - x_0) * s_guess + x_0;
+      var y_guess = (y_1 - y_0) * s_guess + y_0;
+      var f_guess = Math.hypot(x_guess, y_guess) - offset;
+      guesses[depth] = s_guess;
+      if (Math.signum(f_0) == Math.signum(f_guess)) {
+        // 0 and guess on same side of root, so use upper bracket.
+        upper[depth] = true;
+        x_0 = x_guess;
+        y_0 = y_guess;
+        f_0 = f_guess;
+      } else {
+        // Use lower bracket.
+        upper[depth] = false;
+        x_1 = x_guess;
+        y_1 = y_guess;
+        f_1 = f_guess;
+      }
+      depth++;
+      iterations_left--;
     }
-    var s_guess = Math.max(0.0, Math.min(1.0, -f_0 / (f_1 - f_0)));
-    var x_guess = (x_1 - x_0) * s_guess + x_0;
-    var y_guess = (y_1 - y_0) * s_guess + y_0;
-    var f_guess = func.f(x_guess, y_guess);
-    if (Math.signum(f_0) == Math.signum(f_guess)) {
-      // 0 and guess on same side of root, so use upper bracket.
-      return s_guess
-          + (1.0 - s_guess)
-              * findRoot(func, x_guess, y_guess, f_guess, x_1, y_1, f_1, iterations_left - 1);
-    } else {
-      // Use lower bracket.
-      return s_guess
-          * findRoot(func, x_0, y_0, f_0, x_guess, y_guess, f_guess, iterations_left - 1);
+
+    double s = 1.0;
+    for (int i = depth - 1; i >= 0; i--) {
+      s = upper[i] ? guesses[i] + (1.0 - guesses[i]) * s : guesses[i] * s;
     }
+    return s;
   }
 
+  /**
+   * Find the max interpolant for which the steering angle stays within max_deviation of its value
+   * at s=0, by solving for the crossing in closed form.
+   *
+   * <p>Along the line from the start to the goal velocity, the steering angle sweeps monotonically
+   * by less than half a turn, so it reaches the limit angle exactly once: where the line crosses
+   * the ray at that angle. With u the unit vector at the limit angle, the crossing is where the
+   * cross product with the interpolated velocity is zero:
+   *
+   * <pre>
+   * (1 - s) * (u x v_0) + s * (u x v_1) = 0
+   * </pre>
+   */
   protected double findSteeringMaxS(
       double x_0,
       double y_0,
@@ -118,22 +170,37 @@ public class SwerveSetpointGenerator {
       double x_1,
       double y_1,
       double f_1,
-      double max_deviation,
-      int max_iterations) {
+      double max_deviation) {
     f_1 = unwrapAngle(f_0, f_1);
     double diff = f_1 - f_0;
     if (Math.abs(diff) <= max_deviation) {
       // Can go all the way to s=1.
       return 1.0;
     }
-    double offset = f_0 + Math.signum(diff) * max_deviation;
-    Function2d func =
-        (x, y) -> {
-          return unwrapAngle(f_0, Math.atan2(y, x)) - offset;
-        };
-    return findRoot(func, x_0, y_0, f_0 - offset, x_1, y_1, f_1 - offset, max_iterations);
+    final double offset = f_0 + Math.signum(diff) * max_deviation;
+    final double cross_0 = Math.cos(offset) * y_0 - Math.sin(offset) * x_0;
+    final double cross_1 = Math.cos(offset) * y_1 - Math.sin(offset) * x_1;
+    return Math.max(0.0, Math.min(1.0, cross_0 / (cross_0 - cross_1)));
   }
 
+  /**
+   * Find the max interpolant for which the drive velocity stays within max_vel_step of its value at
+   * s=0, by solving for the crossings in closed form.
+   *
+   * <p>Our drive velocity between s=0 and s=1 is the norm of a linear interpolation, so its square
+   * is quadratic in s:
+   *
+   * <pre>
+   * v^2 = ((x_1 - x_0) * s + x_0)^2 + ((y_1 - y_0) * s + y_0)^2
+   *     = a * s^2 + b * s + c
+   * </pre>
+   *
+   * The velocity is convex in s. It crosses the upper limit f_0 + max_vel_step at most once, on the
+   * upper root of v^2 = limit^2. While it is decreasing it can first cross the lower limit f_0 -
+   * max_vel_step, on the lower root, even if it ends up faster than it started. The answer is the
+   * first of these crossings, since the setpoint may stop anywhere before it. Degenerate cases fall
+   * back to {@link #findDriveMaxSIterative}.
+   */
   protected double findDriveMaxS(
       double x_0,
       double y_0,
@@ -143,40 +210,97 @@ public class SwerveSetpointGenerator {
       double f_1,
       double max_vel_step,
       int max_iterations) {
+    final double dx = x_1 - x_0;
+    final double dy = y_1 - y_0;
+    final double a = dx * dx + dy * dy;
+    if (a < minDriveQuadraticA) {
+      // No change in velocity to speak of.
+      return findDriveMaxSIterative(x_0, y_0, f_0, x_1, y_1, f_1, max_vel_step, max_iterations);
+    }
+    final double b = 2.0 * (x_0 * dx + y_0 * dy);
+    final double v_0_squared = x_0 * x_0 + y_0 * y_0;
+    double s = 1.0;
+
+    // The upper limit has one root on each side of s=0, so take the positive one.
+    final double upper_limit = f_0 + max_vel_step;
+    final double upper_c = v_0_squared - upper_limit * upper_limit;
+    final double upper_q = -0.5 * (b + Math.copySign(Math.sqrt(b * b - 4.0 * a * upper_c), b));
+    if (upper_q != 0.0) {
+      s = Math.min(s, Math.max(upper_q / a, upper_c / upper_q));
+    }
+
+    // The lower limit is only crossed while the velocity is decreasing, on the lower root.
+    final double lower_limit = f_0 - max_vel_step;
+    final double lower_c = v_0_squared - lower_limit * lower_limit;
+    final double lower_discriminant = b * b - 4.0 * a * lower_c;
+    if (lower_limit > 0.0 && b < 0.0 && lower_discriminant >= 0.0) {
+      // Stable form of the quadratic formula, which avoids cancellation between b and the root.
+      final double lower_q = -0.5 * (b - Math.sqrt(lower_discriminant));
+      s = Math.min(s, Math.min(lower_q / a, lower_c / lower_q));
+    }
+    return Math.max(0.0, s);
+  }
+
+  /**
+   * Find the max drive interpolant by searching for the crossing of whichever limit the velocity
+   * ends up beyond. This misses the lower limit when the velocity dips below it on the way to a
+   * faster goal, which only matters for large changes in velocity.
+   */
+  protected double findDriveMaxSIterative(
+      double x_0,
+      double y_0,
+      double f_0,
+      double x_1,
+      double y_1,
+      double f_1,
+      double max_vel_step,
+      int max_iterations) {
     double diff = f_1 - f_0;
     if (Math.abs(diff) <= max_vel_step) {
       // Can go all the way to s=1.
       return 1.0;
     }
     double offset = f_0 + Math.signum(diff) * max_vel_step;
-    Function2d func =
-        (x, y) -> {
-          return Math.hypot(x, y) - offset;
-        };
-    return findRoot(func, x_0, y_0, f_0 - offset, x_1, y_1, f_1 - offset, max_iterations);
+    return findRoot(offset, x_0, y_0, f_0 - offset, x_1, y_1, f_1 - offset, max_iterations);
   }
 
-  // protected double findDriveMaxS(
-  //     double x_0, double y_0, double x_1, double y_1, double max_vel_step) {
-  //   // Our drive velocity between s=0 and s=1 is quadratic in s:
-  //   // v^2 = ((x_1 - x_0) * s + x_0)^2 + ((y_1 - y_0) * s + y_0)^2
-  //   //     = a * s^2 + b * s + c
-  //   // Where:
-  //   //   a = (x_1 - x_0)^2 + (y_1 - y_0)^2
-  //   //   b = 2 * x_0 * (x_1 - x_0) + 2 * y_0 * (y_1 - y_0)
-  //   //   c = x_0^2 + y_0^2
-  //   // We want to find where this quadratic results in a velocity that is > max_vel_step from our
-  //   // velocity at s=0:
-  //   // sqrt(x_0^2 + y_0^2) +/- max_vel_step = ...quadratic...
-  //   final double dx = x_1 - x_0;
-  //   final double dy = y_1 - y_0;
-  //   final double a = dx * dx + dy * dy;
-  //   final double b = 2.0 * x_0 * dx + 2.0 * y_0 * dy;
-  //   final double c = x_0 * x_0 + y_0 * y_0;
-  //   final double v_limit_upper_2 = Math.pow(Math.hypot(x_0, y_0) + max_vel_step, 2.0);
-  //   final double v_limit_lower_2 = Math.pow(Math.hypot(x_0, y_0) - max_vel_step, 2.0);
-  //   return 0.0;
-  // }
+  /**
+   * Find the max interpolant for which the robot doesn't tip over an edge of its support polygon,
+   * the convex hull of the modules.
+   *
+   * <p>Accelerating the center of gravity at height h by a moves the point the floor pushes back
+   * through, the zero moment point, to p - h / g * a. The robot tips once it leaves the support
+   * polygon. For an edge with outward normal n at offset d, the acceleration away from it must stay
+   * within (d - n * p) * g / h. The acceleration of the center of gravity is linear in s, so each
+   * edge bounds s directly. The centripetal acceleration from turning while driving is not limited,
+   * since the setpoint can only reduce it by slowing down.
+   */
+  protected double findTipMaxS(
+      final ModuleLimits limits, double dx, double dy, double dtheta, double dt) {
+    final double height = limits.centerOfGravityHeight();
+    if (height <= 0.0) {
+      return 1.0;
+    }
+    final Workspace w = workspace;
+    w.allocate(moduleLocations);
+    final double cgX = limits.centerOfGravityX();
+    final double cgY = limits.centerOfGravityY();
+    // Acceleration of the center of gravity at s=1
+    final double ax = (dx - dtheta * cgY) / dt;
+    final double ay = (dy + dtheta * cgX) / dt;
+    double s = 1.0;
+    for (int i = 0; i < w.supportEdgeCount; i++) {
+      final double awayAcceleration = -(w.supportNormalX[i] * ax + w.supportNormalY[i] * ay);
+      if (awayAcceleration <= 0.0) {
+        // Moves the zero moment point away from this edge.
+        continue;
+      }
+      final double margin =
+          w.supportOffset[i] - (w.supportNormalX[i] * cgX + w.supportNormalY[i] * cgY);
+      s = Math.min(s, Math.max(0.0, margin) * gravity / height / awayAcceleration);
+    }
+    return s;
+  }
 
   /**
    * Generate a new setpoint.
@@ -224,12 +348,14 @@ public class SwerveSetpointGenerator {
     Rotation2d[] desired_heading = new Rotation2d[modules.length];
     boolean all_modules_should_flip = true;
     for (int i = 0; i < modules.length; ++i) {
+      // Start from the velocity given by the chassis speeds, which are what gets interpolated. The
+      // angle of a module that was just steered while stopped can be slightly off from it.
       prev_vx[i] =
-          prevSetpoint.moduleStates()[i].angle.getCos()
-              * prevSetpoint.moduleStates()[i].speedMetersPerSecond;
+          prevSetpoint.chassisSpeeds().vxMetersPerSecond
+              - modules[i].getY() * prevSetpoint.chassisSpeeds().omegaRadiansPerSecond;
       prev_vy[i] =
-          prevSetpoint.moduleStates()[i].angle.getSin()
-              * prevSetpoint.moduleStates()[i].speedMetersPerSecond;
+          prevSetpoint.chassisSpeeds().vyMetersPerSecond
+              + modules[i].getX() * prevSetpoint.chassisSpeeds().omegaRadiansPerSecond;
       prev_heading[i] = prevSetpoint.moduleStates()[i].angle;
       if (prevSetpoint.moduleStates()[i].speedMetersPerSecond < 0.0) {
         prev_heading[i] = prev_heading[i].rotateBy(Rotation2d.fromRadians(Math.PI));
@@ -288,11 +414,12 @@ public class SwerveSetpointGenerator {
         continue;
       }
       overrideSteering.add(Optional.empty());
-      if (epsilonEquals(prevSetpoint.moduleStates()[i].speedMetersPerSecond, 0.0)) {
+      if (epsilonEquals(prevSetpoint.moduleStates()[i].speedMetersPerSecond, 0.0, minMovingSpeed)
+          || isMisaligned(prev_vx[i], prev_vy[i], prev_heading[i].getRadians(), max_theta_step)) {
         // If module is stopped, we know that we will need to move straight to the final steering
         // angle, so limit based
         // purely on rotation in place.
-        if (epsilonEquals(desiredModuleState[i].speedMetersPerSecond, 0.0)) {
+        if (epsilonEquals(desiredModuleState[i].speedMetersPerSecond, 0.0, minMovingSpeed)) {
           // Goal angle doesn't matter. Just leave module at its current angle.
           overrideSteering.set(i, Optional.of(prevSetpoint.moduleStates()[i].angle));
           continue;
@@ -328,7 +455,6 @@ public class SwerveSetpointGenerator {
         continue;
       }
 
-      final int kMaxIterations = 8;
       double s =
           findSteeringMaxS(
               prev_vx[i],
@@ -337,8 +463,7 @@ public class SwerveSetpointGenerator {
               desired_vx[i],
               desired_vy[i],
               desired_heading[i].getRadians(),
-              max_theta_step,
-              kMaxIterations);
+              max_theta_step);
       min_s = Math.min(min_s, s);
     }
 
@@ -371,6 +496,11 @@ public class SwerveSetpointGenerator {
       min_s = Math.min(min_s, s);
     }
 
+    // Enforce the tipping limit on chassis acceleration.
+    if (min_s > 0.0) {
+      min_s = Math.min(min_s, findTipMaxS(limits, dx, dy, dtheta, dt));
+    }
+
     ChassisSpeeds retSpeeds =
         new ChassisSpeeds(
             prevSetpoint.chassisSpeeds().vxMetersPerSecond + min_s * dx,
@@ -385,6 +515,10 @@ public class SwerveSetpointGenerator {
           retStates[i].speedMetersPerSecond *= -1.0;
         }
         retStates[i].angle = override;
+      } else if (Math.abs(retStates[i].speedMetersPerSecond) < minMovingSpeed) {
+        // Kinematics gives modules this slow the heading it last computed, the desired one, so
+        // leave the module at its previous angle instead.
+        retStates[i].angle = prevSetpoint.moduleStates()[i].angle;
       }
       final var deltaRotation =
           prevSetpoint.moduleStates()[i].angle.unaryMinus().rotateBy(retStates[i].angle);
@@ -395,4 +529,570 @@ public class SwerveSetpointGenerator {
     }
     return new SwerveSetpoint(retSpeeds, retStates);
   }
+
+  /**
+   * Preallocated primitive scratch for {@link #generateSetpoint(ModuleLimits,
+   * MutableSwerveSetpoint, ChassisSpeeds, double, MutableSwerveSetpoint)}. Rotations are stored as
+   * their radians, cosine and sine, and every operation mirrors the {@link Rotation2d} and {@link
+   * SwerveDriveKinematics} math it replaces.
+   */
+  private static class Workspace {
+    int moduleCount = -1;
+    double[] moduleX;
+    double[] moduleY;
+    // Module velocities computed by toModuleStates
+    double[] moduleVxs;
+    double[] moduleVys;
+    // Pseudo-inverse of the inverse kinematics matrix, as used by SwerveDriveKinematics
+    double[][] forwardKinematics;
+    // Edges of the support polygon in counterclockwise order, as outward normals and offsets
+    int supportEdgeCount;
+    double[] supportNormalX;
+    double[] supportNormalY;
+    double[] supportOffset;
+    // Last heading of each module, for modules that are not moving
+    double[] headingRad;
+    double[] headingCos;
+    double[] headingSin;
+
+    double prevVx;
+    double prevVy;
+    double prevOmega;
+    double[] prevSpeed;
+    double[] prevAngleRad;
+    double[] prevAngleCos;
+    double[] prevAngleSin;
+
+    double[] desiredSpeed;
+    double[] desiredAngleRad;
+    double[] desiredAngleCos;
+    double[] desiredAngleSin;
+
+    double[] prevVxs;
+    double[] prevVys;
+    double[] prevHeadingRad;
+    double[] desiredVxs;
+    double[] desiredVys;
+    double[] desiredHeadingRad;
+
+    boolean[] hasOverride;
+    double[] overrideRad;
+    double[] overrideCos;
+    double[] overrideSin;
+
+    double[] retSpeed;
+    double[] retAngleRad;
+    double[] retAngleCos;
+    double[] retAngleSin;
+
+    // Output of the chassis speeds and rotation helpers
+    double chassisVx;
+    double chassisVy;
+    double chassisOmega;
+    double rotationRad;
+    double rotationCos;
+    double rotationSin;
+
+    void allocate(Translation2d[] moduleLocations) {
+      int n = moduleLocations.length;
+      if (moduleCount == n) {
+        return;
+      }
+      moduleCount = n;
+      moduleX = new double[n];
+      moduleY = new double[n];
+      moduleVxs = new double[n];
+      moduleVys = new double[n];
+      var inverseKinematics = new SimpleMatrix(n * 2, 3);
+      for (int i = 0; i < n; i++) {
+        moduleX[i] = moduleLocations[i].getX();
+        moduleY[i] = moduleLocations[i].getY();
+        inverseKinematics.setRow(i * 2, 0, 1, 0, -moduleY[i]);
+        inverseKinematics.setRow(i * 2 + 1, 0, 0, 1, moduleX[i]);
+      }
+      var pseudoInverse = inverseKinematics.pseudoInverse();
+      forwardKinematics = new double[3][n * 2];
+      for (int row = 0; row < 3; row++) {
+        for (int col = 0; col < n * 2; col++) {
+          forwardKinematics[row][col] = pseudoInverse.get(row, col);
+        }
+      }
+      computeSupportPolygon();
+      headingRad = new double[n];
+      headingCos = new double[n];
+      headingSin = new double[n];
+      for (int i = 0; i < n; i++) {
+        headingCos[i] = 1.0;
+      }
+
+      prevSpeed = new double[n];
+      prevAngleRad = new double[n];
+      prevAngleCos = new double[n];
+      prevAngleSin = new double[n];
+      desiredSpeed = new double[n];
+      desiredAngleRad = new double[n];
+      desiredAngleCos = new double[n];
+      desiredAngleSin = new double[n];
+      prevVxs = new double[n];
+      prevVys = new double[n];
+      prevHeadingRad = new double[n];
+      desiredVxs = new double[n];
+      desiredVys = new double[n];
+      desiredHeadingRad = new double[n];
+      hasOverride = new boolean[n];
+      overrideRad = new double[n];
+      overrideCos = new double[n];
+      overrideSin = new double[n];
+      retSpeed = new double[n];
+      retAngleRad = new double[n];
+      retAngleCos = new double[n];
+      retAngleSin = new double[n];
+    }
+
+    /**
+     * Computes the edges of the convex hull of the modules with Andrew's monotone chain. Modules in
+     * a line have no edges, so they are never limited for tipping.
+     */
+    private void computeSupportPolygon() {
+      int n = moduleCount;
+      // Sort by x, then y, with an insertion sort since there are only a few modules
+      int[] order = new int[n];
+      for (int i = 0; i < n; i++) {
+        int j = i;
+        while (j > 0
+            && (moduleX[order[j - 1]] > moduleX[i]
+                || (moduleX[order[j - 1]] == moduleX[i] && moduleY[order[j - 1]] > moduleY[i]))) {
+          order[j] = order[j - 1];
+          j--;
+        }
+        order[j] = i;
+      }
+
+      // Lower hull, then upper hull, ending back at the first module
+      int[] hull = new int[2 * n];
+      int size = 0;
+      for (int i = 0; i < n; i++) {
+        while (size >= 2 && cross(hull[size - 2], hull[size - 1], order[i]) <= 0.0) {
+          size--;
+        }
+        hull[size++] = order[i];
+      }
+      for (int i = n - 2, lowerSize = size + 1; i >= 0; i--) {
+        while (size >= lowerSize && cross(hull[size - 2], hull[size - 1], order[i]) <= 0.0) {
+          size--;
+        }
+        hull[size++] = order[i];
+      }
+
+      supportEdgeCount = size >= 4 ? size - 1 : 0;
+      supportNormalX = new double[supportEdgeCount];
+      supportNormalY = new double[supportEdgeCount];
+      supportOffset = new double[supportEdgeCount];
+      for (int i = 0; i < supportEdgeCount; i++) {
+        double edgeX = moduleX[hull[i + 1]] - moduleX[hull[i]];
+        double edgeY = moduleY[hull[i + 1]] - moduleY[hull[i]];
+        double length = Math.hypot(edgeX, edgeY);
+        supportNormalX[i] = edgeY / length;
+        supportNormalY[i] = -edgeX / length;
+        supportOffset[i] =
+            supportNormalX[i] * moduleX[hull[i]] + supportNormalY[i] * moduleY[hull[i]];
+      }
+    }
+
+    /** Returns the cross product of the vectors from module o to modules a and b. */
+    private double cross(int o, int a, int b) {
+      return (moduleX[a] - moduleX[o]) * (moduleY[b] - moduleY[o])
+          - (moduleY[a] - moduleY[o]) * (moduleX[b] - moduleX[o]);
+    }
+
+    /** Sets the rotation output to {@code new Rotation2d(x, y)}. */
+    void setRotation(double x, double y) {
+      double magnitude = Math.hypot(x, y);
+      if (magnitude > 1e-6) {
+        rotationCos = x / magnitude;
+        rotationSin = y / magnitude;
+      } else {
+        rotationCos = 1.0;
+        rotationSin = 0.0;
+      }
+      rotationRad = Math.atan2(rotationSin, rotationCos);
+    }
+
+    /** Sets the rotation output to {@code a.rotateBy(b)}. */
+    void rotateBy(double aCos, double aSin, double bCos, double bSin) {
+      setRotation(aCos * bCos - aSin * bSin, aCos * bSin + aSin * bCos);
+    }
+
+    /** Sets the rotation output to {@code a.unaryMinus().rotateBy(b)}. */
+    void relativeRotation(double aRad, double bCos, double bSin) {
+      rotateBy(Math.cos(-aRad), Math.sin(-aRad), bCos, bSin);
+    }
+
+    /**
+     * Computes module states like {@link SwerveDriveKinematics#toSwerveModuleStates}, including
+     * keeping the previous heading of modules that are not moving.
+     */
+    void toModuleStates(
+        double vx,
+        double vy,
+        double omega,
+        double[] speeds,
+        double[] anglesRad,
+        double[] anglesCos,
+        double[] anglesSin) {
+      if (vx == 0.0 && vy == 0.0 && omega == 0.0) {
+        for (int i = 0; i < moduleCount; i++) {
+          speeds[i] = 0.0;
+          anglesRad[i] = headingRad[i];
+          anglesCos[i] = headingCos[i];
+          anglesSin[i] = headingSin[i];
+        }
+        return;
+      }
+      // Module velocities first, then their speeds and angles
+      for (int i = 0; i < moduleCount; i++) {
+        moduleVxs[i] = 1.0 * vx + 0.0 * vy + -moduleY[i] * omega;
+        moduleVys[i] = 0.0 * vx + 1.0 * vy + moduleX[i] * omega;
+      }
+      for (int i = 0; i < moduleCount; i++) {
+        double x = moduleVxs[i];
+        double y = moduleVys[i];
+        double speed = Math.hypot(x, y);
+        if (speed > 1e-6) {
+          setRotation(x, y);
+          headingRad[i] = rotationRad;
+          headingCos[i] = rotationCos;
+          headingSin[i] = rotationSin;
+        }
+        speeds[i] = speed;
+        anglesRad[i] = headingRad[i];
+        anglesCos[i] = headingCos[i];
+        anglesSin[i] = headingSin[i];
+      }
+    }
+
+    /** Sets the chassis speeds output like {@link SwerveDriveKinematics#toChassisSpeeds}. */
+    void toChassisSpeeds(double[] speeds, double[] anglesCos, double[] anglesSin) {
+      chassisVx = multiplyForwardKinematics(0, speeds, anglesCos, anglesSin);
+      chassisVy = multiplyForwardKinematics(1, speeds, anglesCos, anglesSin);
+      chassisOmega = multiplyForwardKinematics(2, speeds, anglesCos, anglesSin);
+    }
+
+    private double multiplyForwardKinematics(
+        int row, double[] speeds, double[] anglesCos, double[] anglesSin) {
+      double[] coefficients = forwardKinematics[row];
+      double total = coefficients[0] * (speeds[0] * anglesCos[0]);
+      total += coefficients[1] * (speeds[0] * anglesSin[0]);
+      for (int i = 1; i < moduleCount; i++) {
+        total += coefficients[i * 2] * (speeds[i] * anglesCos[i]);
+        total += coefficients[i * 2 + 1] * (speeds[i] * anglesSin[i]);
+      }
+      return total;
+    }
+  }
+
+  /**
+   * Resets the headings used by the allocation-free generator for modules that are not moving,
+   * like {@link SwerveDriveKinematics#resetHeadings}.
+   */
+  public void resetHeadings(Rotation2d... headings) {
+    workspace.allocate(moduleLocations);
+    for (int i = 0; i < workspace.moduleCount; i++) {
+      workspace.headingRad[i] = headings[i].getRadians();
+      workspace.headingCos[i] = headings[i].getCos();
+      workspace.headingSin[i] = headings[i].getSin();
+    }
+  }
+
+  /**
+   * Generate a new setpoint without allocating. The result is identical to {@link
+   * #generateSetpoint(ModuleLimits, SwerveSetpoint, ChassisSpeeds, double)}, but all intermediate
+   * values are kept in preallocated primitive scratch and the result is written into a setpoint
+   * owned by the caller. Modules that are not moving keep the heading tracked by this generator
+   * rather than by the kinematics object.
+   *
+   * <p>Not thread safe, since the scratch is shared between calls.
+   *
+   * @param limits The kinematic limits to respect for this setpoint.
+   * @param prevSetpoint The previous setpoint motion. Normally, you'd pass in the previous
+   *     iteration setpoint instead of the actual measured/estimated kinematic state.
+   * @param desiredState The desired state of motion, such as from the driver sticks or a path
+   *     following algorithm.
+   * @param dt The loop time.
+   * @param output The setpoint to write, which may be the same object as prevSetpoint.
+   */
+  public void generateSetpoint(
+      final ModuleLimits limits,
+      final MutableSwerveSetpoint prevSetpoint,
+      final ChassisSpeeds desiredState,
+      double dt,
+      final MutableSwerveSetpoint output) {
+    final Workspace w = workspace;
+    w.allocate(moduleLocations);
+
+    // Copy the previous setpoint first, so the output can be the same object
+    w.prevVx = prevSetpoint.vxMetersPerSecond;
+    w.prevVy = prevSetpoint.vyMetersPerSecond;
+    w.prevOmega = prevSetpoint.omegaRadiansPerSecond;
+    for (int i = 0; i < w.moduleCount; ++i) {
+      w.prevSpeed[i] = prevSetpoint.moduleSpeedsMetersPerSecond[i];
+      w.prevAngleRad[i] = prevSetpoint.moduleAnglesRad[i];
+      w.prevAngleCos[i] = prevSetpoint.moduleAngleCos[i];
+      w.prevAngleSin[i] = prevSetpoint.moduleAngleSin[i];
+    }
+
+    generateSetpoint(
+        limits,
+        desiredState.vxMetersPerSecond,
+        desiredState.vyMetersPerSecond,
+        desiredState.omegaRadiansPerSecond,
+        dt,
+        output);
+  }
+
+  private static boolean isStopped(double vx, double vy, double omega) {
+    return epsilonEquals(vx, 0.0) && epsilonEquals(vy, 0.0) && epsilonEquals(omega, 0.0);
+  }
+
+  /** Generates a setpoint from the previous setpoint held in the workspace. */
+  private void generateSetpoint(
+      final ModuleLimits limits,
+      double desiredVx,
+      double desiredVy,
+      double desiredOmega,
+      double dt,
+      final MutableSwerveSetpoint output) {
+    final Workspace w = workspace;
+    final int moduleCount = w.moduleCount;
+
+    w.toModuleStates(
+        desiredVx,
+        desiredVy,
+        desiredOmega,
+        w.desiredSpeed,
+        w.desiredAngleRad,
+        w.desiredAngleCos,
+        w.desiredAngleSin);
+    // Make sure desiredState respects velocity limits.
+    if (limits.maxDriveVelocity() > 0.0) {
+      double realMaxSpeed = 0.0;
+      for (int i = 0; i < moduleCount; ++i) {
+        realMaxSpeed = Math.max(realMaxSpeed, Math.abs(w.desiredSpeed[i]));
+      }
+      if (realMaxSpeed > limits.maxDriveVelocity()) {
+        for (int i = 0; i < moduleCount; ++i) {
+          w.desiredSpeed[i] = w.desiredSpeed[i] / realMaxSpeed * limits.maxDriveVelocity();
+        }
+      }
+      w.toChassisSpeeds(w.desiredSpeed, w.desiredAngleCos, w.desiredAngleSin);
+      desiredVx = w.chassisVx;
+      desiredVy = w.chassisVy;
+      desiredOmega = w.chassisOmega;
+    }
+
+    // Special case: desiredState is a complete stop. In this case, module angle is arbitrary, so
+    // just use the previous angle.
+    boolean need_to_steer = true;
+    if (isStopped(desiredVx, desiredVy, desiredOmega)) {
+      need_to_steer = false;
+      for (int i = 0; i < moduleCount; ++i) {
+        w.desiredAngleRad[i] = w.prevAngleRad[i];
+        w.desiredAngleCos[i] = w.prevAngleCos[i];
+        w.desiredAngleSin[i] = w.prevAngleSin[i];
+        w.desiredSpeed[i] = 0.0;
+      }
+    }
+
+    // For each module, compute local Vx and Vy vectors.
+    // Start from the velocity given by the chassis speeds, which are what gets interpolated. The
+    // angle of a module that was just steered while stopped can be slightly off from it.
+    for (int i = 0; i < moduleCount; ++i) {
+      w.prevVxs[i] = w.prevVx - w.moduleY[i] * w.prevOmega;
+      w.prevVys[i] = w.prevVy + w.moduleX[i] * w.prevOmega;
+    }
+    for (int i = 0; i < moduleCount; ++i) {
+      w.desiredVxs[i] = w.desiredAngleCos[i] * w.desiredSpeed[i];
+      w.desiredVys[i] = w.desiredAngleSin[i] * w.desiredSpeed[i];
+    }
+    boolean all_modules_should_flip = true;
+    for (int i = 0; i < moduleCount; ++i) {
+      double prevHeadingCos = w.prevAngleCos[i];
+      double prevHeadingSin = w.prevAngleSin[i];
+      w.prevHeadingRad[i] = w.prevAngleRad[i];
+      if (w.prevSpeed[i] < 0.0) {
+        w.rotateBy(prevHeadingCos, prevHeadingSin, piCos, piSin);
+        w.prevHeadingRad[i] = w.rotationRad;
+        prevHeadingCos = w.rotationCos;
+        prevHeadingSin = w.rotationSin;
+      }
+      double desiredHeadingCos = w.desiredAngleCos[i];
+      double desiredHeadingSin = w.desiredAngleSin[i];
+      w.desiredHeadingRad[i] = w.desiredAngleRad[i];
+      if (w.desiredSpeed[i] < 0.0) {
+        w.rotateBy(desiredHeadingCos, desiredHeadingSin, piCos, piSin);
+        w.desiredHeadingRad[i] = w.rotationRad;
+        desiredHeadingCos = w.rotationCos;
+        desiredHeadingSin = w.rotationSin;
+      }
+      if (all_modules_should_flip) {
+        w.relativeRotation(w.prevHeadingRad[i], desiredHeadingCos, desiredHeadingSin);
+        double required_rotation_rad = Math.abs(w.rotationRad);
+        if (required_rotation_rad < Math.PI / 2.0) {
+          all_modules_should_flip = false;
+        }
+      }
+    }
+    if (all_modules_should_flip
+        && !isStopped(w.prevVx, w.prevVy, w.prevOmega)
+        && !isStopped(desiredVx, desiredVy, desiredOmega)) {
+      // It will (likely) be faster to stop the robot, rotate the modules in place to the complement
+      // of the desired angle, and accelerate again.
+      generateSetpoint(limits, 0.0, 0.0, 0.0, dt, output);
+      return;
+    }
+
+    // Compute the deltas between start and goal.
+    double dx = desiredVx - w.prevVx;
+    double dy = desiredVy - w.prevVy;
+    double dtheta = desiredOmega - w.prevOmega;
+
+    // 's' interpolates between start and goal. At 0, we are at prevState and at 1, we are at
+    // desiredState.
+    double min_s = 1.0;
+
+    // Enforce steering velocity limits, remembering the steering angle of stopped modules.
+    final double max_theta_step = dt * limits.maxSteeringVelocity();
+    for (int i = 0; i < moduleCount; ++i) {
+      if (!need_to_steer) {
+        setOverride(i, w.prevAngleRad[i], w.prevAngleCos[i], w.prevAngleSin[i]);
+        continue;
+      }
+      w.hasOverride[i] = false;
+      if (epsilonEquals(w.prevSpeed[i], 0.0, minMovingSpeed)
+          || isMisaligned(w.prevVxs[i], w.prevVys[i], w.prevHeadingRad[i], max_theta_step)) {
+        // If module is stopped, we know that we will need to move straight to the final steering
+        // angle, so limit based purely on rotation in place.
+        if (epsilonEquals(w.desiredSpeed[i], 0.0, minMovingSpeed)) {
+          // Goal angle doesn't matter. Just leave module at its current angle.
+          setOverride(i, w.prevAngleRad[i], w.prevAngleCos[i], w.prevAngleSin[i]);
+          continue;
+        }
+
+        w.relativeRotation(w.prevAngleRad[i], w.desiredAngleCos[i], w.desiredAngleSin[i]);
+        if (Math.abs(w.rotationRad) > Math.PI / 2.0) {
+          w.rotateBy(w.rotationCos, w.rotationSin, piCos, piSin);
+        }
+        double necessaryRotationRad = w.rotationRad;
+        final double numStepsNeeded = Math.abs(necessaryRotationRad) / max_theta_step;
+
+        if (numStepsNeeded <= 1.0) {
+          // Steer directly to goal angle.
+          setOverride(i, w.desiredAngleRad[i], w.desiredAngleCos[i], w.desiredAngleSin[i]);
+          // Don't limit the global min_s;
+          continue;
+        } else {
+          // Adjust steering by max_theta_step.
+          double step = Math.signum(necessaryRotationRad) * max_theta_step;
+          w.rotateBy(w.prevAngleCos[i], w.prevAngleSin[i], Math.cos(step), Math.sin(step));
+          setOverride(i, w.rotationRad, w.rotationCos, w.rotationSin);
+          min_s = 0.0;
+          continue;
+        }
+      }
+      if (min_s == 0.0) {
+        // s can't get any lower. Save some CPU.
+        continue;
+      }
+
+      double s =
+          findSteeringMaxS(
+              w.prevVxs[i],
+              w.prevVys[i],
+              w.prevHeadingRad[i],
+              w.desiredVxs[i],
+              w.desiredVys[i],
+              w.desiredHeadingRad[i],
+              max_theta_step);
+      min_s = Math.min(min_s, s);
+    }
+
+    // Enforce drive wheel acceleration limits.
+    final double max_vel_step = dt * limits.maxDriveAcceleration();
+    for (int i = 0; i < moduleCount; ++i) {
+      if (min_s == 0.0) {
+        // No need to carry on.
+        break;
+      }
+      double vx_min_s =
+          min_s == 1.0 ? w.desiredVxs[i] : (w.desiredVxs[i] - w.prevVxs[i]) * min_s + w.prevVxs[i];
+      double vy_min_s =
+          min_s == 1.0 ? w.desiredVys[i] : (w.desiredVys[i] - w.prevVys[i]) * min_s + w.prevVys[i];
+      // Find the max s for this drive wheel. Search on the interval between 0 and min_s, because we
+      // already know we can't go faster than that.
+      final int kMaxIterations = 10;
+      double s =
+          min_s
+              * findDriveMaxS(
+                  w.prevVxs[i],
+                  w.prevVys[i],
+                  Math.hypot(w.prevVxs[i], w.prevVys[i]),
+                  vx_min_s,
+                  vy_min_s,
+                  Math.hypot(vx_min_s, vy_min_s),
+                  max_vel_step,
+                  kMaxIterations);
+      min_s = Math.min(min_s, s);
+    }
+
+    // Enforce the tipping limit on chassis acceleration.
+    if (min_s > 0.0) {
+      min_s = Math.min(min_s, findTipMaxS(limits, dx, dy, dtheta, dt));
+    }
+
+    double retVx = w.prevVx + min_s * dx;
+    double retVy = w.prevVy + min_s * dy;
+    double retOmega = w.prevOmega + min_s * dtheta;
+    w.toModuleStates(
+        retVx, retVy, retOmega, w.retSpeed, w.retAngleRad, w.retAngleCos, w.retAngleSin);
+    for (int i = 0; i < moduleCount; ++i) {
+      if (w.hasOverride[i]) {
+        w.relativeRotation(w.retAngleRad[i], w.overrideCos[i], w.overrideSin[i]);
+        if (Math.abs(w.rotationRad) > Math.PI / 2.0) {
+          w.retSpeed[i] *= -1.0;
+        }
+        w.retAngleRad[i] = w.overrideRad[i];
+        w.retAngleCos[i] = w.overrideCos[i];
+        w.retAngleSin[i] = w.overrideSin[i];
+      } else if (Math.abs(w.retSpeed[i]) < minMovingSpeed) {
+        w.retAngleRad[i] = w.prevAngleRad[i];
+        w.retAngleCos[i] = w.prevAngleCos[i];
+        w.retAngleSin[i] = w.prevAngleSin[i];
+      }
+      w.relativeRotation(w.prevAngleRad[i], w.retAngleCos[i], w.retAngleSin[i]);
+      if (Math.abs(w.rotationRad) > Math.PI / 2.0) {
+        w.rotateBy(w.retAngleCos[i], w.retAngleSin[i], piCos, piSin);
+        w.retAngleRad[i] = w.rotationRad;
+        w.retAngleCos[i] = w.rotationCos;
+        w.retAngleSin[i] = w.rotationSin;
+        w.retSpeed[i] *= -1.0;
+      }
+    }
+
+    output.vxMetersPerSecond = retVx;
+    output.vyMetersPerSecond = retVy;
+    output.omegaRadiansPerSecond = retOmega;
+    for (int i = 0; i < moduleCount; ++i) {
+      output.moduleSpeedsMetersPerSecond[i] = w.retSpeed[i];
+      output.moduleAnglesRad[i] = w.retAngleRad[i];
+      output.moduleAngleCos[i] = w.retAngleCos[i];
+      output.moduleAngleSin[i] = w.retAngleSin[i];
+    }
+  }
+
+  private void setOverride(int index, double angleRad, double angleCos, double angleSin) {
+    workspace.hasOverride[index] = true;
+    workspace.overrideRad[index] = angleRad;
+    workspace.overrideCos[index] = angleCos;
+    workspace.overrideSin[index] = angleSin;
+  }
 }
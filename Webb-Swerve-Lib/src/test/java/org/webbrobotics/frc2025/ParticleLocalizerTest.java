@@ -0,0 +1,112 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform2d;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ParticleLocalizerTest {
+  private static final int maxUpdates = 50;
+  private static final double tagNoiseMeters = 0.02;
+  private static final double tagNoiseRad = 0.01;
+  private static final double positionToleranceMeters = 0.1;
+  private static final double headingToleranceRad = 0.05;
+  // Synthetic layout with tags on three sides of the robot
+  private static final Pose2d[] tagPoses = {
+    new Pose2d(8.0, 1.0, Rotation2d.kPi),
+    new Pose2d(8.0, 5.0, Rotation2d.kPi),
+    new Pose2d(4.0, 7.0, Rotation2d.fromDegrees(-90.0))
+  };
+  // A single tag, whose flipped solution alone would put the robot on a different heading
+  private static final Pose2d[] ambiguousTagPoses = {new Pose2d(6.0, 2.0, Rotation2d.kPi)};
+  private static final Pose2d robotPose = new Pose2d(4.0, 3.0, Rotation2d.fromDegrees(20.0));
+
+  static {
+    // Load the constants without the HAL
+    Constants.disableHAL();
+  }
+
+  private final Random noise = new Random(254);
+
+  /** Returns the robot relative pose of a tag seen from the true pose, with noise. */
+  private Pose2d observe(Pose2d tagPose) {
+    var robotToTag = tagPose.relativeTo(robotPose);
+    return new Pose2d(
+        robotToTag.getX() + noise.nextGaussian() * tagNoiseMeters,
+        robotToTag.getY() + noise.nextGaussian() * tagNoiseMeters,
+        robotToTag.getRotation().plus(new Rotation2d(noise.nextGaussian() * tagNoiseRad)));
+  }
+
+  /** Returns the other solution of an ambiguous tag, with its yaw mirrored about the view ray. */
+  private static Pose2d flip(Pose2d robotToTag) {
+    double bearing = Math.atan2(robotToTag.getY(), robotToTag.getX());
+    return new Pose2d(
+        robotToTag.getTranslation(),
+        new Rotation2d(2.0 * bearing - robotToTag.getRotation().getRadians()));
+  }
+
+  /** Runs stationary updates until the localizer converges, returning whether it did. */
+  private boolean localize(ParticleLocalizer localizer, Pose2d[] tags, boolean flipped) {
+    for (int i = 0; i < maxUpdates; i++) {
+      localizer.predict(0.0, 0.0, 0.0);
+      for (var tagPose : tags) {
+        var robotToTag = observe(tagPose);
+        if (flipped) {
+          // Every tag reports the flipped solution as its best one
+          localizer.addObservation(tagPose, flip(robotToTag), robotToTag, Pose2d.kZero);
+        } else {
+          localizer.addObservation(tagPose, robotToTag, robotToTag, Pose2d.kZero);
+        }
+      }
+      if (localizer.update()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void assertNearRobotPose(Pose2d estimate) {
+    assertEquals(
+        0.0,
+        estimate.getTranslation().getDistance(robotPose.getTranslation()),
+        positionToleranceMeters);
+    assertEquals(
+        0.0,
+        MathUtil.angleModulus(
+            estimate.getRotation().getRadians() - robotPose.getRotation().getRadians()),
+        headingToleranceRad);
+  }
+
+  /** Starting from a close and a distant hypothesis, the filter must settle on the true pose. */
+  @Test
+  void convergesOnSyntheticLayout() {
+    var localizer = new ParticleLocalizer(new Random(1466));
+    localizer.start(
+        robotPose.transformBy(new Transform2d(0.3, -0.2, new Rotation2d(0.15))),
+        new Pose2d(10.0, 6.0, new Rotation2d(-2.0)));
+
+    assertTrue(localize(localizer, tagPoses, false), "Localizer did not converge");
+    assertNearRobotPose(localizer.getEstimate());
+  }
+
+  /**
+   * When a single tag always reports its flipped solution as the best one, the filter must stay on
+   * the true pose instead of being pulled toward the heading the flipped solution implies.
+   */
+  @Test
+  void rejectsFlippedSolutions() {
+    var localizer = new ParticleLocalizer(new Random(1466));
+    localizer.start(robotPose);
+
+    assertTrue(localize(localizer, ambiguousTagPoses, true), "Localizer did not converge");
+    assertNearRobotPose(localizer.getEstimate());
+  }
+}
@@ -0,0 +1,126 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.webbrobotics.frc2025.subsystems.drive.DriveConstants;
+
+class PoseEstimatorThreadTest {
+  private static final double samplePeriodSecs = 0.004;
+  private static final int samplesPerBatch = 5;
+  private static final int batchCount = 20;
+  private static final double speedMetersPerSec = 2.0;
+  private static final double yawRateRadPerSec = 0.5;
+  private static final long timeoutNanos = 2_000_000_000L;
+  private static final double poseToleranceMeters = 1e-9;
+
+  static {
+    // Load the drive constants without the HAL
+    Constants.disableHAL();
+  }
+
+  private final int moduleCount = DriveConstants.moduleTranslations.length;
+  private final double[] timestamps = new double[samplesPerBatch];
+  private final double[][] drivePositionsMeters = new double[moduleCount][samplesPerBatch];
+  private final double[][] turnPositionsRad = new double[moduleCount][samplesPerBatch];
+  private final double[] yawPositionsRad = new double[samplesPerBatch];
+
+  /** Fills one batch of samples driving straight ahead while the gyro turns. */
+  private void fillBatch(int batch) {
+    for (int i = 0; i < samplesPerBatch; i++) {
+      double time = (batch * samplesPerBatch + i + 1) * samplePeriodSecs;
+      timestamps[i] = time;
+      for (int j = 0; j < moduleCount; j++) {
+        drivePositionsMeters[j][i] = speedMetersPerSec * time;
+        turnPositionsRad[j][i] = 0.0;
+      }
+      yawPositionsRad[i] = yawRateRadPerSec * time;
+    }
+  }
+
+  private void addBatch(RobotState robotState) {
+    robotState.addOdometrySamples(
+        timestamps,
+        drivePositionsMeters,
+        turnPositionsRad,
+        yawPositionsRad,
+        null,
+        null,
+        samplesPerBatch);
+  }
+
+  /** Waits until the snapshot reaches a version, returning whether it did before the timeout. */
+  private static boolean awaitVersion(RobotState robotState, long version) {
+    long deadline = System.nanoTime() + timeoutNanos;
+    while (robotState.getSnapshot().version() < version) {
+      if (System.nanoTime() - deadline > 0) {
+        return false;
+      }
+      Thread.onSpinWait();
+    }
+    return true;
+  }
+
+  private static void assertPoseEquals(Pose2d expected, Pose2d actual) {
+    assertEquals(expected.getX(), actual.getX(), poseToleranceMeters);
+    assertEquals(expected.getY(), actual.getY(), poseToleranceMeters);
+    assertEquals(
+        expected.getRotation().getRadians(),
+        actual.getRotation().getRadians(),
+        poseToleranceMeters);
+  }
+
+  /**
+   * Frames and vision pushed through the estimator thread must publish the same snapshots as the
+   * same inputs fused on the caller's thread, and vision must pull the estimate off the odometry.
+   */
+  @Test
+  void threadedMatchesInline() {
+    var inline = new RobotState(false);
+    var threaded = new RobotState(true);
+
+    for (int batch = 0; batch < batchCount; batch++) {
+      fillBatch(batch);
+      addBatch(inline);
+      addBatch(threaded);
+      long version = inline.getSnapshot().version();
+      assertTrue(awaitVersion(threaded, version), "Odometry batch " + batch + " not integrated");
+      assertEquals(version, threaded.getSnapshot().version());
+      assertPoseEquals(inline.getSnapshot().pose(), threaded.getSnapshot().pose());
+    }
+
+    var odometryPose = inline.getOdometryPose();
+    double latestTimestamp = timestamps[samplesPerBatch - 1];
+    var visionPose =
+        new Pose2d(
+            odometryPose.getX() + 0.2,
+            odometryPose.getY() - 0.1,
+            odometryPose.getRotation().plus(Rotation2d.fromDegrees(2.0)));
+    var observations =
+        List.of(
+            new RobotState.VisionObservation(
+                visionPose, latestTimestamp - 0.02, VecBuilder.fill(0.1, 0.1, 0.1)),
+            new RobotState.VisionObservation(
+                visionPose, latestTimestamp - 0.01, VecBuilder.fill(0.1, 0.1, 0.1)));
+    inline.addVisionMeasurements(observations);
+    threaded.addVisionMeasurements(observations);
+    long version = inline.getSnapshot().version();
+    assertTrue(awaitVersion(threaded, version), "Vision measurements not fused");
+    assertEquals(version, threaded.getSnapshot().version());
+    assertPoseEquals(inline.getSnapshot().pose(), threaded.getSnapshot().pose());
+
+    var estimatedPose = threaded.getSnapshot().pose();
+    assertTrue(
+        estimatedPose.getTranslation().getDistance(visionPose.getTranslation())
+            < odometryPose.getTranslation().getDistance(visionPose.getTranslation()),
+        "Vision did not correct the estimate");
+  }
+}
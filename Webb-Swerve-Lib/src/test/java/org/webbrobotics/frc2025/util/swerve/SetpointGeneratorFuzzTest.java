@@ -0,0 +1,845 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025.util.swerve;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Translation3d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Randomized check that every setpoint from {@link SwerveSetpointGenerator} respects its {@link
+ * ModuleLimits}. Each episode draws a drivetrain, limits and loop period, then holds a sequence of
+ * random commands for random numbers of loops, feeding each setpoint back in as the previous one.
+ * Every loop runs both generator variants, which must agree exactly, and checks each module against
+ * the velocity, drive acceleration and steering velocity limits, and the chassis against the
+ * tipping limit when the limits have a center of gravity. Commands held long enough must be
+ * reached.
+ *
+ * <p>Episodes run in parallel and are seeded from a fixed seed and their index, so a failing
+ * episode can be replayed on its own. Failures are reduced to a single case that reproduces them
+ * on a new generator, with its inputs rounded as far as they still fail, and reported in the
+ * assertion message. Every limit must also be reached at some point, so the episodes are known to
+ * exercise them.
+ */
+class SetpointGeneratorFuzzTest {
+  // Change the seed or the range of episodes to search further or replay a failing episode
+  private static final long seed = 1466;
+  private static final int firstEpisode = 0;
+  private static final int episodes = 500;
+  private static final int loopsPerEpisode = 250;
+  private static final int minModules = 3;
+  private static final int maxModules = 6;
+  private static final int maxReportedFailures = 5;
+  // Every limit must be used at least this much by some setpoint
+  private static final double minLimitUsage = 0.99;
+  // Kinematics keeps the previous angle of modules slower than 1e-6 m/s, so their direction and the
+  // angle of a module that just started moving are only that accurate
+  private static final double velocityToleranceMetersPerSec = 1e-5;
+  private static final double angleToleranceRad = 1e-5;
+  private static final double stoppedSpeedMetersPerSec = 1e-6;
+  // Commands held this many times longer than it takes to stop, turn and accelerate must be reached
+  private static final double convergenceFactor = 2.0;
+  private static final int convergenceMarginLoops = 10;
+  private static final int maxShrinkPasses = 10;
+  private static final int maxShrinkDigits = 6;
+  private static final double gravity = 9.81;
+  // Layout of the case values, followed by the angle of each module while stopped
+  private static final int maxVelocityIndex = 0;
+  private static final int maxAccelerationIndex = 1;
+  private static final int maxSteeringVelocityIndex = 2;
+  private static final int dtIndex = 3;
+  private static final int centerOfGravityIndex = 4;
+  private static final int desiredIndex = 7;
+  private static final int prevSpeedsIndex = 10;
+  private static final int stoppedAnglesIndex = 13;
+
+  /** Guarantees checked on every setpoint. */
+  private enum Property {
+    /** Both generator variants must return the same setpoint. */
+    MISMATCH,
+    /** Every value in the setpoint must be finite. */
+    NOT_FINITE,
+    /** Module speeds must stay within the velocity limit. */
+    SPEED,
+    /** Module speeds must change by at most the acceleration limit over one loop. */
+    ACCELERATION,
+    /** Module angles must change by at most the steering velocity limit over one loop. */
+    STEERING,
+    /** Modules must reverse their drive direction rather than turn more than a quarter turn. */
+    FLIP,
+    /** Module states must match the chassis speeds of the setpoint. */
+    KINEMATICS,
+    /** Chassis acceleration must keep the zero moment point inside the support polygon. */
+    TIPPING,
+    /** Commands held long enough must be reached. */
+    CONVERGENCE
+  }
+
+  private record Violation(Property property, String description) {}
+
+  /** Generator inputs held for a number of loops, starting from a previous setpoint. */
+  private record Case(
+      Translation2d[] moduleLocations,
+      ModuleLimits limits,
+      double dt,
+      SwerveSetpoint prevSetpoint,
+      MutableSwerveSetpoint prev,
+      ChassisSpeeds desired,
+      int loops) {}
+
+  private record Failure(int episode, int loop, Violation violation, Case reproducer) {}
+
+  private record Result(Stats stats, Failure failure) {}
+
+  /** Largest fraction of each limit used. */
+  private static class Stats {
+    double maxSteering = 0.0;
+    double maxAcceleration = 0.0;
+    double maxTipping = 0.0;
+
+    void merge(Stats other) {
+      maxSteering = Math.max(maxSteering, other.maxSteering);
+      maxAcceleration = Math.max(maxAcceleration, other.maxAcceleration);
+      maxTipping = Math.max(maxTipping, other.maxTipping);
+    }
+  }
+
+  @Test
+  void respectsLimits() {
+    List<Result> results =
+        IntStream.range(firstEpisode, firstEpisode + episodes)
+            .parallel()
+            .mapToObj(episode -> runEpisode(seed, episode))
+            .toList();
+
+    List<Failure> failures =
+        results.stream().map(Result::failure).filter(Objects::nonNull).toList();
+    assertTrue(failures.isEmpty(), () -> describeFailures(failures));
+
+    var stats = new Stats();
+    results.forEach(result -> stats.merge(result.stats()));
+    assertTrue(stats.maxSteering >= minLimitUsage, "Steering limit not reached");
+    assertTrue(stats.maxAcceleration >= minLimitUsage, "Drive acceleration limit not reached");
+    assertTrue(stats.maxTipping >= minLimitUsage, "Tipping limit not reached");
+  }
+
+  /** Runs one episode, stopping at the first violation. */
+  private static Result runEpisode(long seed, int episode) {
+    var random = new Random(seed + episode * 0x9E3779B97F4A7C15L);
+    var moduleLocations = randomModuleLocations(random);
+    var limits = randomLimits(random, moduleLocations);
+    double dt = random.nextInt(4) == 0 ? 0.005 + random.nextDouble() * 0.025 : 0.02;
+    double radius = 0.0;
+    for (var location : moduleLocations) {
+      radius = Math.max(radius, location.getNorm());
+    }
+
+    // Start stopped, with the modules pointed in random directions
+    var moduleStates = new SwerveModuleState[moduleLocations.length];
+    for (int i = 0; i < moduleStates.length; i++) {
+      moduleStates[i] =
+          new SwerveModuleState(0.0, Rotation2d.fromRadians(randomSigned(random, Math.PI)));
+    }
+    var prevSetpoint = new SwerveSetpoint(new ChassisSpeeds(), moduleStates);
+    var prev = new MutableSwerveSetpoint(moduleStates.length);
+    prev.set(prevSetpoint);
+    var runner = new Runner(moduleLocations, limits, dt, prevSetpoint, prev);
+
+    var command = new ChassisSpeeds();
+    while (runner.loop < loopsPerEpisode) {
+      command = randomCommand(random, limits, radius, runner.prevSetpoint.chassisSpeeds(), command);
+      int convergenceLoops = runner.getConvergenceLoops(command);
+      int loops =
+          switch (random.nextInt(4)) {
+            case 0 -> random.nextInt(1, 4);
+            case 1 -> convergenceLoops + random.nextInt(20);
+            default -> random.nextInt(1, convergenceLoops + 1);
+          };
+      int loop = runner.loop;
+      var violation = runner.run(command, loops, loops >= convergenceLoops);
+      if (violation != null) {
+        if (violation.property() != Property.CONVERGENCE) {
+          loop = runner.loop;
+        }
+        return new Result(
+            runner.stats, new Failure(episode, loop, violation, runner.failingCase));
+      }
+    }
+    return new Result(runner.stats, null);
+  }
+
+  /** Runs both generator variants side by side from the same previous setpoint. */
+  private static class Runner {
+    private final Translation2d[] moduleLocations;
+    private final ModuleLimits limits;
+    private final double dt;
+    private final SwerveSetpointGenerator generator;
+    // Edges of the support polygon and the acceleration away from each that tips the robot
+    private final List<double[]> supportEdges;
+    private final double[] maxTipAccelerations;
+    private final Stats stats = new Stats();
+    private SwerveSetpoint prevSetpoint;
+    private MutableSwerveSetpoint prev;
+    private MutableSwerveSetpoint output;
+    private int loop = 0;
+    // Case of the last violation, starting from the setpoint before it
+    private Case failingCase = null;
+
+    Runner(
+        Translation2d[] moduleLocations,
+        ModuleLimits limits,
+        double dt,
+        SwerveSetpoint prevSetpoint,
+        MutableSwerveSetpoint prev) {
+      this.moduleLocations = moduleLocations;
+      this.limits = limits;
+      this.dt = dt;
+      generator =
+          new SwerveSetpointGenerator(new SwerveDriveKinematics(moduleLocations), moduleLocations);
+      this.prevSetpoint = prevSetpoint;
+      this.prev = copy(prev);
+      output = new MutableSwerveSetpoint(moduleLocations.length);
+
+      supportEdges = getSupportEdges(moduleLocations);
+      maxTipAccelerations = new double[supportEdges.size()];
+      for (int i = 0; i < maxTipAccelerations.length; i++) {
+        var edge = supportEdges.get(i);
+        double margin =
+            edge[2]
+                - edge[0] * limits.centerOfGravityX()
+                - edge[1] * limits.centerOfGravityY();
+        maxTipAccelerations[i] =
+            limits.centerOfGravityHeight() > 0.0
+                ? margin * gravity / limits.centerOfGravityHeight()
+                : Double.POSITIVE_INFINITY;
+      }
+    }
+
+    /**
+     * Holds a command for a number of loops and returns the first violation, if any.
+     *
+     * @param checkConvergence Whether the command must be reached within the loops.
+     */
+    Violation run(ChassisSpeeds command, int loops, boolean checkConvergence) {
+      var target = getTarget(command);
+      double expectedLoops = getExpectedLoops(target);
+      var start =
+          new Case(moduleLocations, limits, dt, prevSetpoint, copy(prev), command, loops);
+      boolean reached = false;
+      for (int i = 0; i < loops; i++) {
+        var setpoint = generator.generateSetpoint(limits, prevSetpoint, command, dt);
+        generator.generateSetpoint(limits, prev, command, dt, output);
+        var violation = check(setpoint);
+        if (violation != null) {
+          failingCase =
+              new Case(moduleLocations, limits, dt, prevSetpoint, copy(prev), command, 1);
+          return violation;
+        }
+
+        prevSetpoint = setpoint;
+        var swap = prev;
+        prev = output;
+        output = swap;
+        loop++;
+        reached = reached || isReached(target);
+      }
+
+      if (!reached && checkConvergence) {
+        failingCase = start;
+        return new Violation(
+            Property.CONVERGENCE,
+            String.format(
+                "command not reached in %d loops, expected about %.0f", loops, expectedLoops));
+      }
+      return null;
+    }
+
+    /** Returns the loops after which a command must have been reached. */
+    int getConvergenceLoops(ChassisSpeeds command) {
+      return (int) Math.ceil(convergenceFactor * getExpectedLoops(getTarget(command)))
+          + convergenceMarginLoops;
+    }
+
+    /** Returns the command scaled down to the velocity limit, like the generator. */
+    private ChassisSpeeds getTarget(ChassisSpeeds command) {
+      double maxSpeed = 0.0;
+      for (int i = 0; i < moduleLocations.length; i++) {
+        maxSpeed = Math.max(maxSpeed, getModuleSpeed(command, i));
+      }
+      if (limits.maxDriveVelocity() <= 0.0 || maxSpeed <= limits.maxDriveVelocity()) {
+        return command;
+      }
+      return command.times(limits.maxDriveVelocity() / maxSpeed);
+    }
+
+    /** Estimates the loops needed to stop, turn the modules half a turn and accelerate again. */
+    private double getExpectedLoops(ChassisSpeeds target) {
+      double maxSpeed = 0.0;
+      for (int i = 0; i < moduleLocations.length; i++) {
+        maxSpeed =
+            Math.max(
+                maxSpeed,
+                Math.max(
+                    Math.abs(prev.moduleSpeedsMetersPerSecond[i]), getModuleSpeed(target, i)));
+      }
+      // The center of gravity accelerates no faster than the fastest module
+      double maxAcceleration = limits.maxDriveAcceleration();
+      for (double maxTipAcceleration : maxTipAccelerations) {
+        maxAcceleration = Math.min(maxAcceleration, maxTipAcceleration);
+      }
+      double seconds =
+          2.0 * maxSpeed / maxAcceleration + Math.PI / limits.maxSteeringVelocity();
+      return Math.max(1.0, seconds / dt);
+    }
+
+    private double getModuleSpeed(ChassisSpeeds speeds, int index) {
+      return Math.hypot(
+          speeds.vxMetersPerSecond - moduleLocations[index].getY() * speeds.omegaRadiansPerSecond,
+          speeds.vyMetersPerSecond + moduleLocations[index].getX() * speeds.omegaRadiansPerSecond);
+    }
+
+    private boolean isReached(ChassisSpeeds target) {
+      return Math.abs(prev.vxMetersPerSecond - target.vxMetersPerSecond)
+              <= velocityToleranceMetersPerSec
+          && Math.abs(prev.vyMetersPerSecond - target.vyMetersPerSecond)
+              <= velocityToleranceMetersPerSec
+          && Math.abs(prev.omegaRadiansPerSecond - target.omegaRadiansPerSecond)
+              <= velocityToleranceMetersPerSec;
+    }
+
+    /** Checks the new setpoints against the previous setpoint. */
+    private Violation check(SwerveSetpoint setpoint) {
+      var mismatch = findMismatch(setpoint, output);
+      if (mismatch != null) {
+        return new Violation(Property.MISMATCH, mismatch);
+      }
+      if (!isFinite(output)) {
+        return new Violation(Property.NOT_FINITE, "setpoint is not finite");
+      }
+
+      double maxVelocityStep = limits.maxDriveAcceleration() * dt;
+      double maxSteeringStep = limits.maxSteeringVelocity() * dt;
+      for (int i = 0; i < moduleLocations.length; i++) {
+        double speed = output.moduleSpeedsMetersPerSecond[i];
+        if (limits.maxDriveVelocity() > 0.0
+            && Math.abs(speed) > limits.maxDriveVelocity() + velocityToleranceMetersPerSec) {
+          return new Violation(
+              Property.SPEED,
+              String.format(
+                  "module %d at %.6f m/s, limit %.6f m/s", i, speed, limits.maxDriveVelocity()));
+        }
+
+        // The wheel speed is signed along the module angle, so reversing counts as accelerating
+        double acceleration = Math.abs(speed - prev.moduleSpeedsMetersPerSecond[i]);
+        stats.maxAcceleration = Math.max(stats.maxAcceleration, acceleration / maxVelocityStep);
+        if (acceleration > maxVelocityStep + velocityToleranceMetersPerSec) {
+          return new Violation(
+              Property.ACCELERATION,
+              String.format(
+                  "module %d changed by %.6f m/s, limit %.6f m/s",
+                  i, acceleration, maxVelocityStep));
+        }
+
+        double steering =
+            Math.abs(MathUtil.angleModulus(output.moduleAnglesRad[i] - prev.moduleAnglesRad[i]));
+        if (steering > Math.PI / 2.0 + angleToleranceRad) {
+          return new Violation(
+              Property.FLIP, String.format("module %d turned %.6f rad", i, steering));
+        }
+        stats.maxSteering = Math.max(stats.maxSteering, steering / maxSteeringStep);
+        if (steering > maxSteeringStep + angleToleranceRad) {
+          return new Violation(
+              Property.STEERING,
+              String.format(
+                  "module %d turned %.6f rad, limit %.6f rad", i, steering, maxSteeringStep));
+        }
+
+        // Project the module velocity from the chassis speeds onto the module angle
+        double vx =
+            output.vxMetersPerSecond
+                - moduleLocations[i].getY() * output.omegaRadiansPerSecond;
+        double vy =
+            output.vyMetersPerSecond
+                + moduleLocations[i].getX() * output.omegaRadiansPerSecond;
+        double along = output.moduleAngleCos[i] * vx + output.moduleAngleSin[i] * vy;
+        double across = output.moduleAngleCos[i] * vy - output.moduleAngleSin[i] * vx;
+        if (Math.abs(along - speed) > velocityToleranceMetersPerSec
+            || Math.abs(across) > velocityToleranceMetersPerSec) {
+          return new Violation(
+              Property.KINEMATICS,
+              String.format(
+                  "module %d at (%.6f m/s, %.6f rad), chassis speeds give (%.6f, %.6f) m/s",
+                  i, speed, output.moduleAnglesRad[i], vx, vy));
+        }
+      }
+
+      // Acceleration of the center of gravity, leaving out turning while driving like the
+      // generator
+      double dOmega = output.omegaRadiansPerSecond - prev.omegaRadiansPerSecond;
+      double ax =
+          (output.vxMetersPerSecond
+                  - prev.vxMetersPerSecond
+                  - dOmega * limits.centerOfGravityY())
+              / dt;
+      double ay =
+          (output.vyMetersPerSecond
+                  - prev.vyMetersPerSecond
+                  + dOmega * limits.centerOfGravityX())
+              / dt;
+      for (int i = 0; i < maxTipAccelerations.length; i++) {
+        var edge = supportEdges.get(i);
+        double awayAcceleration = -(edge[0] * ax + edge[1] * ay);
+        if (maxTipAccelerations[i] > 0.0) {
+          stats.maxTipping =
+              Math.max(stats.maxTipping, awayAcceleration / maxTipAccelerations[i]);
+        }
+        if (awayAcceleration > maxTipAccelerations[i] + velocityToleranceMetersPerSec / dt) {
+          return new Violation(
+              Property.TIPPING,
+              String.format(
+                  "accelerated %.6f m/s^2 away from edge (%.6f, %.6f), limit %.6f m/s^2",
+                  awayAcceleration, edge[0], edge[1], maxTipAccelerations[i]));
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Returns the edges of the support polygon as their outward normal and offset. Each is the line
+   * through two modules with every module on one side, found without the generator's hull.
+   */
+  private static List<double[]> getSupportEdges(Translation2d[] moduleLocations) {
+    var edges = new ArrayList<double[]>();
+    for (int i = 0; i < moduleLocations.length; i++) {
+      for (int j = i + 1; j < moduleLocations.length; j++) {
+        var edge = moduleLocations[j].minus(moduleLocations[i]);
+        double normalX = edge.getY() / edge.getNorm();
+        double normalY = -edge.getX() / edge.getNorm();
+        double offset =
+            normalX * moduleLocations[i].getX() + normalY * moduleLocations[i].getY();
+        double min = 0.0;
+        double max = 0.0;
+        for (var location : moduleLocations) {
+          double distance = normalX * location.getX() + normalY * location.getY() - offset;
+          min = Math.min(min, distance);
+          max = Math.max(max, distance);
+        }
+        if (max <= 1e-9) {
+          edges.add(new double[] {normalX, normalY, offset});
+        } else if (min >= -1e-9) {
+          edges.add(new double[] {-normalX, -normalY, -offset});
+        }
+      }
+    }
+    return edges;
+  }
+
+  /** Returns a description of the first difference between the setpoints, or null. */
+  private static String findMismatch(SwerveSetpoint setpoint, MutableSwerveSetpoint mutable) {
+    var speeds = setpoint.chassisSpeeds();
+    if (speeds.vxMetersPerSecond != mutable.vxMetersPerSecond
+        || speeds.vyMetersPerSecond != mutable.vyMetersPerSecond
+        || speeds.omegaRadiansPerSecond != mutable.omegaRadiansPerSecond) {
+      return String.format(
+          "chassis speeds %s and (%s, %s, %s)",
+          speeds,
+          mutable.vxMetersPerSecond,
+          mutable.vyMetersPerSecond,
+          mutable.omegaRadiansPerSecond);
+    }
+    for (int i = 0; i < mutable.getModuleCount(); i++) {
+      var state = setpoint.moduleStates()[i];
+      if (state.speedMetersPerSecond != mutable.moduleSpeedsMetersPerSecond[i]
+          || state.angle.getRadians() != mutable.moduleAnglesRad[i]
+          || state.angle.getCos() != mutable.moduleAngleCos[i]
+          || state.angle.getSin() != mutable.moduleAngleSin[i]) {
+        return String.format(
+            "module %d at (%s m/s, %s rad) and (%s m/s, %s rad)",
+            i,
+            state.speedMetersPerSecond,
+            state.angle.getRadians(),
+            mutable.moduleSpeedsMetersPerSecond[i],
+            mutable.moduleAnglesRad[i]);
+      }
+    }
+    return null;
+  }
+
+  private static boolean isFinite(MutableSwerveSetpoint setpoint) {
+    boolean finite =
+        Double.isFinite(setpoint.vxMetersPerSecond)
+            && Double.isFinite(setpoint.vyMetersPerSecond)
+            && Double.isFinite(setpoint.omegaRadiansPerSecond);
+    for (int i = 0; i < setpoint.getModuleCount(); i++) {
+      finite &=
+          Double.isFinite(setpoint.moduleSpeedsMetersPerSecond[i])
+              && Double.isFinite(setpoint.moduleAnglesRad[i]);
+    }
+    return finite;
+  }
+
+  private static MutableSwerveSetpoint copy(MutableSwerveSetpoint setpoint) {
+    var copy = new MutableSwerveSetpoint(setpoint.getModuleCount());
+    copy.vxMetersPerSecond = setpoint.vxMetersPerSecond;
+    copy.vyMetersPerSecond = setpoint.vyMetersPerSecond;
+    copy.omegaRadiansPerSecond = setpoint.omegaRadiansPerSecond;
+    for (int i = 0; i < setpoint.getModuleCount(); i++) {
+      copy.moduleSpeedsMetersPerSecond[i] = setpoint.moduleSpeedsMetersPerSecond[i];
+      copy.moduleAnglesRad[i] = setpoint.moduleAnglesRad[i];
+      copy.moduleAngleCos[i] = setpoint.moduleAngleCos[i];
+      copy.moduleAngleSin[i] = setpoint.moduleAngleSin[i];
+    }
+    return copy;
+  }
+
+  private static double randomSigned(Random random, double magnitude) {
+    return (random.nextDouble() * 2.0 - 1.0) * magnitude;
+  }
+
+  /**
+   * Returns a rectangular four-module drivetrain or three to six modules around an ellipse,
+   * sometimes rotating about a point off its center.
+   */
+  private static Translation2d[] randomModuleLocations(Random random) {
+    double halfLength = 0.2 + random.nextDouble() * 0.3;
+    double halfWidth = 0.2 + random.nextDouble() * 0.3;
+    var offset =
+        random.nextInt(4) == 0
+            ? new Translation2d(randomSigned(random, 0.1), randomSigned(random, 0.1))
+            : Translation2d.kZero;
+    if (random.nextBoolean()) {
+      return new Translation2d[] {
+        new Translation2d(halfLength, halfWidth).plus(offset),
+        new Translation2d(halfLength, -halfWidth).plus(offset),
+        new Translation2d(-halfLength, halfWidth).plus(offset),
+        new Translation2d(-halfLength, -halfWidth).plus(offset)
+      };
+    }
+
+    // Spaced around the ellipse, each moved by up to a fifth of the spacing
+    int moduleCount = random.nextInt(minModules, maxModules + 1);
+    double startAngle = random.nextDouble() * 2.0 * Math.PI;
+    var moduleLocations = new Translation2d[moduleCount];
+    for (int i = 0; i < moduleCount; i++) {
+      double angle = startAngle + (i + randomSigned(random, 0.2)) * 2.0 * Math.PI / moduleCount;
+      moduleLocations[i] =
+          new Translation2d(halfLength * Math.cos(angle), halfWidth * Math.sin(angle))
+              .plus(offset);
+    }
+    return moduleLocations;
+  }
+
+  /**
+   * Returns random limits, occasionally without a velocity limit. Half of them have a center of
+   * gravity, at least halfway from the edges of the support polygon to the center of the modules.
+   */
+  private static ModuleLimits randomLimits(Random random, Translation2d[] moduleLocations) {
+    var limits =
+        new ModuleLimits(
+            random.nextInt(20) == 0 ? 0.0 : 2.0 + random.nextDouble() * 4.0,
+            2.0 + random.nextDouble() * 38.0,
+            3.0 + random.nextDouble() * 37.0);
+    if (random.nextBoolean()) {
+      return limits;
+    }
+
+    // Halfway between the center of the modules and a random point inside them
+    var center = Translation2d.kZero;
+    var inside = Translation2d.kZero;
+    double totalWeight = 0.0;
+    double[] weights = new double[moduleLocations.length];
+    for (int i = 0; i < moduleLocations.length; i++) {
+      weights[i] = random.nextDouble();
+      totalWeight += weights[i];
+    }
+    for (int i = 0; i < moduleLocations.length; i++) {
+      center = center.plus(moduleLocations[i].div(moduleLocations.length));
+      inside = inside.plus(moduleLocations[i].times(weights[i] / totalWeight));
+    }
+    var position = center.interpolate(inside, 0.5);
+    return limits.withCenterOfGravity(
+        new Translation3d(position.getX(), position.getY(), 0.1 + random.nextDouble() * 0.9));
+  }
+
+  /** Returns a random command, biased towards the cases the generator handles specially. */
+  private static ChassisSpeeds randomCommand(
+      Random random,
+      ModuleLimits limits,
+      double radius,
+      ChassisSpeeds current,
+      ChassisSpeeds lastCommand) {
+    double maxSpeed = limits.maxDriveVelocity() > 0.0 ? limits.maxDriveVelocity() : 5.0;
+    double maxOmega = maxSpeed / radius;
+    return switch (random.nextInt(10)) {
+      case 0 -> new ChassisSpeeds();
+      case 1 -> // Reverse, flipping every module
+          new ChassisSpeeds(
+              -current.vxMetersPerSecond,
+              -current.vyMetersPerSecond,
+              -current.omegaRadiansPerSecond);
+      case 2 -> // Reverse the last command, which may not have been reached
+          new ChassisSpeeds(
+              -lastCommand.vxMetersPerSecond,
+              -lastCommand.vyMetersPerSecond,
+              -lastCommand.omegaRadiansPerSecond);
+      case 3 -> new ChassisSpeeds(0.0, 0.0, randomSigned(random, maxOmega));
+      case 4 ->
+          new ChassisSpeeds(randomSigned(random, maxSpeed), randomSigned(random, maxSpeed), 0.0);
+      case 5 -> // Barely moving
+          new ChassisSpeeds(
+              random.nextGaussian() * 1e-7,
+              random.nextGaussian() * 1e-7,
+              random.nextGaussian() * 1e-7);
+      case 6 -> // Close to the current speeds
+          new ChassisSpeeds(
+              current.vxMetersPerSecond + random.nextGaussian() * 0.05 * maxSpeed,
+              current.vyMetersPerSecond + random.nextGaussian() * 0.05 * maxSpeed,
+              current.omegaRadiansPerSecond + random.nextGaussian() * 0.05 * maxOmega);
+      case 7 -> // Far beyond the velocity limit
+          new ChassisSpeeds(
+              randomSigned(random, 3.0 * maxSpeed),
+              randomSigned(random, 3.0 * maxSpeed),
+              randomSigned(random, 3.0 * maxOmega));
+      default ->
+          new ChassisSpeeds(
+              randomSigned(random, maxSpeed),
+              randomSigned(random, maxSpeed),
+              randomSigned(random, maxOmega));
+    };
+  }
+
+  private static String describeFailures(List<Failure> failures) {
+    var counts = new EnumMap<Property, Integer>(Property.class);
+    failures.forEach(failure -> counts.merge(failure.violation().property(), 1, Integer::sum));
+    var message = new StringBuilder();
+    message.append(
+        String.format("Violations found in %d episodes: %s%n", failures.size(), counts));
+    for (var failure : failures.subList(0, Math.min(failures.size(), maxReportedFailures))) {
+      message.append(describeFailure(failure));
+    }
+    return message.toString();
+  }
+
+  private static String describeFailure(Failure failure) {
+    var violation = failure.violation();
+    var message = new StringBuilder();
+    message.append(
+        String.format(
+            "%n%s in episode %d at loop %d: %s%n",
+            violation.property(), failure.episode(), failure.loop(), violation.description()));
+    message.append(
+        String.format(
+            "  Replay the episode with seed %d, first episode %d and 1 episode%n",
+            seed, failure.episode()));
+    var reproducer = shrink(failure.reproducer(), violation.property());
+    if (reproducer == null) {
+      message.append(String.format("  Only reproduces as part of the episode.%n"));
+      return message.toString();
+    }
+
+    var modules = new ArrayList<String>();
+    for (var location : reproducer.moduleLocations()) {
+      modules.add("(" + location.getX() + ", " + location.getY() + ")");
+    }
+    var moduleStates = new ArrayList<String>();
+    for (var state : reproducer.prevSetpoint().moduleStates()) {
+      moduleStates.add(
+          "(" + state.speedMetersPerSecond + " m/s, " + state.angle.getRadians() + " rad)");
+    }
+    var limits = reproducer.limits();
+    var prevSpeeds = reproducer.prevSetpoint().chassisSpeeds();
+    var desired = reproducer.desired();
+    message.append(String.format("  Reproduces on a new generator with:%n"));
+    message.append(String.format("    Module locations: %s%n", String.join(", ", modules)));
+    message.append(
+        String.format(
+            "    Limits: new ModuleLimits(%s, %s, %s, %s, %s, %s), dt: %s%n",
+            limits.maxDriveVelocity(),
+            limits.maxDriveAcceleration(),
+            limits.maxSteeringVelocity(),
+            limits.centerOfGravityX(),
+            limits.centerOfGravityY(),
+            limits.centerOfGravityHeight(),
+            reproducer.dt()));
+    message.append(
+        String.format(
+            "    Previous speeds: new ChassisSpeeds(%s, %s, %s)%n",
+            prevSpeeds.vxMetersPerSecond,
+            prevSpeeds.vyMetersPerSecond,
+            prevSpeeds.omegaRadiansPerSecond));
+    message.append(
+        String.format("    Previous module states: %s%n", String.join(", ", moduleStates)));
+    message.append(
+        String.format(
+            "    Desired speeds: new ChassisSpeeds(%s, %s, %s), held for %d loops%n",
+            desired.vxMetersPerSecond,
+            desired.vyMetersPerSecond,
+            desired.omegaRadiansPerSecond,
+            reproducer.loops()));
+    return message.toString();
+  }
+
+  /**
+   * Returns the simplest case that still violates the property on a new generator, or null if the
+   * case does not reproduce on its own. Cases are reduced to the limits, loop period, commands and
+   * previous chassis speeds, with the previous module states rebuilt from them, and each value is
+   * rounded as far as the violation remains.
+   */
+  private static Case shrink(Case failingCase, Property property) {
+    var moduleLocations = failingCase.moduleLocations();
+    int moduleCount = moduleLocations.length;
+    var limits = failingCase.limits();
+    var desired = failingCase.desired();
+    var prevSpeeds = failingCase.prevSetpoint().chassisSpeeds();
+    double[] values = new double[stoppedAnglesIndex + moduleCount];
+    values[maxVelocityIndex] = limits.maxDriveVelocity();
+    values[maxAccelerationIndex] = limits.maxDriveAcceleration();
+    values[maxSteeringVelocityIndex] = limits.maxSteeringVelocity();
+    values[dtIndex] = failingCase.dt();
+    values[centerOfGravityIndex] = limits.centerOfGravityX();
+    values[centerOfGravityIndex + 1] = limits.centerOfGravityY();
+    values[centerOfGravityIndex + 2] = limits.centerOfGravityHeight();
+    values[desiredIndex] = desired.vxMetersPerSecond;
+    values[desiredIndex + 1] = desired.vyMetersPerSecond;
+    values[desiredIndex + 2] = desired.omegaRadiansPerSecond;
+    values[prevSpeedsIndex] = prevSpeeds.vxMetersPerSecond;
+    values[prevSpeedsIndex + 1] = prevSpeeds.vyMetersPerSecond;
+    values[prevSpeedsIndex + 2] = prevSpeeds.omegaRadiansPerSecond;
+
+    // Record which modules drive in reverse, and the angles of stopped modules
+    boolean[] reversed = new boolean[moduleCount];
+    for (int i = 0; i < moduleCount; i++) {
+      double speed = failingCase.prev().moduleSpeedsMetersPerSecond[i];
+      double angle = failingCase.prev().moduleAnglesRad[i];
+      double vx =
+          prevSpeeds.vxMetersPerSecond
+              - moduleLocations[i].getY() * prevSpeeds.omegaRadiansPerSecond;
+      double vy =
+          prevSpeeds.vyMetersPerSecond
+              + moduleLocations[i].getX() * prevSpeeds.omegaRadiansPerSecond;
+      if (Math.hypot(vx, vy) > stoppedSpeedMetersPerSec) {
+        reversed[i] = Math.abs(MathUtil.angleModulus(angle - Math.atan2(vy, vx))) > Math.PI / 2.0;
+      } else {
+        reversed[i] = speed < 0.0;
+      }
+      values[stoppedAnglesIndex + i] =
+          reversed[i] ? MathUtil.angleModulus(angle - Math.PI) : angle;
+    }
+
+    if (!fails(buildCase(moduleLocations, values, reversed, property), property)) {
+      return null;
+    }
+    for (int pass = 0; pass < maxShrinkPasses; pass++) {
+      boolean changed = false;
+      for (int i = 0; i < values.length; i++) {
+        // Limits and the loop period must stay positive
+        boolean positive = i <= dtIndex;
+        double value = values[i];
+        for (int digits = positive ? 0 : -1; digits <= maxShrinkDigits; digits++) {
+          double scale = Math.pow(10.0, digits);
+          double candidate = digits < 0 ? 0.0 : Math.round(value * scale) / scale;
+          if (candidate == value || (positive && candidate <= 0.0)) {
+            continue;
+          }
+          values[i] = candidate;
+          if (fails(buildCase(moduleLocations, values, reversed, property), property)) {
+            changed = true;
+            break;
+          }
+          values[i] = value;
+        }
+      }
+      for (int i = 0; i < moduleCount; i++) {
+        if (reversed[i]) {
+          reversed[i] = false;
+          if (fails(buildCase(moduleLocations, values, reversed, property), property)) {
+            changed = true;
+          } else {
+            reversed[i] = true;
+          }
+        }
+      }
+      if (!changed) {
+        break;
+      }
+    }
+    return buildCase(moduleLocations, values, reversed, property);
+  }
+
+  /** Builds a case from its values, holding convergence cases for as long as they must take. */
+  private static Case buildCase(
+      Translation2d[] moduleLocations, double[] values, boolean[] reversed, Property property) {
+    var limits =
+        new ModuleLimits(
+            values[maxVelocityIndex],
+            values[maxAccelerationIndex],
+            values[maxSteeringVelocityIndex],
+            values[centerOfGravityIndex],
+            values[centerOfGravityIndex + 1],
+            values[centerOfGravityIndex + 2]);
+    double dt = values[dtIndex];
+    var desired =
+        new ChassisSpeeds(values[desiredIndex], values[desiredIndex + 1], values[desiredIndex + 2]);
+    var prevSpeeds =
+        new ChassisSpeeds(
+            values[prevSpeedsIndex], values[prevSpeedsIndex + 1], values[prevSpeedsIndex + 2]);
+
+    var moduleStates = new SwerveModuleState[moduleLocations.length];
+    for (int i = 0; i < moduleStates.length; i++) {
+      double vx =
+          prevSpeeds.vxMetersPerSecond
+              - moduleLocations[i].getY() * prevSpeeds.omegaRadiansPerSecond;
+      double vy =
+          prevSpeeds.vyMetersPerSecond
+              + moduleLocations[i].getX() * prevSpeeds.omegaRadiansPerSecond;
+      double speed = Math.hypot(vx, vy);
+      double angle =
+          speed > stoppedSpeedMetersPerSec ? Math.atan2(vy, vx) : values[stoppedAnglesIndex + i];
+      if (reversed[i]) {
+        speed = -speed;
+        angle = MathUtil.angleModulus(angle + Math.PI);
+      }
+      moduleStates[i] = new SwerveModuleState(speed, Rotation2d.fromRadians(angle));
+    }
+    var prevSetpoint = new SwerveSetpoint(prevSpeeds, moduleStates);
+    var prev = new MutableSwerveSetpoint(moduleStates.length);
+    prev.set(prevSetpoint);
+
+    int loops = 1;
+    if (property == Property.CONVERGENCE) {
+      loops =
+          new Runner(moduleLocations, limits, dt, prevSetpoint, prev).getConvergenceLoops(desired);
+    }
+    return new Case(moduleLocations, limits, dt, prevSetpoint, prev, desired, loops);
+  }
+
+  /** Returns whether the case violates the property on a new generator. */
+  private static boolean fails(Case failingCase, Property property) {
+    var runner =
+        new Runner(
+            failingCase.moduleLocations(),
+            failingCase.limits(),
+            failingCase.dt(),
+            failingCase.prevSetpoint(),
+            failingCase.prev());
+    var violation =
+        runner.run(
+            failingCase.desired(), failingCase.loops(), property == Property.CONVERGENCE);
+    return violation != null && violation.property() == property;
+  }
+}
@@ -0,0 +1,328 @@
+// Copyright (c) 2025 FRC Team 1466
+// https://github.com/FRC1466
+ 
+package org.webbrobotics.frc2025.util.swerve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class SwerveSetpointGeneratorTest {
+  private static final double dt = 0.02;
+  private static final int driveLimitSamples = 200_000;
+  private static final int maxRootIterations = 10;
+  // Largest allowed error in the velocity at the closed-form drive limit
+  private static final double maxClosedFormErrorMetersPerSec = 1e-9;
+  // Velocity error below which the search has converged
+  private static final double convergedErrorMetersPerSec = 1e-6;
+  // Largest allowed difference in s where the search converged, or past the search on a dip
+  private static final double maxConvergedDifference = 1e-3;
+  // Largest allowed steering step past the limit
+  private static final double angleToleranceRad = 1e-9;
+  private static final Translation2d[] moduleLocations = {
+    new Translation2d(0.3, 0.3),
+    new Translation2d(0.3, -0.3),
+    new Translation2d(-0.3, 0.3),
+    new Translation2d(-0.3, -0.3)
+  };
+  private static final ModuleLimits limits =
+      new ModuleLimits(4.5, 12.0, Math.toRadians(1080.0), 0.0, 0.0, 0.3);
+
+  private static SwerveSetpointGenerator createGenerator() {
+    return new SwerveSetpointGenerator(new SwerveDriveKinematics(moduleLocations), moduleLocations);
+  }
+
+  private static SwerveSetpoint createStoppedSetpoint() {
+    var moduleStates = new SwerveModuleState[moduleLocations.length];
+    for (int i = 0; i < moduleStates.length; i++) {
+      moduleStates[i] = new SwerveModuleState();
+    }
+    return new SwerveSetpoint(new ChassisSpeeds(), moduleStates);
+  }
+
+  /** Both generator variants must return bit-identical setpoints from the same commands. */
+  @Test
+  void inPlaceMatchesImmutable() {
+    var immutableGenerator = createGenerator();
+    var inPlaceGenerator = createGenerator();
+    var random = new Random(1466);
+
+    var immutableSetpoint = createStoppedSetpoint();
+    var inPlaceSetpoint = new MutableSwerveSetpoint(moduleLocations.length);
+    var desired = new ChassisSpeeds();
+    for (int loop = 0; loop < 5000; loop++) {
+      // Hold each command for a while, with some stops so modules keep their previous heading
+      if (loop % 25 == 0) {
+        boolean stop = random.nextInt(5) == 0;
+        desired =
+            stop
+                ? new ChassisSpeeds()
+                : new ChassisSpeeds(
+                    random.nextDouble(-5.0, 5.0),
+                    random.nextDouble(-5.0, 5.0),
+                    random.nextDouble(-8.0, 8.0));
+      }
+
+      immutableSetpoint =
+          immutableGenerator.generateSetpoint(limits, immutableSetpoint, desired, dt);
+      inPlaceGenerator.generateSetpoint(limits, inPlaceSetpoint, desired, dt, inPlaceSetpoint);
+
+      assertSetpointEquals(
+          immutableSetpoint, inPlaceSetpoint, "Loop " + loop + " toward " + desired);
+    }
+  }
+
+  /**
+   * A module steered while it was barely moving can have an angle off from the velocity the chassis
+   * speeds give it. The steering limit has to start from that velocity, since it is what gets
+   * interpolated, rather than from the module angle. Starting from the module angle turned the
+   * module 0.145 rad here, against a limit of 0.1 rad.
+   */
+  @Test
+  void steeringLimitStartsFromChassisVelocity() {
+    var limits = new ModuleLimits(4.0, 100.0, 5.0);
+    var prevStates = new SwerveModuleState[moduleLocations.length];
+    for (int i = 0; i < prevStates.length; i++) {
+      prevStates[i] = new SwerveModuleState(0.001, Rotation2d.fromRadians(-0.05));
+    }
+    var prevSetpoint = new SwerveSetpoint(new ChassisSpeeds(0.001, 0.0, 0.0), prevStates);
+
+    var setpoint = generate(limits, prevSetpoint, new ChassisSpeeds(1.0, 1.0, 0.0));
+    assertSteeringWithinLimit(limits, prevSetpoint, setpoint);
+  }
+
+  /**
+   * Modules slower than 1e-6 m/s keep the heading kinematics last gave them, which says nothing
+   * about their velocity, so they have to be steered like stopped modules. Treating these modules
+   * as moving left the robot creeping at 5e-8 m/s forever instead of starting to turn.
+   */
+  @Test
+  void creepingModulesSteerLikeStoppedModules() {
+    var limits = new ModuleLimits(6.0, 5.0, 18.0);
+    // Creeping backwards, with one module pointed the other way
+    var prevStates = new SwerveModuleState[moduleLocations.length];
+    prevStates[0] = new SwerveModuleState(5e-8, Rotation2d.kPi);
+    for (int i = 1; i < prevStates.length; i++) {
+      prevStates[i] = new SwerveModuleState(-5e-8, Rotation2d.kZero);
+    }
+    var setpoint = new SwerveSetpoint(new ChassisSpeeds(-5e-8, 0.0, 0.0), prevStates);
+
+    // Spinning up takes about 11 loops
+    var desired = new ChassisSpeeds(0.0, 0.0, 2.0);
+    for (int loop = 0; loop < 25; loop++) {
+      var prevSetpoint = setpoint;
+      setpoint = generate(limits, prevSetpoint, desired);
+      assertSteeringWithinLimit(limits, prevSetpoint, setpoint);
+    }
+    assertEquals(
+        desired.omegaRadiansPerSecond, setpoint.chassisSpeeds().omegaRadiansPerSecond, 1e-9);
+  }
+
+  /**
+   * A module held at its angle while it was slower than 1e-6 m/s can point far from its velocity
+   * once it is a little faster. It has to be steered like a stopped module, since the steering
+   * limit is solved along a velocity that never comes near the limit angle. Solving it anyway
+   * snapped the module a quarter turn to its velocity, against a limit of 0.1 rad.
+   */
+  @Test
+  void misalignedModulesSteerLikeStoppedModules() {
+    var limits = new ModuleLimits(4.0, 100.0, 5.0);
+    var prevStates = new SwerveModuleState[moduleLocations.length];
+    for (int i = 0; i < prevStates.length; i++) {
+      prevStates[i] = new SwerveModuleState(2e-6, Rotation2d.kZero);
+    }
+    var prevSetpoint = new SwerveSetpoint(new ChassisSpeeds(0.0, 2e-6, 0.0), prevStates);
+
+    var setpoint = generate(limits, prevSetpoint, new ChassisSpeeds(1.0, 0.15, 0.0));
+    assertSteeringWithinLimit(limits, prevSetpoint, setpoint);
+  }
+
+  /**
+   * The steering limit must stop on the limit angle. Regula falsi kept one end of its bracket and
+   * returned it once its iterations ran out, so a quarter turn with a 0.1 rad limit went all the
+   * way to s=1.
+   */
+  @Test
+  void steeringLimitStopsOnLimitAngle() {
+    var generator = createGenerator();
+    double maxDeviation = 0.1;
+    for (double goalRad = -3.0; goalRad <= 3.0; goalRad += 0.1) {
+      if (Math.abs(goalRad) <= maxDeviation) {
+        continue;
+      }
+      for (double goalSpeed : new double[] {0.5, 1.0, 4.0}) {
+        double x_1 = goalSpeed * Math.cos(goalRad);
+        double y_1 = goalSpeed * Math.sin(goalRad);
+        double s = generator.findSteeringMaxS(1.0, 0.0, 0.0, x_1, y_1, goalRad, maxDeviation);
+        double angle = Math.atan2(y_1 * s, (x_1 - 1.0) * s + 1.0);
+        assertEquals(
+            Math.copySign(maxDeviation, goalRad),
+            angle,
+            angleToleranceRad,
+            "Goal " + goalRad + " rad at " + goalSpeed + " m/s");
+      }
+    }
+  }
+
+  /** Returns the next setpoint from both generator variants, which must agree exactly. */
+  private static SwerveSetpoint generate(
+      ModuleLimits limits, SwerveSetpoint prevSetpoint, ChassisSpeeds desired) {
+    var setpoint = createGenerator().generateSetpoint(limits, prevSetpoint, desired, dt);
+    var inPlaceSetpoint = new MutableSwerveSetpoint(moduleLocations.length);
+    inPlaceSetpoint.set(prevSetpoint);
+    createGenerator().generateSetpoint(limits, inPlaceSetpoint, desired, dt, inPlaceSetpoint);
+    assertSetpointEquals(setpoint, inPlaceSetpoint, "Toward " + desired);
+    return setpoint;
+  }
+
+  private static void assertSetpointEquals(
+      SwerveSetpoint expected, MutableSwerveSetpoint actual, String message) {
+    var speeds = expected.chassisSpeeds();
+    assertEquals(speeds.vxMetersPerSecond, actual.vxMetersPerSecond, message);
+    assertEquals(speeds.vyMetersPerSecond, actual.vyMetersPerSecond, message);
+    assertEquals(speeds.omegaRadiansPerSecond, actual.omegaRadiansPerSecond, message);
+    for (int i = 0; i < moduleLocations.length; i++) {
+      SwerveModuleState state = expected.moduleStates()[i];
+      Rotation2d angle = state.angle;
+      assertEquals(state.speedMetersPerSecond, actual.moduleSpeedsMetersPerSecond[i], message);
+      assertEquals(angle.getRadians(), actual.moduleAnglesRad[i], message);
+      assertEquals(angle.getCos(), actual.moduleAngleCos[i], message);
+      assertEquals(angle.getSin(), actual.moduleAngleSin[i], message);
+    }
+  }
+
+  private static void assertSteeringWithinLimit(
+      ModuleLimits limits, SwerveSetpoint prevSetpoint, SwerveSetpoint setpoint) {
+    double maxSteeringStep = limits.maxSteeringVelocity() * dt;
+    for (int i = 0; i < moduleLocations.length; i++) {
+      double steering =
+          Math.abs(
+              MathUtil.angleModulus(
+                  setpoint.moduleStates()[i].angle.getRadians()
+                      - prevSetpoint.moduleStates()[i].angle.getRadians()));
+      assertTrue(
+          steering <= maxSteeringStep + angleToleranceRad,
+          "Module " + i + " turned " + steering + " rad, limit " + maxSteeringStep + " rad");
+    }
+  }
+
+  /**
+   * The closed-form drive limit must stop on the first limit the velocity crosses. Where the search
+   * converged, both must find the same interpolant. Where the velocity dips below the lower limit
+   * on the way to a faster goal, the search misses the dip and stops on the upper limit, so the
+   * closed form must stop no later than the search.
+   */
+  @Test
+  void closedFormDriveLimitMatchesSearch() {
+    var generator = createGenerator();
+    var random = new Random(1466);
+    int dips = 0;
+    for (int sampleIndex = 0; sampleIndex < driveLimitSamples; sampleIndex++) {
+      // x_0, y_0, x_1, y_1, max_vel_step, with some degenerate cases mixed in
+      double[] sample = new double[5];
+      for (int i = 0; i < 4; i++) {
+        sample[i] = random.nextDouble(-5.0, 5.0);
+      }
+      switch (random.nextInt(10)) {
+        case 0 -> { // Starting from a stop
+          sample[0] = 0.0;
+          sample[1] = 0.0;
+        }
+        case 1 -> { // Stopping
+          sample[2] = 0.0;
+          sample[3] = 0.0;
+        }
+        case 2 -> { // Reversing through zero
+          sample[2] = -sample[0];
+          sample[3] = -sample[1];
+        }
+        case 3 -> { // Tiny change in velocity
+          sample[2] = sample[0] + random.nextGaussian() * 1e-7;
+          sample[3] = sample[1] + random.nextGaussian() * 1e-7;
+        }
+        default -> {}
+      }
+      sample[4] = random.nextDouble() * 0.5;
+
+      double closedForm = findDriveMaxS(generator, sample, false);
+      double iterative = findDriveMaxS(generator, sample, true);
+      String message = "Sample " + Arrays.toString(sample);
+      assertTrue(
+          getLimitError(sample, closedForm) <= maxClosedFormErrorMetersPerSec,
+          message + ": closed form s=" + closedForm + " is off the limit");
+      if (isDip(sample)) {
+        dips++;
+        assertTrue(
+            closedForm <= iterative + maxConvergedDifference,
+            message + ": closed form s=" + closedForm + " is past the search s=" + iterative);
+      } else if (getLimitError(sample, iterative) <= convergedErrorMetersPerSec) {
+        assertEquals(iterative, closedForm, maxConvergedDifference, message);
+      }
+    }
+    // Make sure the dip bound was exercised
+    assertTrue(dips > 0);
+  }
+
+  private static double findDriveMaxS(
+      SwerveSetpointGenerator generator, double[] sample, boolean iterative) {
+    double f_0 = Math.hypot(sample[0], sample[1]);
+    double f_1 = Math.hypot(sample[2], sample[3]);
+    return iterative
+        ? generator.findDriveMaxSIterative(
+            sample[0], sample[1], f_0, sample[2], sample[3], f_1, sample[4], maxRootIterations)
+        : generator.findDriveMaxS(
+            sample[0], sample[1], f_0, sample[2], sample[3], f_1, sample[4], maxRootIterations);
+  }
+
+  /**
+   * Returns how far the velocity strays outside of the limits before s, plus how far it is from the
+   * limit it stopped at unless s=1.
+   */
+  private static double getLimitError(double[] sample, double s) {
+    double f_0 = Math.hypot(sample[0], sample[1]);
+    double lower = f_0 - sample[4];
+    double upper = f_0 + sample[4];
+    // The velocity is convex, so it is fastest at an end
+    double velocity = getVelocity(sample, s);
+    double error =
+        Math.max(0.0, velocity - upper) + Math.max(0.0, lower - getMinVelocity(sample, s));
+    if (s < 1.0) {
+      double distance = Math.abs(velocity - upper);
+      if (lower > 0.0) {
+        distance = Math.min(distance, Math.abs(velocity - lower));
+      }
+      error += distance;
+    }
+    return error;
+  }
+
+  /** Returns whether the velocity dips below the lower limit on the way to a faster goal. */
+  private static boolean isDip(double[] sample) {
+    double f_0 = Math.hypot(sample[0], sample[1]);
+    return getVelocity(sample, 1.0) > f_0 + sample[4]
+        && getMinVelocity(sample, 1.0) < f_0 - sample[4];
+  }
+
+  private static double getVelocity(double[] sample, double s) {
+    return Math.hypot(
+        (sample[2] - sample[0]) * s + sample[0], (sample[3] - sample[1]) * s + sample[1]);
+  }
+
+  /** Returns the slowest velocity between 0 and s. */
+  private static double getMinVelocity(double[] sample, double s) {
+    double dx = sample[2] - sample[0];
+    double dy = sample[3] - sample[1];
+    double a = dx * dx + dy * dy;
+    double closest = a > 0.0 ? -(sample[0] * dx + sample[1] * dy) / a : 0.0;
+    return getVelocity(sample, Math.max(0.0, Math.min(s, closest)));
+  }
+}